@@ -28,7 +28,8 @@ public class Moditect {
         CliArgs cliArgs = new CliArgs();
         new JCommander(cliArgs, args);
 
-        new AddModuleInfo(null, null, null, null, cliArgs.outputDirecory, cliArgs.jvmVersion, cliArgs.overwriteExistingFiles, cliArgs.timestamp).run();
+        new AddModuleInfo(null, null, null, null, cliArgs.outputDirecory, cliArgs.jvmVersion, cliArgs.overwriteExistingFiles, cliArgs.timestamp, false, null,
+                null).run();
     }
 
     @Parameters(separators = "=")
@@ -7,41 +7,47 @@
  */
 package org.moditect.commands;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.FileTime;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
-import java.util.Enumeration;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Set;
 import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 
+import org.moditect.internal.cache.ModuleInfoCache;
 import org.moditect.internal.compiler.ModuleInfoCompiler;
+import org.moditect.internal.io.OutputFiles;
+import org.moditect.internal.zip.ZipArchive;
+import org.moditect.internal.zip.ZipEntryRecord;
+import org.moditect.internal.zip.ZipWriter;
+import org.moditect.model.JarSnapshot;
+import org.moditect.model.ModuleAttributes;
 
-import com.github.javaparser.ast.modules.ModuleDeclaration;
-
-import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
- * Creates a copy of a given JAR file, adding a module-info.class descriptor.
+ * Creates a copy of a given JAR file, adding a module-info.class descriptor. Alternatively, the descriptor can
+ * be added to the given JAR file in place.
  *
  * @author Gunnar Morling
  */
 public class AddModuleInfo {
 
-    private static final int DEFAULT_BUFFER_SIZE = 8192;
     private static final String NO_JVM_VERSION = "base";
     private static final String MANIFEST_ENTRY_NAME = "META-INF/MANIFEST.MF";
     private static final String META_INF_VERSIONS_DIR = "META-INF/versions/";
@@ -55,9 +61,20 @@ public class AddModuleInfo {
     private final Integer jvmVersion;
     private final boolean overwriteExistingFiles;
     private final Instant timestamp;
+    private final boolean inPlace;
+    private final ModuleInfoCache cache;
+    private final ModuleAttributes attributes;
 
+    /**
+     * @param inPlace whether to add the descriptor to the input JAR itself instead of creating a copy of it in
+     *        the output directory
+     * @param cache the cache for the compiled descriptor; may be {@code null}
+     * @param attributes the additional attributes of the compiled descriptor used by jlink and when resolving
+     *        modules; may be {@code null}. Module hashes require a JVM version of at least
+     *        {@link ModuleAttributes#MIN_HASHES_JVM_VERSION}
+     */
     public AddModuleInfo(String moduleInfoSource, String mainClass, String version, Path inputJar, Path outputDirectory, String jvmVersion,
-                         boolean overwriteExistingFiles, Instant timestamp) {
+                         boolean overwriteExistingFiles, Instant timestamp, boolean inPlace, ModuleInfoCache cache, ModuleAttributes attributes) {
         this.moduleInfoSource = moduleInfoSource;
         this.mainClass = mainClass;
         this.version = version;
@@ -81,8 +98,18 @@ public class AddModuleInfo {
                 throw new IllegalArgumentException("Invalid JVM Version: " + jvmVersion + ". Allowed values are 'base' and integer values >= 9.");
             }
         }
+
+        if (attributes != null && !attributes.getHashes().isEmpty()
+                && (this.jvmVersion == null || this.jvmVersion < ModuleAttributes.MIN_HASHES_JVM_VERSION)) {
+            throw new IllegalArgumentException("Module hashes can only be recorded for JVM version " + ModuleAttributes.MIN_HASHES_JVM_VERSION
+                    + " or later, as earlier versions compute them differently; specify a JVM version of at least "
+                    + ModuleAttributes.MIN_HASHES_JVM_VERSION + " instead of " + (jvmVersion != null ? jvmVersion : NO_JVM_VERSION) + ".");
+        }
         this.overwriteExistingFiles = overwriteExistingFiles;
         this.timestamp = timestamp;
+        this.inPlace = inPlace;
+        this.cache = cache;
+        this.attributes = attributes;
     }
 
     public void run() {
@@ -90,28 +117,23 @@ public class AddModuleInfo {
             throw new IllegalArgumentException("Input JAR must not be a directory");
         }
 
-        if (!Files.exists(outputDirectory)) {
-            throw new IllegalArgumentException("Output directory doesn't exist: " + outputDirectory);
-        }
-
-        Path outputJar = outputDirectory.resolve(inputJar.getFileName());
+        Path outputJar = null;
 
-        if (Files.exists(outputJar) && !overwriteExistingFiles) {
-            throw new RuntimeException(
-                    "File " + outputJar + " already exists; either set 'overwriteExistingFiles' to true or specify another output directory");
-        }
+        if (!inPlace) {
+            if (!Files.exists(outputDirectory)) {
+                throw new IllegalArgumentException("Output directory doesn't exist: " + outputDirectory);
+            }
 
-        ModuleDeclaration module = ModuleInfoCompiler.parseModuleInfo(moduleInfoSource);
-        byte[] clazz = ModuleInfoCompiler.compileModuleInfo(module, mainClass, version);
+            outputJar = outputDirectory.resolve(inputJar.getFileName());
 
-        Path tmpOutputJar = null;
-        try {
-            tmpOutputJar = Files.createTempFile("moditect", "jar");
-        }
-        catch (IOException e) {
-            throw new RuntimeException("Couldn't create tmp JAR file", e);
+            if (Files.exists(outputJar) && !overwriteExistingFiles) {
+                throw new RuntimeException(
+                        "File " + outputJar + " already exists; either set 'overwriteExistingFiles' to true or specify another output directory");
+            }
         }
 
+        byte[] clazz = compileModuleInfo();
+
         boolean versionedModuleInfo = jvmVersion != null;
         String moduleInfoDir = versionedModuleInfo ? META_INF_VERSIONS_DIR + jvmVersion + "/" : "";
         String moduleInfoEntryName = moduleInfoDir + MODULE_INFO_CLASS;
@@ -128,80 +150,227 @@ public class AddModuleInfo {
         overwrittenEntries.add(moduleInfoEntryName);
         overwrittenEntries.addAll(dirEntriesToCreate);
 
-        // brute force copy all entries
-        try (JarFile jarFile = new JarFile(inputJar.toAbsolutePath().toFile());
-                JarOutputStream jarout = new JarOutputStream(Files.newOutputStream(tmpOutputJar.toAbsolutePath(), TRUNCATE_EXISTING))) {
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while (entries.hasMoreElements()) {
-                JarEntry inputEntry = entries.nextElement();
+        if (inPlace && addModuleInfoInPlace(clazz, moduleInfoEntryName, dirEntriesToCreate, overwrittenEntries, lastModifiedTime)) {
+            return;
+        }
+
+        if (outputJar == null) {
+            outputJar = inputJar;
+        }
+
+        try {
+            Files.createDirectories(outputJar.toAbsolutePath().getParent());
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't create directory for " + outputJar, e);
+        }
+
+        // written next to the output JAR and then moved into place, so it is never visible partially written
+        Path tmpOutputJar = OutputFiles.getTempFile(outputJar.toAbsolutePath());
+
+        try {
+            writeJar(tmpOutputJar, clazz, versionedModuleInfo, moduleInfoEntryName, dirEntriesToCreate, overwrittenEntries, lastModifiedTime);
+            publish(tmpOutputJar, outputJar);
+        }
+        finally {
+            try {
+                Files.deleteIfExists(tmpOutputJar);
+            }
+            catch (IOException e) {
+                // ignore; it's a hidden temporary file only
+            }
+        }
+    }
+
+    private void writeJar(Path tmpOutputJar, byte[] clazz, boolean versionedModuleInfo, String moduleInfoEntryName, List<String> dirEntriesToCreate,
+                          Set<String> overwrittenEntries, long lastModifiedTime) {
+        // copy all entries as is, without inflating and re-compressing them
+        try (ZipArchive inputArchive = ZipArchive.open(inputJar.toAbsolutePath());
+                FileChannel output = FileChannel.open(tmpOutputJar, CREATE_NEW, WRITE);
+                ZipWriter zipWriter = new ZipWriter(output, 0)) {
+            for (ZipEntryRecord inputEntry : inputArchive.getEntries()) {
                 String entryName = inputEntry.getName();
 
                 // manifest requires extra care due to MRJARs
                 if (versionedModuleInfo && MANIFEST_ENTRY_NAME.equals(entryName)) {
-                    Manifest manifest = jarFile.getManifest();
-                    if (null == manifest) {
-                        manifest = new Manifest();
-                        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
-                    }
-                    manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    manifest.write(baos);
-
-                    JarEntry outputEntry = new JarEntry(entryName);
-                    outputEntry.setTime(lastModifiedTime);
-                    jarout.putNextEntry(outputEntry);
-                    jarout.write(baos.toByteArray(), 0, baos.size());
-                    jarout.closeEntry();
+                    zipWriter.addEntry(entryName, getMultiReleaseManifest(inputArchive.getContent(inputEntry)), lastModifiedTime);
                 }
                 else if (overwrittenEntries.contains(entryName)) {
                     // skip this entry as we'll overwrite it
                 }
                 else {
                     // copy entry as is, set timestamp
-                    JarEntry outputEntry = new JarEntry(entryName);
-                    outputEntry.setTime(lastModifiedTime);
-                    jarout.putNextEntry(outputEntry);
-                    copy(jarFile.getInputStream(inputEntry), jarout);
-                    jarout.closeEntry();
+                    zipWriter.copyEntry(inputArchive, inputEntry, lastModifiedTime);
                 }
             }
 
             for (String dirEntryName : dirEntriesToCreate) {
-                JarEntry dirEntry = new JarEntry(dirEntryName);
-                dirEntry.setTime(lastModifiedTime);
-                jarout.putNextEntry(dirEntry);
-                jarout.closeEntry();
+                zipWriter.addDirectory(dirEntryName, lastModifiedTime);
             }
 
             // copy module descriptor
-            JarEntry outputEntry = new JarEntry(moduleInfoEntryName);
-            outputEntry.setTime(lastModifiedTime);
-            jarout.putNextEntry(outputEntry);
-            jarout.write(clazz, 0, clazz.length);
-            jarout.closeEntry();
+            zipWriter.addEntry(moduleInfoEntryName, clazz, lastModifiedTime);
+            zipWriter.finish();
         }
         catch (IOException e) {
             throw new RuntimeException("Couldn't add module-info.class to JAR", e);
         }
 
+    }
+
+    /**
+     * Moves the written JAR to the given output JAR. Unless existing files may be overwritten, it is checked once
+     * more whether the output JAR exists, under the lock of the output directory, as another build writing to
+     * the same directory may have created it meanwhile.
+     */
+    private void publish(Path tmpOutputJar, Path outputJar) {
         try {
-            Files.createDirectories(outputJar.toAbsolutePath().getParent());
-            Files.move(tmpOutputJar, outputJar, StandardCopyOption.REPLACE_EXISTING);
+            if (overwriteExistingFiles || outputJar.equals(inputJar)) {
+                OutputFiles.publish(tmpOutputJar, outputJar);
+                return;
+            }
+
+            OutputFiles.withLock(outputJar.toAbsolutePath().getParent(), () -> {
+                if (Files.exists(outputJar)) {
+                    throw new RuntimeException(
+                            "File " + outputJar + " already exists; either set 'overwriteExistingFiles' to true or specify another output directory");
+                }
+
+                OutputFiles.publish(tmpOutputJar, outputJar);
+                return null;
+            });
         }
         catch (IOException e) {
             throw new RuntimeException("Couldn't copy JAR file", e);
         }
     }
 
+    /**
+     * Adds the module descriptor to the input JAR itself: the new entries are written after the data of the
+     * last retained entry, followed by a new central directory. Existing entries are not touched, i.e. they
+     * keep their time stamps. Entries replaced by this command which are located at the end of the JAR (e.g.
+     * the descriptor added by a previous run) are overwritten, so the JAR doesn't grow upon each run. If writing
+     * fails, the original end of the JAR is restored.
+     *
+     * @return {@code false} if the JAR cannot be updated in place, {@code true} otherwise
+     */
+    private boolean addModuleInfoInPlace(byte[] clazz, String moduleInfoEntryName, List<String> dirEntriesToCreate,
+                                         Set<String> overwrittenEntries, long lastModifiedTime) {
+        boolean versionedModuleInfo = jvmVersion != null;
+
+        try (ZipArchive archive = ZipArchive.openForUpdate(inputJar.toAbsolutePath())) {
+            // offsets of JARs with a prepended launcher script would have to be shifted; use a full copy instead
+            if (archive.getPrefixLength() != 0) {
+                return false;
+            }
+
+            // streaming readers such as JarInputStream only find the manifest among the first entries, so an
+            // amended manifest can't be appended; use a full copy instead
+            ZipEntryRecord manifest = archive.getEntry(MANIFEST_ENTRY_NAME);
+            if (versionedModuleInfo && manifest != null && !isMultiRelease(archive.getContent(manifest))) {
+                return false;
+            }
+
+            try (ZipWriter zipWriter = ZipWriter.appendTo(archive, getAppendOffset(archive, overwrittenEntries))) {
+                try {
+                    for (ZipEntryRecord entry : archive.getEntries()) {
+                        if (!overwrittenEntries.contains(entry.getName())) {
+                            zipWriter.keepEntry(entry);
+                        }
+                    }
+
+                    for (String dirEntryName : dirEntriesToCreate) {
+                        zipWriter.addDirectory(dirEntryName, lastModifiedTime);
+                    }
+
+                    zipWriter.addEntry(moduleInfoEntryName, clazz, lastModifiedTime);
+                    zipWriter.finish();
+                }
+                catch (IOException | RuntimeException e) {
+                    try {
+                        zipWriter.restore();
+                    }
+                    catch (IOException restoreFailure) {
+                        e.addSuppressed(restoreFailure);
+                    }
+                    throw e;
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't add module-info.class to JAR " + inputJar, e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the offset new entries are written at when updating the given archive in place: the start of the
+     * replaced entries located at the end of the archive, if any, otherwise the start of the central directory.
+     */
+    private static long getAppendOffset(ZipArchive archive, Set<String> overwrittenEntries) {
+        List<ZipEntryRecord> entries = new ArrayList<>(archive.getEntries());
+        entries.sort(Comparator.comparingLong(ZipEntryRecord::getLocalHeaderOffset));
+
+        long offset = archive.getCentralDirectoryOffset();
+        for (int i = entries.size() - 1; i >= 0 && overwrittenEntries.contains(entries.get(i).getName()); i--) {
+            offset = entries.get(i).getLocalHeaderOffset();
+        }
+
+        return offset;
+    }
+
+    private byte[] compileModuleInfo() {
+        // emit the ModulePackages attribute, sparing the JVM a scan of the JAR's entries
+        Set<String> packages = JarSnapshot.of(inputJar).getAllPackages();
+
+        if (cache == null) {
+            return ModuleInfoCompiler.compileModuleInfo(ModuleInfoCompiler.parseModuleInfo(moduleInfoSource), mainClass, version, packages, attributes);
+        }
+
+        ModuleInfoCache.KeyBuilder keyBuilder = cache.newKey("module-info.class")
+                .add("moduleInfoSource", moduleInfoSource)
+                .add("mainClass", mainClass)
+                .add("version", version)
+                .addUnordered("packages", packages);
+
+        if (attributes != null) {
+            keyBuilder.add("targetPlatform", attributes.getTargetPlatform())
+                    .add("doNotResolveByDefault", attributes.isDoNotResolveByDefault());
+
+            for (Entry<String, byte[]> hash : attributes.getHashes().entrySet()) {
+                keyBuilder.add("hash:" + hash.getKey(), Base64.getEncoder().encodeToString(hash.getValue()));
+            }
+        }
+
+        String key = keyBuilder.build();
+
+        Optional<byte[]> cached = cache.get(key, "class");
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        byte[] clazz = ModuleInfoCompiler.compileModuleInfo(ModuleInfoCompiler.parseModuleInfo(moduleInfoSource), mainClass, version, packages, attributes);
+        cache.put(key, "class", clazz);
+
+        return clazz;
+    }
+
     private FileTime toFileTime(Instant timestamp) {
         return FileTime.from(timestamp != null ? timestamp : Instant.now());
     }
 
-    private void copy(InputStream in, OutputStream out) throws IOException {
-        byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-        int read;
-        while ((read = in.read(buffer, 0, DEFAULT_BUFFER_SIZE)) >= 0) {
-            out.write(buffer, 0, read);
-        }
+    private static boolean isMultiRelease(byte[] manifest) throws IOException {
+        return "true".equalsIgnoreCase(new Manifest(new ByteArrayInputStream(manifest)).getMainAttributes().getValue("Multi-Release"));
+    }
+
+    private byte[] getMultiReleaseManifest(byte[] originalManifest) throws IOException {
+        Manifest manifest = new Manifest(new ByteArrayInputStream(originalManifest));
+        manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        manifest.write(baos);
+
+        return baos.toByteArray();
     }
 }
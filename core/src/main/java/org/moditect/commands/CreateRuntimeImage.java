@@ -9,29 +9,61 @@ package org.moditect.commands;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.module.Configuration;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ResolvedModule;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.spi.ToolProvider;
 import java.util.stream.Collectors;
 
+import org.moditect.internal.command.LogWriter;
 import org.moditect.internal.command.ProcessExecutor;
+import org.moditect.internal.image.ImageInputManifest;
 import org.moditect.model.JarInclusionPolicy;
+import org.moditect.model.TrainingRun;
 import org.moditect.spi.log.Log;
 
 /**
- * Creates a modular runtime image for the given modules and module path, via jlink.
+ * Creates a modular runtime image for the given modules and module path, via jlink. jlink is run in-process,
+ * unless the executable of another JDK is given.
+ * <p>
+ * The inputs of the image are recorded within it (see {@link ImageInputManifest}); if they are unchanged upon
+ * the next run, jlink is skipped and only the JARs added to the image are updated.
  *
  * @author Gunnar Morling
  */
 public class CreateRuntimeImage {
 
     private static final String DEPENDENCIES_DIRECTORY = "jars";
+    private static final String RELEASE_FILE = "release";
+    private static final String GENERATE_CDS_ARCHIVE = "--generate-cds-archive";
+    private static final Duration JLINK_TIMEOUT = Duration.ofMinutes(30);
+    private static final Duration CDS_DUMP_TIMEOUT = Duration.ofMinutes(10);
+    private static final Duration VERSION_CHECK_TIMEOUT = Duration.ofMinutes(2);
+    private static final long DEFAULT_TRAINING_RUN_TIMEOUT_SECONDS = 60;
+    private static final String RESOURCE_ORDER_SUFFIX = "-resource-order.txt";
+    private static final String RESOURCE_ORDER_HEADER = "# modules: ";
+    private static final Pattern CLASS_LOAD_PATTERN = Pattern.compile("\\s(\\S+) source: jrt:/\\S+$");
 
     private final Set<Path> modulePath;
     private final List<String> modules;
@@ -41,6 +73,8 @@ public class CreateRuntimeImage {
     private final Path outputDirectory;
     private boolean ignoreSigningInformation;
     private final String launcher;
+    private final String launcherName;
+    private final String launcherModule;
     private final Log log;
     private final String compression;
     private final boolean stripDebug;
@@ -48,12 +82,37 @@ public class CreateRuntimeImage {
     private final boolean noManPages;
     private final List<String> excludeResourcesPatterns;
     private final boolean bindServices;
+    private final Path jlinkExecutable;
+    private final boolean generateCdsArchive;
+    private final TrainingRun trainingRun;
+    private final boolean orderResources;
 
     public CreateRuntimeImage(Set<Path> modulePath, List<String> modules, JarInclusionPolicy jarInclusionPolicy,
                               Set<Path> dependencies, Path projectJar, String launcherName, String launcherModule,
                               Path outputDirectory, String compression, boolean stripDebug,
                               boolean ignoreSigningInformation, List<String> excludeResourcesPatterns, Log log,
                               boolean noHeaderFiles, boolean noManPages, boolean bindServices) {
+        this(modulePath, modules, jarInclusionPolicy, dependencies, projectJar, launcherName, launcherModule, outputDirectory, compression, stripDebug,
+                ignoreSigningInformation, excludeResourcesPatterns, log, noHeaderFiles, noManPages, bindServices, null, false, null, false);
+    }
+
+    /**
+     * @param jlinkExecutable the jlink executable to run in a separate process, e.g. the one of a JDK other than
+     *        the one running this command; if {@code null}, the jlink tool of the current JDK is run in-process
+     * @param generateCdsArchive whether to add the default CDS archive to the image, via jlink's
+     *        {@code --generate-cds-archive} option if supported, otherwise via {@code java -Xshare:dump}
+     * @param trainingRun the run of the launcher recording a dynamic CDS archive of the application, which is
+     *        then used by the launcher; may be {@code null}. Implies {@code generateCdsArchive}, as the base
+     *        archive is required for the dynamic one.
+     * @param orderResources whether to order the resources of the image by the order the launcher module loads
+     *        classes in, as recorded in a run of the launcher with the arguments and timeout of the training run
+     */
+    public CreateRuntimeImage(Set<Path> modulePath, List<String> modules, JarInclusionPolicy jarInclusionPolicy,
+                              Set<Path> dependencies, Path projectJar, String launcherName, String launcherModule,
+                              Path outputDirectory, String compression, boolean stripDebug,
+                              boolean ignoreSigningInformation, List<String> excludeResourcesPatterns, Log log,
+                              boolean noHeaderFiles, boolean noManPages, boolean bindServices, Path jlinkExecutable,
+                              boolean generateCdsArchive, TrainingRun trainingRun, boolean orderResources) {
         this.modulePath = (modulePath != null ? modulePath : Collections.emptySet());
         this.modules = getModules(modules);
         this.jarInclusionPolicy = jarInclusionPolicy;
@@ -62,6 +121,8 @@ public class CreateRuntimeImage {
         this.outputDirectory = outputDirectory;
         this.ignoreSigningInformation = ignoreSigningInformation;
         this.launcher = launcherName != null && launcherModule != null ? launcherName + "=" + launcherModule : null;
+        this.launcherName = launcherName;
+        this.launcherModule = launcherModule;
         this.compression = compression;
         this.stripDebug = stripDebug;
         this.excludeResourcesPatterns = excludeResourcesPatterns;
@@ -69,6 +130,17 @@ public class CreateRuntimeImage {
         this.noHeaderFiles = noHeaderFiles;
         this.noManPages = noManPages;
         this.bindServices = bindServices;
+        this.jlinkExecutable = jlinkExecutable;
+        this.generateCdsArchive = generateCdsArchive || trainingRun != null;
+        this.trainingRun = trainingRun;
+        this.orderResources = orderResources;
+
+        if (trainingRun != null && launcher == null) {
+            throw new IllegalArgumentException("A launcher must be configured for running a training run.");
+        }
+        if (orderResources && launcher == null) {
+            throw new IllegalArgumentException("A launcher must be configured for ordering resources by their loading order.");
+        }
     }
 
     private static List<String> getModules(List<String> modules) {
@@ -80,12 +152,60 @@ public class CreateRuntimeImage {
     }
 
     public void run() throws IOException {
-        deleteImageFolder();
-        runJlink();
-        log.info("Done creating image");
+        ImageInputManifest inputs = getInputs();
+
+        if (inputs.isUpToDate() && Files.exists(outputDirectory.resolve(RELEASE_FILE))) {
+            log.info("Runtime image " + outputDirectory + " is up to date, skipping jlink");
+        }
+        else {
+            deleteImageFolder();
+            boolean cdsArchiveGenerated = orderResources ? linkWithResourceOrder() : runJlink(null, generateCdsArchive);
+
+            if (generateCdsArchive) {
+                if (!cdsArchiveGenerated) {
+                    dumpCdsArchive();
+                }
+                verifyCdsArchive();
+            }
+
+            if (trainingRun != null) {
+                runTraining();
+            }
+
+            inputs.write();
+            log.info("Done creating image");
+        }
+
         copyJars();
     }
 
+    private ImageInputManifest getInputs() {
+        ImageInputManifest inputs = new ImageInputManifest(outputDirectory)
+                .add("modules", String.join(",", modules))
+                .add("modulePath", modulePath)
+                .add("launcher", launcher)
+                .add("compression", compression)
+                .add("stripDebug", stripDebug)
+                .add("ignoreSigningInformation", ignoreSigningInformation)
+                .add("excludeResources", excludeResourcesPatterns)
+                .add("noHeaderFiles", noHeaderFiles)
+                .add("noManPages", noManPages)
+                .add("bindServices", bindServices)
+                .add("generateCdsArchive", generateCdsArchive)
+                .add("trainingRun", trainingRun)
+                .add("orderResources", orderResources)
+                .add("jlink", jlinkExecutable != null
+                        ? jlinkExecutable
+                        : System.getProperty("java.home") + " " + System.getProperty("java.runtime.version"));
+
+        // also covers the jmods directory, which is part of the module path
+        for (Path entry : modulePath) {
+            inputs.addFiles(entry);
+        }
+
+        return inputs;
+    }
+
     private void deleteImageFolder() throws IOException {
         if (!Files.exists(outputDirectory)) {
             return;
@@ -114,42 +234,186 @@ public class CreateRuntimeImage {
         Path jarDirectory = outputDirectory.resolve(DEPENDENCIES_DIRECTORY);
         Files.createDirectories(jarDirectory);
 
+        Set<Path> jars = new HashSet<>();
+
         if (jarInclusionPolicy.includeAppJar()) {
-            copyAppJar(jarDirectory);
+            jars.add(copyAppJar(jarDirectory));
         }
         if (jarInclusionPolicy.includeDependencies()) {
-            copyDependencyJars(jarDirectory);
+            jars.addAll(copyDependencyJars(jarDirectory));
         }
+
+        deleteStaleJars(jarDirectory, jars);
     }
 
-    private void copyAppJar(Path jarDirectory) throws IOException {
+    private Path copyAppJar(Path jarDirectory) throws IOException {
         log.info("Copying project JAR");
         Path target = jarDirectory.resolve(projectJar.getFileName());
-        Files.copy(projectJar, target);
+        copyIfChanged(projectJar, target);
         log.debug(String.format("Done copying app JAR %s to %s", projectJar, target));
+        return target;
     }
 
-    private void copyDependencyJars(Path jarDirectory) throws IOException {
+    private Set<Path> copyDependencyJars(Path jarDirectory) throws IOException {
         log.info("Copying project dependencies");
+        Set<Path> targets = new HashSet<>();
 
         for (Path dependency : dependencies) {
             Path target = jarDirectory.resolve(dependency.getFileName());
-            Files.copy(dependency, target);
+            copyIfChanged(dependency, target);
+            targets.add(target);
             log.debug(String.format("Done copying dependency %s to %s", dependency, target));
         }
 
         log.info("Done copying project dependencies");
+        return targets;
+    }
+
+    /**
+     * Removes JARs left from a previous run which are not part of the image any longer.
+     */
+    private void deleteStaleJars(Path jarDirectory, Set<Path> jars) throws IOException {
+        List<Path> staleJars = new ArrayList<>();
+
+        try (DirectoryStream<Path> contents = Files.newDirectoryStream(jarDirectory)) {
+            for (Path jar : contents) {
+                if (!jars.contains(jar) && Files.isRegularFile(jar)) {
+                    staleJars.add(jar);
+                }
+            }
+        }
+
+        for (Path staleJar : staleJars) {
+            log.debug("Removing JAR " + staleJar.getFileName() + " from image");
+            Files.delete(staleJar);
+        }
+    }
+
+    private void copyIfChanged(Path source, Path target) throws IOException {
+        if (hasSameContent(source, target)) {
+            log.debug(String.format("%s is unchanged", target));
+            return;
+        }
+
+        Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    private static boolean hasSameContent(Path source, Path target) throws IOException {
+        if (!Files.isRegularFile(target) || Files.size(source) != Files.size(target)) {
+            return false;
+        }
+        if (Files.getLastModifiedTime(source).equals(Files.getLastModifiedTime(target))) {
+            return true;
+        }
+
+        byte[] sourceBuffer = new byte[64 * 1024];
+        byte[] targetBuffer = new byte[64 * 1024];
+
+        try (InputStream sourceStream = Files.newInputStream(source); InputStream targetStream = Files.newInputStream(target)) {
+            int read;
+            while ((read = sourceStream.readNBytes(sourceBuffer, 0, sourceBuffer.length)) > 0) {
+                if (targetStream.readNBytes(targetBuffer, 0, read) != read
+                        || !Arrays.equals(sourceBuffer, 0, read, targetBuffer, 0, read)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Links the image with its resources ordered by the class-loading order of the launcher module. The order is
+     * recorded by linking the image once and running the launcher, and is stored next to the image, so it is
+     * re-used for as long as the set of modules in the image doesn't change.
+     *
+     * @return whether jlink has generated the default CDS archive
+     */
+    private boolean linkWithResourceOrder() throws IOException {
+        Path orderFile = outputDirectory.resolveSibling(outputDirectory.getFileName() + RESOURCE_ORDER_SUFFIX);
+        String header = RESOURCE_ORDER_HEADER + getResolvedModules();
+
+        if (Files.exists(orderFile) && Files.readAllLines(orderFile).stream().findFirst().orElse("").equals(header)) {
+            log.info("Using recorded resource order " + orderFile);
+        }
+        else {
+            log.info("Recording class-loading order of " + launcherModule);
+            // the image is only used for recording, so the CDS archive isn't needed yet
+            runJlink(null, false);
+
+            List<String> resources = recordClassLoadingOrder();
+
+            List<String> lines = new ArrayList<>();
+            lines.add(header);
+            lines.addAll(resources);
+            Files.write(orderFile, lines);
+
+            deleteImageFolder();
+        }
+
+        return runJlink(orderFile, generateCdsArchive);
+    }
+
+    /**
+     * Returns the names of all the modules in the image, as resolved from the root modules and the module path.
+     * As JMOD files can't be read by {@link ModuleFinder} outside of jlink, JDK modules are taken from the
+     * current JDK.
+     */
+    private String getResolvedModules() {
+        try {
+            ModuleFinder finder = ModuleFinder.compose(ModuleFinder.of(modulePath.toArray(new Path[0])), ModuleFinder.ofSystem());
+            Configuration configuration = bindServices
+                    ? Configuration.empty().resolveAndBind(finder, ModuleFinder.of(), modules)
+                    : Configuration.empty().resolve(finder, ModuleFinder.of(), modules);
+
+            return configuration.modules()
+                    .stream()
+                    .map(ResolvedModule::name)
+                    .sorted()
+                    .collect(Collectors.joining(","));
+        }
+        catch (RuntimeException e) {
+            // let jlink report the actual problem; the order is recorded again in this case
+            log.debug("Couldn't resolve modules of the image: " + e.getMessage());
+            return "unresolved";
+        }
+    }
+
+    /**
+     * Runs the launcher with class-loading logging (and CDS disabled, so the modules of all classes are logged),
+     * returning the loaded classes as resource names in the format of jlink's {@code --order-resources} option,
+     * i.e. without module name and {@code .class} extension.
+     */
+    private List<String> recordClassLoadingOrder() throws IOException {
+        Path trace = Files.createTempFile("moditect-class-load", ".log");
+
+        try {
+            runLauncher(Arrays.asList("-Xshare:off", "-Xlog:class+load=info:file=\"" + trace + "\""), "class-loading recording");
+
+            Set<String> resources = new LinkedHashSet<>();
+            for (String line : Files.readAllLines(trace)) {
+                Matcher matcher = CLASS_LOAD_PATTERN.matcher(line);
+                if (matcher.find()) {
+                    resources.add(matcher.group(1).replace('.', '/'));
+                }
+            }
+
+            return new ArrayList<>(resources);
+        }
+        finally {
+            Files.deleteIfExists(trace);
+        }
     }
 
-    private void runJlink() throws AssertionError {
+    /**
+     * @param resourceOrder the file with the resource order to apply; may be {@code null}
+     * @param cdsArchive whether to generate the default CDS archive, if supported by jlink
+     * @return whether jlink has generated the default CDS archive
+     */
+    private boolean runJlink(Path resourceOrder, boolean cdsArchive) {
         log.info("Running jlink");
-        String javaHome = System.getProperty("java.home");
-        String jlinkBin = javaHome +
-                File.separator + "bin" +
-                File.separator + "jlink";
 
         List<String> command = new ArrayList<>();
-        command.add(jlinkBin);
 
         command.add("--add-modules");
         command.add(String.join(",", modules));
@@ -194,8 +458,190 @@ public class CreateRuntimeImage {
             command.add("--bind-services");
         }
 
-        log.debug("Running jlink: " + String.join(" ", command));
+        if (resourceOrder != null) {
+            command.add("--order-resources=@" + resourceOrder);
+        }
+
+        boolean cdsArchiveGenerated = cdsArchive && isJlinkPluginSupported(GENERATE_CDS_ARCHIVE);
+        if (cdsArchiveGenerated) {
+            command.add(GENERATE_CDS_ARCHIVE);
+        }
+
+        if (jlinkExecutable != null) {
+            List<String> processCommand = new ArrayList<>(command);
+            processCommand.add(0, jlinkExecutable.toString());
+            log.debug("Running jlink: " + String.join(" ", processCommand));
+
+            ProcessExecutor.run("jlink", processCommand, JLINK_TIMEOUT, log);
+        }
+        else {
+            log.debug("Running jlink in-process: jlink " + String.join(" ", command));
+            LogWriter out = new LogWriter(log);
+
+            int result = getJlink().run(out, out, command.toArray(new String[0]));
+            out.flush();
+
+            if (result != 0) {
+                throw new RuntimeException("Execution of jlink failed");
+            }
+        }
+
+        return cdsArchiveGenerated;
+    }
+
+    /**
+     * Whether the jlink used for creating the image provides the given plug-in option.
+     */
+    private boolean isJlinkPluginSupported(String option) {
+        List<String> plugins;
+
+        if (jlinkExecutable != null) {
+            plugins = ProcessExecutor.run("jlink", Arrays.asList(jlinkExecutable.toString(), "--list-plugins"), VERSION_CHECK_TIMEOUT, log);
+        }
+        else {
+            StringWriter output = new StringWriter();
+            try (PrintWriter out = new PrintWriter(output)) {
+                getJlink().run(out, out, "--list-plugins");
+            }
+            plugins = Arrays.asList(output.toString().split("\\R"));
+        }
+
+        return plugins.stream()
+                .map(String::trim)
+                .anyMatch(line -> line.equals(option) || line.startsWith(option + " "));
+    }
+
+    /**
+     * Creates the default CDS archive of the image by running its {@code java} launcher, for JDKs whose jlink
+     * doesn't support the {@code --generate-cds-archive} option.
+     */
+    private void dumpCdsArchive() {
+        log.info("Generating CDS archive");
+        ProcessExecutor.run("java -Xshare:dump", Arrays.asList(getImageJava().toString(), "-Xshare:dump"), CDS_DUMP_TIMEOUT, log);
+    }
+
+    /**
+     * Makes sure the image's JVM starts with the CDS archive mapped; with {@code -Xshare:on}, it fails to start
+     * otherwise.
+     */
+    private void verifyCdsArchive() {
+        log.debug("Verifying CDS archive");
+        ProcessExecutor.run("java -Xshare:on", Arrays.asList(getImageJava().toString(), "-Xshare:on", "--version"), VERSION_CHECK_TIMEOUT, log);
+    }
+
+    /**
+     * Runs the launcher module with the configured arguments, recording the loaded classes in a dynamic CDS
+     * archive within the image, and makes the launcher script use that archive. As the archive is written when
+     * the JVM exits, applications which don't terminate by themselves are stopped (gracefully at first) once the
+     * timeout has elapsed. Where processes can't be stopped gracefully (e.g. on Windows), the JVM doesn't write
+     * the archive then, so the application must terminate by itself within the timeout.
+     */
+    private void runTraining() throws IOException {
+        Path archive = outputDirectory.resolve("lib").resolve(launcherName + ".jsa");
+        boolean gracefulStop = ProcessHandle.current().supportsNormalTermination();
+
+        if (!gracefulStop) {
+            log.info("The training run can't be stopped gracefully on this platform, so it must terminate by itself within its timeout");
+        }
+
+        boolean terminated = runLauncher(Collections.singletonList("-XX:ArchiveClassesAtExit=" + archive), "training run");
+
+        if (!terminated && !gracefulStop) {
+            throw new RuntimeException("Training run didn't terminate within " + getTrainingRun().getTimeoutSeconds()
+                    + "s and was stopped forcibly, so no CDS archive has been created; on this platform (e.g. Windows), the application "
+                    + "must terminate by itself during the training run, e.g. by passing suitable arguments or increasing the timeout");
+        }
+
+        if (!Files.exists(archive)) {
+            throw new RuntimeException("Training run didn't create CDS archive " + archive);
+        }
 
-        ProcessExecutor.run("jlink", command, log);
+        ProcessExecutor.run("java -Xshare:on", Arrays.asList(getImageJava().toString(), "-XX:SharedArchiveFile=" + archive, "-Xshare:on", "--version"),
+                VERSION_CHECK_TIMEOUT, log);
+
+        addArchiveToLauncher(archive.getFileName().toString());
+    }
+
+    /**
+     * Runs the launcher module of the image with the given JVM options and the arguments of the training run.
+     * Applications which don't terminate by themselves are stopped (gracefully at first) once the timeout of the
+     * training run has elapsed.
+     *
+     * @return {@code true} if the application terminated by itself, {@code false} if it has been stopped
+     */
+    private boolean runLauncher(List<String> jvmOptions, String description) {
+        TrainingRun run = getTrainingRun();
+
+        List<String> command = new ArrayList<>();
+        command.add(getImageJava().toString());
+        command.addAll(jvmOptions);
+        command.add("-m");
+        command.add(launcherModule);
+        command.addAll(run.getArguments());
+
+        log.info("Running " + description + " of " + launcherModule + " for at most " + run.getTimeoutSeconds() + "s");
+
+        return ProcessExecutor.runUntilTimeout(description, command, Duration.ofSeconds(run.getTimeoutSeconds()), log);
+    }
+
+    private TrainingRun getTrainingRun() {
+        return trainingRun != null ? trainingRun : new TrainingRun(Collections.emptyList(), DEFAULT_TRAINING_RUN_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Adds the {@code -XX:SharedArchiveFile} option to the launcher scripts generated by jlink, referring to the
+     * archive relative to the scripts' location.
+     */
+    private void addArchiveToLauncher(String archiveName) throws IOException {
+        Path bin = outputDirectory.resolve("bin");
+
+        Path script = bin.resolve(launcherName);
+        if (Files.exists(script)) {
+            addLineAfter(script, "DIR=`dirname $0`",
+                    "JLINK_VM_OPTIONS=\"$JLINK_VM_OPTIONS -XX:SharedArchiveFile=$DIR/../lib/" + archiveName + "\"");
+        }
+
+        Path batchScript = bin.resolve(launcherName + ".bat");
+        if (Files.exists(batchScript)) {
+            addLineAfter(batchScript, "set DIR=%~dp0",
+                    "set JLINK_VM_OPTIONS=%JLINK_VM_OPTIONS% -XX:SharedArchiveFile=\"%DIR%..\\lib\\" + archiveName + "\"");
+        }
+    }
+
+    private static void addLineAfter(Path script, String marker, String line) throws IOException {
+        List<String> lines = new ArrayList<>(Files.readAllLines(script));
+
+        int index = lines.indexOf(marker);
+        if (index == -1) {
+            throw new IllegalStateException("Unexpected format of launcher script " + script);
+        }
+
+        lines.add(index + 1, line);
+        Files.write(script, lines);
+    }
+
+    private Path getImageJava() {
+        Path bin = outputDirectory.resolve("bin");
+
+        for (String name : Arrays.asList("java", "java.exe")) {
+            Path java = bin.resolve(name);
+            if (Files.isExecutable(java)) {
+                return java;
+            }
+        }
+
+        throw new IllegalStateException("Can't generate CDS archive, as the java launcher of the image " + outputDirectory
+                + " can't be run on this platform");
+    }
+
+    private static ToolProvider getJlink() {
+        Optional<ToolProvider> jlink = ToolProvider.findFirst("jlink");
+
+        if (jlink.isPresent()) {
+            return jlink.get();
+        }
+        else {
+            throw new RuntimeException("jlink tool not found");
+        }
     }
 }
@@ -11,15 +11,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -27,18 +27,21 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.jar.JarInputStream;
 import java.util.jar.Manifest;
 import java.util.spi.ToolProvider;
 import java.util.stream.Collectors;
 
-import org.moditect.internal.analyzer.ServiceLoaderUseScanner;
+import org.moditect.internal.analyzer.ModuleInfoAnalyzer;
+import org.moditect.internal.cache.ModuleInfoCache;
 import org.moditect.internal.command.LogWriter;
 import org.moditect.internal.compiler.ModuleInfoCompiler;
+import org.moditect.internal.io.OutputFiles;
 import org.moditect.internal.parser.JdepsExtraArgsExtractor;
+import org.moditect.model.AnalysisEngine;
 import org.moditect.model.DependencePattern;
 import org.moditect.model.DependencyDescriptor;
 import org.moditect.model.GeneratedModuleInfo;
+import org.moditect.model.JarSnapshot;
 import org.moditect.model.PackageNamePattern;
 import org.moditect.model.PackageNamePattern.Kind;
 import org.moditect.spi.log.Log;
@@ -56,7 +59,7 @@ import static com.github.javaparser.StaticJavaParser.parseName;
 
 public class GenerateModuleInfo {
 
-    private final Path inputJar;
+    private final Path originalInputJar;
     private final String autoModuleNameForInputJar;
     private final String moduleName;
     private final boolean open;
@@ -70,9 +73,12 @@ public class GenerateModuleInfo {
     private final Path workingDirectory;
     private final Path outputDirectory;
     private final boolean addServiceUses;
-    private final ServiceLoaderUseScanner serviceLoaderUseScanner;
     private final List<String> jdepsExtraArgs;
+    private final AnalysisEngine analysisEngine;
+    private final ModuleInfoCache cache;
     private final Log log;
+    private Path inputJar;
+    private String cacheKey;
     private ToolProvider jdeps;
 
     public GenerateModuleInfo(
@@ -82,20 +88,49 @@ public class GenerateModuleInfo {
                               Path workingDirectory, Path outputDirectory,
                               Set<String> opensResources, Set<String> uses, Set<String> provides,
                               boolean addServiceUses, List<String> jdepsExtraArgs, Log log) {
+        this(inputJar, moduleName, open, dependencies, exportPatterns, opensPatterns, requiresPatterns, workingDirectory, outputDirectory, opensResources,
+                uses, provides, addServiceUses, jdepsExtraArgs, AnalysisEngine.JDEPS, log);
+    }
+
+    public GenerateModuleInfo(
+                              Path inputJar, String moduleName, boolean open,
+                              Set<DependencyDescriptor> dependencies, List<PackageNamePattern> exportPatterns,
+                              List<PackageNamePattern> opensPatterns, List<DependencePattern> requiresPatterns,
+                              Path workingDirectory, Path outputDirectory,
+                              Set<String> opensResources, Set<String> uses, Set<String> provides,
+                              boolean addServiceUses, List<String> jdepsExtraArgs, AnalysisEngine analysisEngine, Log log) {
+        this(inputJar, moduleName, open, dependencies, exportPatterns, opensPatterns, requiresPatterns, workingDirectory, outputDirectory, opensResources,
+                uses, provides, addServiceUses, jdepsExtraArgs, analysisEngine, null, log);
+    }
+
+    /**
+     * @param cache the cache for the generated descriptor; may be {@code null}
+     */
+    public GenerateModuleInfo(
+                              Path inputJar, String moduleName, boolean open,
+                              Set<DependencyDescriptor> dependencies, List<PackageNamePattern> exportPatterns,
+                              List<PackageNamePattern> opensPatterns, List<DependencePattern> requiresPatterns,
+                              Path workingDirectory, Path outputDirectory,
+                              Set<String> opensResources, Set<String> uses, Set<String> provides,
+                              boolean addServiceUses, List<String> jdepsExtraArgs, AnalysisEngine analysisEngine, ModuleInfoCache cache,
+                              Log log) {
         String autoModuleNameForInputJar = DependencyDescriptor.getAutoModuleNameFromInputJar(inputJar, null);
 
-        // if no valid auto module name can be derived for the input JAR, create a copy of it and
-        // inject the target module name into the manifest ("Automatic-Module-Name"), as otherwise
-        // jdeps will fail (issue #37)
+        // if no valid auto module name can be derived for the input JAR, a copy of it with the target module
+        // name is analyzed, see getInputJar()
         if (autoModuleNameForInputJar != null) {
             this.autoModuleNameForInputJar = autoModuleNameForInputJar;
             this.inputJar = inputJar;
         }
-        else {
+        else if (moduleName != null) {
             this.autoModuleNameForInputJar = moduleName;
-            this.inputJar = createCopyWithAutoModuleNameManifestHeader(workingDirectory, inputJar, moduleName);
+        }
+        else {
+            throw new IllegalArgumentException("No automatic name can be derived for the JAR " + inputJar + ", hence an explicit module name is required");
         }
 
+        this.originalInputJar = inputJar;
+
         this.moduleName = moduleName;
         this.open = open;
         this.dependencies = dependencies;
@@ -108,14 +143,19 @@ public class GenerateModuleInfo {
         this.uses = uses;
         this.provides = provides;
         this.addServiceUses = addServiceUses;
-        this.serviceLoaderUseScanner = new ServiceLoaderUseScanner(log);
         this.jdepsExtraArgs = jdepsExtraArgs != null ? jdepsExtraArgs : Collections.emptyList();
+        this.analysisEngine = analysisEngine != null ? analysisEngine : AnalysisEngine.JDEPS;
+        this.cache = cache;
         this.log = log;
 
+        this.jdeps = getJdeps();
+    }
+
+    static ToolProvider getJdeps() {
         Optional<ToolProvider> jdeps = ToolProvider.findFirst("jdeps");
 
         if (jdeps.isPresent()) {
-            this.jdeps = jdeps.get();
+            return jdeps.get();
         }
         else {
             throw new RuntimeException("jdeps tool not found");
@@ -136,7 +176,7 @@ public class GenerateModuleInfo {
         try (FileSystem zipfs = FileSystems.newFileSystem(uri, env);
                 ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
 
-            Manifest manifest = getManifest(inputJar);
+            Manifest manifest = JarSnapshot.of(inputJar).getManifest();
             manifest.getMainAttributes().putValue("Automatic-Module-Name", moduleName);
 
             manifest.write(baos);
@@ -162,16 +202,111 @@ public class GenerateModuleInfo {
         }
     }
 
-    private static Manifest getManifest(Path inputJar) throws IOException {
-        try (JarInputStream jar = new JarInputStream(Files.newInputStream(inputJar))) {
-            Manifest manifest = jar.getManifest();
+    public GeneratedModuleInfo run() {
+        byte[] cached = getCachedModuleInfo();
+        if (cached != null) {
+            return writeCachedModuleInfo(cached);
+        }
+
+        return complete(createCandidate());
+    }
 
-            return manifest != null ? manifest : new Manifest();
+    /**
+     * Returns the descriptor from the cache.
+     *
+     * @return the descriptor or {@code null} if no cache is used or it doesn't contain the descriptor
+     */
+    byte[] getCachedModuleInfo() {
+        if (cache == null) {
+            return null;
         }
+
+        checkPaths();
+
+        return cache.get(getCacheKey(), "java").orElse(null);
     }
 
-    public GeneratedModuleInfo run() {
-        if (Files.isDirectory(inputJar)) {
+    /**
+     * Writes the given descriptor from the cache to the output directory.
+     */
+    GeneratedModuleInfo writeCachedModuleInfo(byte[] cached) {
+        // jdeps names the descriptor after the automatic module name, unless an explicit name is given
+        String name = moduleName != null ? moduleName : autoModuleNameForInputJar;
+        Path outputModuleInfo;
+
+        try {
+            outputModuleInfo = OutputFiles.replaceDirectory(outputDirectory, name, "module-info.java", cached);
+
+            log.info("Created module descriptor at " + outputModuleInfo + " from cache");
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't write module-info.java", e);
+        }
+
+        return new GeneratedModuleInfo(name, outputModuleInfo);
+    }
+
+    /**
+     * Returns the key of the generated descriptor in the cache, derived from the input JAR, its dependencies and
+     * all options of this command; module paths passed via {@code jdepsExtraArgs} are considered, too.
+     */
+    private String getCacheKey() {
+        if (cacheKey != null) {
+            return cacheKey;
+        }
+
+        ModuleInfoCache.KeyBuilder key = cache.newKey("module-info.java")
+                .addFile("inputJar", originalInputJar)
+                .add("moduleName", moduleName)
+                .add("open", open);
+
+        for (DependencyDescriptor dependency : dependencies) {
+            key.addFile("dependency", dependency.getPath())
+                    .add("dependency.optional", dependency.isOptional())
+                    .add("dependency.assignedModuleName", dependency.getAssignedModuleName());
+        }
+
+        for (DependencePattern requiresPattern : requiresPatterns) {
+            key.add("requires", requiresPattern.getPattern())
+                    .addUnordered("requires.modifiers", requiresPattern.getModifiers());
+        }
+
+        key.add("exports", exportPatterns)
+                .add("opens", opensPatterns)
+                .addUnordered("opensResources", opensResources)
+                .addUnordered("uses", uses)
+                .addUnordered("provides", provides)
+                .add("addServiceUses", addServiceUses)
+                .add("analysisEngine", analysisEngine)
+                .add("jdepsExtraArgs", jdepsExtraArgs);
+
+        for (int i = 0; i < jdepsExtraArgs.size(); i++) {
+            String arg = jdepsExtraArgs.get(i);
+            String modulePath = null;
+
+            if ((arg.equals("--module-path") || arg.equals("--upgrade-module-path")) && i + 1 < jdepsExtraArgs.size()) {
+                modulePath = jdepsExtraArgs.get(i + 1);
+            }
+            else if (arg.startsWith("--module-path=") || arg.startsWith("--upgrade-module-path=")) {
+                modulePath = arg.substring(arg.indexOf('=') + 1);
+            }
+
+            if (modulePath != null) {
+                for (String element : modulePath.split(File.pathSeparator)) {
+                    key.addFile("jdepsModulePath", Paths.get(element));
+                }
+            }
+        }
+
+        cacheKey = key.build();
+        return cacheKey;
+    }
+
+    /**
+     * Validates the input JAR and the directories of this command.
+     */
+    void checkPaths() {
+        if (Files.isDirectory(originalInputJar)) {
             throw new IllegalArgumentException("Input JAR must not be a directory");
         }
 
@@ -182,12 +317,81 @@ public class GenerateModuleInfo {
         if (!Files.exists(outputDirectory)) {
             throw new IllegalArgumentException("Output directory doesn't exist: " + outputDirectory);
         }
+    }
+
+    /**
+     * Determines the candidate descriptor of the input JAR, i.e. the descriptor before applying the configured
+     * patterns, either in-process or using jdeps.
+     */
+    ModuleDeclaration createCandidate() {
+        checkPaths();
+
+        ModuleDeclaration moduleDeclaration = null;
+
+        if (analysisEngine == AnalysisEngine.BYTECODE) {
+            moduleDeclaration = analyzeModuleInfo();
+        }
+
+        if (moduleDeclaration == null) {
+            // jdeps writes to a directory of its own, so runs for JARs with the same name don't interfere
+            Path jdepsOutputDirectory = OutputFiles.createScratchDirectory(workingDirectory, "jdeps-");
+
+            try {
+                generateModuleInfo(jdepsOutputDirectory);
+                moduleDeclaration = parseGeneratedModuleInfo(jdepsOutputDirectory);
+            }
+            finally {
+                OutputFiles.deleteScratchDirectory(jdepsOutputDirectory, log);
+            }
+        }
+
+        return moduleDeclaration;
+    }
+
+    /**
+     * Applies the configuration of this command to the given candidate descriptor and writes it to the output
+     * directory.
+     */
+    GeneratedModuleInfo complete(ModuleDeclaration moduleDeclaration) {
+        updateModuleInfo(getOptionalityPerModule(), moduleDeclaration);
+
+        GeneratedModuleInfo generated = writeModuleInfo(moduleDeclaration);
+
+        if (cache != null) {
+            cache.put(getCacheKey(), "java", moduleDeclaration.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        return generated;
+    }
+
+    /**
+     * Returns the JAR to analyze. If no valid automatic module name can be derived for the input JAR, this is a
+     * copy of it with the target module name injected into the manifest ("Automatic-Module-Name"), as otherwise
+     * jdeps will fail (issue #37). The copy is only created once the JAR is actually analyzed, i.e. not if the
+     * descriptor is taken from the cache.
+     */
+    Path getInputJar() {
+        if (inputJar == null) {
+            inputJar = createCopyWithAutoModuleNameManifestHeader(workingDirectory, originalInputJar, moduleName);
+        }
+
+        return inputJar;
+    }
+
+    String getAutoModuleNameForInputJar() {
+        return autoModuleNameForInputJar;
+    }
+
+    Set<DependencyDescriptor> getDependencies() {
+        return dependencies;
+    }
 
-        Map<String, Boolean> optionalityPerModule = generateModuleInfo();
-        ModuleDeclaration moduleDeclaration = parseGeneratedModuleInfo();
-        updateModuleInfo(optionalityPerModule, moduleDeclaration);
+    List<String> getJdepsExtraArgs() {
+        return jdepsExtraArgs;
+    }
 
-        return writeModuleInfo(moduleDeclaration);
+    AnalysisEngine getAnalysisEngine() {
+        return analysisEngine;
     }
 
     private void updateModuleInfo(Map<String, Boolean> optionalityPerModule, ModuleDeclaration moduleDeclaration) {
@@ -259,7 +463,7 @@ public class GenerateModuleInfo {
                                                                 Collectors.toSet())))));
 
         if (addServiceUses) {
-            Set<String> usedServices = serviceLoaderUseScanner.getUsedServices(inputJar);
+            Set<String> usedServices = JarSnapshot.of(originalInputJar).getUsedServices(log);
             for (String usedService : usedServices) {
                 moduleDeclaration.getDirectives().add(new ModuleUsesDirective(parseName(usedService)));
             }
@@ -318,13 +522,58 @@ public class GenerateModuleInfo {
         return moduleDeclaration;
     }
 
-    private Map<String, Boolean> generateModuleInfo() throws AssertionError {
+    /**
+     * Derives the candidate descriptor in-process instead of running jdeps.
+     *
+     * @return the descriptor or {@code null} if jdeps must be used for the input JAR
+     */
+    ModuleDeclaration analyzeModuleInfo() {
+        List<Path> modulePath = dependencies.stream()
+                .map(DependencyDescriptor::getPath)
+                .collect(Collectors.toList());
+
+        ModuleDeclaration moduleDeclaration = new ModuleInfoAnalyzer(log).analyze(getInputJar(), modulePath, jdepsExtraArgs).orElse(null);
+
+        if (moduleDeclaration == null) {
+            log.debug("Falling back to jdeps for generating module-info.java for " + originalInputJar);
+        }
+
+        return moduleDeclaration;
+    }
+
+    private Map<String, Boolean> getOptionalityPerModule() {
         Map<String, Boolean> optionalityPerModule = new HashMap<>();
 
+        for (DependencyDescriptor dependency : dependencies) {
+            String moduleName = dependency.getOriginalModuleName();
+            optionalityPerModule.put(moduleName, dependency.isOptional());
+        }
+
+        return optionalityPerModule;
+    }
+
+    private void generateModuleInfo(Path jdepsOutputDirectory) {
+        List<String> command = getJdepsCommand(jdepsOutputDirectory, dependencies, jdepsExtraArgs, Collections.singletonList(getInputJar()));
+
+        log.info("Running jdeps " + String.join(" ", command));
+        LogWriter out = new LogWriter(log);
+
+        int result = jdeps.run(out, out, command.toArray(new String[0]));
+
+        if (result != 0) {
+            throw new IllegalStateException("Invocation of jdeps failed: jdeps " + String.join(" ", command));
+        }
+    }
+
+    /**
+     * Returns the arguments for generating the descriptors of the given input JARs with jdeps.
+     */
+    static List<String> getJdepsCommand(Path jdepsOutputDirectory, Collection<DependencyDescriptor> dependencies, List<String> jdepsExtraArgs,
+                                        List<Path> inputJars) {
         List<String> command = new ArrayList<>();
 
         command.add("--generate-module-info");
-        command.add(workingDirectory.toString());
+        command.add(jdepsOutputDirectory.toString());
 
         if (!dependencies.isEmpty()) {
             StringBuilder modules = new StringBuilder();
@@ -339,9 +588,7 @@ public class GenerateModuleInfo {
                     modules.append(",");
                     modulePath.append(File.pathSeparator);
                 }
-                String moduleName = DependencyDescriptor.getAutoModuleNameFromInputJar(dependency.getPath(), dependency.getAssignedModuleName());
-                modules.append(moduleName);
-                optionalityPerModule.put(moduleName, dependency.isOptional());
+                modules.append(dependency.getOriginalModuleName());
                 modulePath.append(dependency.getPath());
             }
 
@@ -352,22 +599,19 @@ public class GenerateModuleInfo {
         }
 
         command.addAll(jdepsExtraArgs);
-        command.add(inputJar.toString());
-
-        log.info("Running jdeps " + String.join(" ", command));
-        LogWriter out = new LogWriter(log);
-
-        int result = jdeps.run(out, out, command.toArray(new String[0]));
 
-        if (result != 0) {
-            throw new IllegalStateException("Invocation of jdeps failed: jdeps " + String.join(" ", command));
+        for (Path inputJar : inputJars) {
+            command.add(inputJar.toString());
         }
 
-        return optionalityPerModule;
+        return command;
     }
 
-    private ModuleDeclaration parseGeneratedModuleInfo() {
-        Path moduleDir = workingDirectory.resolve(autoModuleNameForInputJar);
+    /**
+     * Parses the descriptor generated by jdeps for the input JAR into the given directory.
+     */
+    ModuleDeclaration parseGeneratedModuleInfo(Path jdepsOutputDirectory) {
+        Path moduleDir = jdepsOutputDirectory.resolve(autoModuleNameForInputJar);
         Path moduleInfo = moduleDir.resolve("module-info.java");
 
         // JDK 11.0.11+ and 14+ put module-info.java in versions/<some-version>
@@ -385,11 +629,11 @@ public class GenerateModuleInfo {
     }
 
     private GeneratedModuleInfo writeModuleInfo(ModuleDeclaration moduleDeclaration) {
-        Path outputModuleInfo = recreateDirectory(outputDirectory, moduleDeclaration.getNameAsString())
-                .resolve("module-info.java");
+        Path outputModuleInfo;
 
         try {
-            Files.write(outputModuleInfo, moduleDeclaration.toString().getBytes());
+            outputModuleInfo = OutputFiles.replaceDirectory(
+                    outputDirectory, moduleDeclaration.getNameAsString(), "module-info.java", moduleDeclaration.toString().getBytes());
 
             log.info("Created module descriptor at " + outputModuleInfo);
         }
@@ -399,33 +643,4 @@ public class GenerateModuleInfo {
 
         return new GeneratedModuleInfo(moduleDeclaration.getNameAsString(), outputModuleInfo);
     }
-
-    private Path recreateDirectory(Path parent, String directoryName) {
-        Path dir = parent.resolve(directoryName);
-
-        try {
-            if (Files.exists(dir)) {
-                Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
-                    @Override
-                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                        Files.delete(file);
-                        return FileVisitResult.CONTINUE;
-                    }
-
-                    @Override
-                    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-                        Files.delete(dir);
-                        return FileVisitResult.CONTINUE;
-                    }
-                });
-            }
-
-            Files.createDirectory(dir);
-        }
-        catch (IOException e) {
-            throw new RuntimeException("Couldn't recreate directory " + dir, e);
-        }
-
-        return dir;
-    }
 }
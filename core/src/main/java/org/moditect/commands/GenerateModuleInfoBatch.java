@@ -0,0 +1,263 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.commands;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.moditect.internal.command.LogWriter;
+import org.moditect.internal.io.OutputFiles;
+import org.moditect.model.AnalysisEngine;
+import org.moditect.model.DependencyDescriptor;
+import org.moditect.model.GeneratedModuleInfo;
+import org.moditect.spi.log.Log;
+
+import com.github.javaparser.ast.modules.ModuleDeclaration;
+
+/**
+ * Generates the module descriptors for several JARs, running jdeps once for all of them instead of once per
+ * JAR. The module path passed to jdeps is the union of the dependencies of all the JARs; the configured
+ * patterns of each JAR are applied to its own descriptor afterwards.
+ * <p>
+ * JARs whose module names or dependencies clash with those of other JARs, or which have different
+ * {@code jdepsExtraArgs}, are analyzed in separate jdeps runs. If a jdeps run for several JARs fails, they
+ * are analyzed one by one, so any error is reported for the affected JAR. As all the JARs of a jdeps run are
+ * on the same module path, dependencies which would be missing when analyzing a JAR on its own may be
+ * resolved to another JAR of the batch or its dependencies.
+ */
+public class GenerateModuleInfoBatch {
+
+    private static final String SPLIT_PACKAGE_WARNING = "Warning: split package: ";
+
+    private final List<GenerateModuleInfo> modules;
+    private final Path workingDirectory;
+    private final Log log;
+
+    /**
+     * @param modules the commands for generating the descriptors of the individual JARs
+     * @param workingDirectory the directory in which a scratch directory is created for each jdeps run
+     */
+    public GenerateModuleInfoBatch(List<GenerateModuleInfo> modules, Path workingDirectory, Log log) {
+        this.modules = modules;
+        this.workingDirectory = workingDirectory;
+        this.log = log;
+    }
+
+    /**
+     * @return the generated descriptors, in the order of the given commands
+     */
+    public List<GeneratedModuleInfo> run() {
+        if (!Files.exists(workingDirectory)) {
+            throw new IllegalArgumentException("Working directory doesn't exist: " + workingDirectory);
+        }
+
+        byte[][] cached = new byte[modules.size()][];
+        ModuleDeclaration[] candidates = new ModuleDeclaration[modules.size()];
+        List<Batch> batches = new ArrayList<>();
+
+        for (int i = 0; i < modules.size(); i++) {
+            GenerateModuleInfo module = modules.get(i);
+
+            cached[i] = module.getCachedModuleInfo();
+            if (cached[i] != null) {
+                continue;
+            }
+
+            module.checkPaths();
+
+            if (module.getAnalysisEngine() == AnalysisEngine.BYTECODE) {
+                candidates[i] = module.analyzeModuleInfo();
+                if (candidates[i] != null) {
+                    continue;
+                }
+            }
+
+            addToBatch(batches, i);
+        }
+
+        for (int i = 0; i < batches.size(); i++) {
+            Batch batch = batches.get(i);
+
+            if (batch.indexes.size() == 1 || !runJdeps(batch, i, candidates)) {
+                for (int index : batch.indexes) {
+                    candidates[index] = modules.get(index).createCandidate();
+                }
+            }
+        }
+
+        // write the descriptors in the given order, as several modules may have the same name
+        List<GeneratedModuleInfo> generated = new ArrayList<>();
+        for (int i = 0; i < modules.size(); i++) {
+            GenerateModuleInfo module = modules.get(i);
+            generated.add(cached[i] != null ? module.writeCachedModuleInfo(cached[i]) : module.complete(candidates[i]));
+        }
+
+        return generated;
+    }
+
+    private void addToBatch(List<Batch> batches, int index) {
+        GenerateModuleInfo module = modules.get(index);
+
+        for (Batch batch : batches) {
+            if (batch.accepts(module)) {
+                batch.add(module, index);
+                return;
+            }
+        }
+
+        Batch batch = new Batch(module.getJdepsExtraArgs());
+        batch.add(module, index);
+        batches.add(batch);
+    }
+
+    /**
+     * Runs jdeps for all the JARs of the given batch.
+     *
+     * @return {@code true} if the descriptors could be generated, {@code false} otherwise
+     */
+    private boolean runJdeps(Batch batch, int batchNumber, ModuleDeclaration[] candidates) {
+        Path jdepsOutputDirectory = OutputFiles.createScratchDirectory(workingDirectory, "jdeps-batch-" + batchNumber + "-");
+
+        try {
+            return runJdeps(batch, jdepsOutputDirectory, candidates);
+        }
+        finally {
+            OutputFiles.deleteScratchDirectory(jdepsOutputDirectory, log);
+        }
+    }
+
+    private boolean runJdeps(Batch batch, Path jdepsOutputDirectory, ModuleDeclaration[] candidates) {
+        List<Path> inputJars = batch.indexes.stream()
+                .map(index -> modules.get(index).getInputJar())
+                .collect(Collectors.toList());
+
+        List<String> command = GenerateModuleInfo.getJdepsCommand(jdepsOutputDirectory, batch.dependenciesByPath.values(), batch.jdepsExtraArgs, inputJars);
+
+        log.info("Running jdeps " + String.join(" ", command));
+
+        // only pass on the output once it is known whether the batch succeeded
+        StringWriter output = new StringWriter();
+        int result;
+
+        try (PrintWriter out = new PrintWriter(output)) {
+            result = GenerateModuleInfo.getJdeps().run(out, out, command.toArray(new String[0]));
+        }
+
+        if (result != 0) {
+            log.debug("Invocation of jdeps for " + inputJars.size() + " JARs failed, analyzing them one by one:" + System.lineSeparator() + output);
+            return false;
+        }
+
+        LogWriter logWriter = new LogWriter(log);
+        for (String line : output.toString().split("\\R")) {
+            if (isSplitPackageOfInputJar(line, batch)) {
+                log.debug(line);
+            }
+            else {
+                logWriter.println(line);
+            }
+        }
+
+        for (int index : batch.indexes) {
+            candidates[index] = modules.get(index).parseGeneratedModuleInfo(jdepsOutputDirectory);
+        }
+
+        return true;
+    }
+
+    /**
+     * Whether the given line is the warning jdeps issues for each package of an input JAR which is on the
+     * module path at the same time, as it is a dependency of another input JAR.
+     */
+    private boolean isSplitPackageOfInputJar(String line, Batch batch) {
+        if (!line.startsWith(SPLIT_PACKAGE_WARNING)) {
+            return false;
+        }
+
+        for (int index : batch.indexes) {
+            Path inputJar = modules.get(index).getInputJar();
+            if (line.endsWith(" " + inputJar) && batch.dependenciesByPath.containsKey(inputJar.toAbsolutePath())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A set of JARs analyzed with a single jdeps run. Each module name refers to the same JAR throughout the
+     * batch, be it an input JAR or a dependency; otherwise jdeps would analyze another JAR than expected.
+     */
+    private static class Batch {
+
+        private final List<String> jdepsExtraArgs;
+        private final List<Integer> indexes = new ArrayList<>();
+        private final Map<Path, DependencyDescriptor> dependenciesByPath = new LinkedHashMap<>();
+        private final Map<String, Path> pathsByModuleName = new HashMap<>();
+        private final Map<Path, String> moduleNamesByPath = new HashMap<>();
+        private final Set<String> inputModuleNames = new HashSet<>();
+
+        Batch(List<String> jdepsExtraArgs) {
+            this.jdepsExtraArgs = jdepsExtraArgs;
+        }
+
+        boolean accepts(GenerateModuleInfo module) {
+            if (!jdepsExtraArgs.equals(module.getJdepsExtraArgs())) {
+                return false;
+            }
+
+            // each input JAR is a module of its own; it may be a dependency of other input JARs, though
+            if (inputModuleNames.contains(module.getAutoModuleNameForInputJar())
+                    || !isConsistent(module.getAutoModuleNameForInputJar(), module.getInputJar().toAbsolutePath())) {
+                return false;
+            }
+
+            for (DependencyDescriptor dependency : module.getDependencies()) {
+                if (!isConsistent(dependency.getOriginalModuleName(), dependency.getPath().toAbsolutePath())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        void add(GenerateModuleInfo module, int index) {
+            indexes.add(index);
+            inputModuleNames.add(module.getAutoModuleNameForInputJar());
+            register(module.getAutoModuleNameForInputJar(), module.getInputJar().toAbsolutePath());
+
+            for (DependencyDescriptor dependency : module.getDependencies()) {
+                Path path = dependency.getPath().toAbsolutePath();
+                register(dependency.getOriginalModuleName(), path);
+                dependenciesByPath.putIfAbsent(path, dependency);
+            }
+        }
+
+        private boolean isConsistent(String moduleName, Path path) {
+            Path existingPath = pathsByModuleName.get(moduleName);
+            String existingName = moduleNamesByPath.get(path);
+
+            return (existingPath == null || existingPath.equals(path)) && (existingName == null || existingName.equals(moduleName));
+        }
+
+        private void register(String moduleName, Path path) {
+            pathsByModuleName.put(moduleName, path);
+            moduleNamesByPath.put(path, moduleName);
+        }
+    }
+}
@@ -7,17 +7,13 @@
  */
 package org.moditect.commands;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.PrintStream;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
-import java.util.spi.ToolProvider;
-import java.util.stream.Collectors;
 
-import org.moditect.internal.command.LogWriter;
+import org.moditect.internal.analyzer.JdkModuleAnalyzer;
+import org.moditect.internal.cache.ModuleInfoCache;
 import org.moditect.model.Version;
 import org.moditect.spi.log.Log;
 
@@ -26,54 +22,41 @@ public class GenerateModuleList {
     private final Path projectJar;
     private final Set<Path> dependencies;
     private final Version jvmVersion;
+    private final Path javaHome;
+    private final ModuleInfoCache cache;
     private final Log log;
 
-    private final ToolProvider jdeps;
-
     public GenerateModuleList(Path projectJar, Set<Path> dependencies, Version jvmVersion, Log log) {
+        this(projectJar, dependencies, jvmVersion, null, null, log);
+    }
+
+    /**
+     * @param javaHome the JDK whose modules are listed; the current JDK if {@code null}
+     * @param cache the cache for the modules required by the project JAR and each dependency; may be {@code null}
+     */
+    public GenerateModuleList(Path projectJar, Set<Path> dependencies, Version jvmVersion, Path javaHome, ModuleInfoCache cache, Log log) {
         this.projectJar = projectJar;
         this.dependencies = dependencies;
         this.jvmVersion = jvmVersion;
+        this.javaHome = javaHome;
+        this.cache = cache;
         this.log = log;
-
-        this.jdeps = ToolProvider
-                .findFirst("jdeps")
-                .orElseThrow(() -> new RuntimeException("jdeps tool not found"));
     }
 
     public void run() {
-        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
-        PrintStream out = new PrintStream(outStream);
-        jdeps.run(out, System.err, "--version");
-        out.close();
-        int jdepsVersion = Runtime.Version
-                .parse(outStream.toString().strip())
-                .feature();
-        if (jdepsVersion < 12) {
-            log.error("The jdeps option this plugin uses to list JDK modules only works flawlessly on JDK 12+, so please use that to run this goal.");
-            return;
-        }
+        log.info(String.join(",", getJdkModules()));
+    }
 
-        List<String> command = new ArrayList<>();
-        command.add("--print-module-deps");
-        command.add("--ignore-missing-deps");
-        command.add("--multi-release");
-        command.add(String.valueOf(jvmVersion.feature()));
-        command.add("--class-path");
-        String classPath = dependencies.stream()
-                .map(Path::toAbsolutePath)
-                .map(Path::toString)
-                .collect(Collectors.joining(File.pathSeparator));
-        command.add(classPath);
-        command.add(projectJar.toAbsolutePath().toString());
+    /**
+     * Returns the names of the JDK modules required by the project JAR and its dependencies, in the same way as
+     * jdeps' {@code --print-module-deps} option determines them, but analyzing the class files in-process.
+     */
+    public Set<String> getJdkModules() {
+        List<Path> classPath = new ArrayList<>(dependencies);
+        classPath.add(projectJar);
 
-        log.debug("Running jdeps " + String.join(" ", command));
+        Runtime.Version version = jvmVersion.feature() >= 9 ? Runtime.Version.parse(String.valueOf(jvmVersion.feature())) : null;
 
-        LogWriter logWriter = new LogWriter(log);
-        int result = jdeps.run(logWriter, logWriter, command.toArray(new String[0]));
-        if (result != 0) {
-            throw new IllegalStateException("Invocation of jdeps failed: jdeps " + String.join(" ", command));
-        }
+        return new JdkModuleAnalyzer(javaHome, version, cache, log).getRequiredModules(classPath);
     }
-
 }
@@ -0,0 +1,222 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.analyzer;
+
+import java.util.Set;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+
+/**
+ * Collects the names of the classes referenced by a class file, in the same way as jdeps does it: all classes
+ * from the constant pool (class entries and the descriptors of name-and-type entries), from the descriptors
+ * and signatures of fields and methods, as well as from runtime-visible annotations.
+ * <p>
+ * In addition, the classes referenced by the API of a public class are collected, i.e. by its super types and
+ * the signatures of its public and protected members. Modules providing those are required transitively.
+ */
+class ClassDependencyCollector {
+
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final Set<String> dependencies;
+    private final Set<String> apiDependencies;
+
+    /**
+     * @param dependencies receives the internal names of all referenced classes
+     * @param apiDependencies receives the internal names of the classes referenced by the API of public classes
+     */
+    ClassDependencyCollector(Set<String> dependencies, Set<String> apiDependencies) {
+        this.dependencies = dependencies;
+        this.apiDependencies = apiDependencies;
+    }
+
+    void collect(byte[] classFile) {
+        ClassReader classReader = new ClassReader(classFile);
+        collectFromConstantPool(classReader);
+
+        boolean api = (classReader.getAccess() & Opcodes.ACC_PUBLIC) != 0;
+        classReader.accept(new DependencyVisitor(api), ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    private void collectFromConstantPool(ClassReader classReader) {
+        char[] buffer = new char[classReader.getMaxStringLength()];
+
+        for (int i = 1; i < classReader.getItemCount(); i++) {
+            int offset = classReader.getItem(i);
+
+            // the second slot of long and double constants
+            if (offset == 0) {
+                continue;
+            }
+
+            int tag = classReader.readByte(offset - 1);
+
+            if (tag == CONSTANT_CLASS) {
+                String name = classReader.readUTF8(offset, buffer);
+                if (name.startsWith("[")) {
+                    addDescriptor(name, dependencies);
+                }
+                else {
+                    dependencies.add(name);
+                }
+            }
+            else if (tag == CONSTANT_NAME_AND_TYPE) {
+                addDescriptor(classReader.readUTF8(offset + 2, buffer), dependencies);
+            }
+        }
+    }
+
+    private static void addDescriptor(String descriptor, Set<String> target) {
+        if (descriptor.startsWith("(")) {
+            for (Type argumentType : Type.getArgumentTypes(descriptor)) {
+                addType(argumentType, target);
+            }
+            addType(Type.getReturnType(descriptor), target);
+        }
+        else {
+            addType(Type.getType(descriptor), target);
+        }
+    }
+
+    private static void addType(Type type, Set<String> target) {
+        if (type.getSort() == Type.ARRAY) {
+            type = type.getElementType();
+        }
+
+        if (type.getSort() == Type.OBJECT) {
+            target.add(type.getInternalName());
+        }
+    }
+
+    private static void addSignature(String signature, Set<String> target) {
+        if (signature == null) {
+            return;
+        }
+
+        new SignatureReader(signature).accept(new SignatureVisitor(Opcodes.ASM9) {
+
+            @Override
+            public void visitClassType(String name) {
+                target.add(name);
+            }
+        });
+    }
+
+    private static void addClasses(String[] names, Set<String> target) {
+        if (names != null) {
+            for (String name : names) {
+                target.add(name);
+            }
+        }
+    }
+
+    private static boolean isApi(int access) {
+        return (access & (Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) != 0;
+    }
+
+    private class DependencyVisitor extends ClassVisitor {
+
+        private final boolean api;
+
+        DependencyVisitor(boolean api) {
+            super(Opcodes.ASM9);
+            this.api = api;
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            if (superName != null) {
+                dependencies.add(superName);
+            }
+            addClasses(interfaces, dependencies);
+            addSignature(signature, dependencies);
+
+            if (api) {
+                if (superName != null) {
+                    apiDependencies.add(superName);
+                }
+                addClasses(interfaces, apiDependencies);
+            }
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            if (visible) {
+                addDescriptor(descriptor, dependencies);
+            }
+            return null;
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            boolean memberApi = api && isApi(access);
+            addMember(descriptor, signature, null, memberApi);
+
+            return new FieldVisitor(Opcodes.ASM9) {
+
+                @Override
+                public AnnotationVisitor visitAnnotation(String annotationDescriptor, boolean visible) {
+                    addAnnotation(annotationDescriptor, visible, memberApi);
+                    return null;
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            boolean memberApi = api && isApi(access);
+            addMember(descriptor, signature, exceptions, memberApi);
+
+            return new MethodVisitor(Opcodes.ASM9) {
+
+                @Override
+                public AnnotationVisitor visitAnnotation(String annotationDescriptor, boolean visible) {
+                    addAnnotation(annotationDescriptor, visible, memberApi);
+                    return null;
+                }
+
+                @Override
+                public AnnotationVisitor visitParameterAnnotation(int parameter, String annotationDescriptor, boolean visible) {
+                    addAnnotation(annotationDescriptor, visible, memberApi);
+                    return null;
+                }
+            };
+        }
+
+        private void addMember(String descriptor, String signature, String[] exceptions, boolean memberApi) {
+            addDescriptor(descriptor, dependencies);
+            addSignature(signature, dependencies);
+            addClasses(exceptions, dependencies);
+
+            if (memberApi) {
+                addDescriptor(descriptor, apiDependencies);
+                addSignature(signature, apiDependencies);
+                addClasses(exceptions, apiDependencies);
+            }
+        }
+
+        private void addAnnotation(String descriptor, boolean visible, boolean memberApi) {
+            if (visible) {
+                addDescriptor(descriptor, dependencies);
+
+                if (memberApi) {
+                    addDescriptor(descriptor, apiDependencies);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.analyzer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleDescriptor.Requires;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+import org.moditect.internal.cache.LruCache;
+import org.moditect.internal.cache.ModuleInfoCache;
+import org.moditect.spi.log.Log;
+
+/**
+ * Determines the JDK modules required by the classes of a set of JARs, as an in-process alternative to
+ * {@code jdeps --print-module-deps --ignore-missing-deps}. The classes referenced by each JAR (see
+ * {@link ClassDependencyCollector}) are mapped to the modules of the target JDK by their packages, using an index
+ * built once per JDK from its {@code jrt:/} file system. As with jdeps, modules implied by the
+ * {@code requires transitive} directives of other required modules are omitted from the result. Unlike jdeps,
+ * all the given JARs are analyzed, not only those referenced by others, as any of them may be loaded at runtime.
+ * <p>
+ * The modules required by recently analyzed JARs are kept in memory as long as the JAR is unchanged, and if a
+ * cache is given, stored there by the JAR's content hash. So when a dependency is added, only that JAR needs to be
+ * analyzed. The indexes of the JDKs are kept in memory, too; the {@code jrt:/} file system of a JDK other than the
+ * current one is closed once its index has been built.
+ * Directories of class files are analyzed on each invocation.
+ */
+public class JdkModuleAnalyzer {
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String MODULE_INFO_CLASS = "module-info.class";
+
+    /**
+     * The maximum numbers of JDK indexes and analyzed JARs kept in memory; the least recently used ones are
+     * dropped beyond that, so memory use remains bounded if the JVM runs many builds, e.g. with the Maven daemon.
+     */
+    private static final int MAX_INDEXES = 4;
+    private static final int MAX_ANALYZED_JARS = 4096;
+
+    private static final LruCache<Path, JdkIndex> INDEXES = new LruCache<>(MAX_INDEXES);
+    private static final LruCache<Path, AnalyzedJar> ANALYZED_JARS = new LruCache<>(MAX_ANALYZED_JARS);
+
+    private final JdkIndex index;
+    private final Runtime.Version version;
+    private final ModuleInfoCache cache;
+    private final Log log;
+
+    /**
+     * @param javaHome the home directory of the JDK whose modules are required; the current JDK if {@code null}
+     * @param version the version whose classes of multi-release JARs are analyzed; the base version if
+     *        {@code null}
+     * @param cache the cache for the modules required by each JAR; may be {@code null}
+     */
+    public JdkModuleAnalyzer(Path javaHome, Runtime.Version version, ModuleInfoCache cache, Log log) {
+        this.index = JdkIndex.of(javaHome != null ? javaHome : Paths.get(System.getProperty("java.home")));
+        this.version = version != null ? version : JarFile.baseVersion();
+        this.cache = cache;
+        this.log = log;
+    }
+
+    /**
+     * Returns the names of the JDK modules required by the given JARs or directories of class files, omitting
+     * those implied by others.
+     */
+    public Set<String> getRequiredModules(Collection<Path> classPath) {
+        Set<String> modules = classPath.parallelStream()
+                .map(this::getRequiredModulesOf)
+                .flatMap(Set::stream)
+                .collect(Collectors.toSet());
+
+        return index.reduce(modules);
+    }
+
+    private Set<String> getRequiredModulesOf(Path jar) {
+        Path absolutePath = jar.toAbsolutePath();
+
+        try {
+            if (Files.isDirectory(absolutePath)) {
+                return analyze(absolutePath);
+            }
+
+            BasicFileAttributes attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+            AnalyzedJar analyzed = ANALYZED_JARS.get(absolutePath);
+
+            if (analyzed != null && analyzed.isUpToDate(attributes, index, version)) {
+                return analyzed.modules;
+            }
+
+            Set<String> modules = getCachedModules(absolutePath);
+            ANALYZED_JARS.put(absolutePath, new AnalyzedJar(attributes, index, version, modules));
+
+            return modules;
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't analyze " + jar, e);
+        }
+    }
+
+    private Set<String> getCachedModules(Path jar) throws IOException {
+        if (cache == null) {
+            return analyze(jar);
+        }
+
+        String key = cache.newKey("jdk-modules")
+                .addFile("jar", jar)
+                .add("targetJdk", index.id)
+                .add("version", version)
+                .build();
+
+        Optional<byte[]> cached = cache.get(key, "txt");
+        if (cached.isPresent()) {
+            log.debug("Using cached JDK modules required by " + jar);
+            return parseModules(new String(cached.get(), StandardCharsets.UTF_8));
+        }
+
+        Set<String> modules = analyze(jar);
+        cache.put(key, "txt", String.join(",", modules).getBytes(StandardCharsets.UTF_8));
+
+        return modules;
+    }
+
+    private Set<String> analyze(Path jar) throws IOException {
+        long start = System.nanoTime();
+
+        Set<String> referencedClasses = new HashSet<>();
+        ClassDependencyCollector collector = new ClassDependencyCollector(referencedClasses, new HashSet<>());
+
+        if (Files.isDirectory(jar)) {
+            List<Path> classFiles;
+            try (Stream<Path> files = Files.walk(jar)) {
+                classFiles = files.filter(file -> file.toString().endsWith(CLASS_SUFFIX) && !file.getFileName().toString().equals(MODULE_INFO_CLASS))
+                        .collect(Collectors.toList());
+            }
+
+            for (Path classFile : classFiles) {
+                collector.collect(Files.readAllBytes(classFile));
+            }
+        }
+        else {
+            try (JarFile jarFile = new JarFile(jar.toFile(), false, ZipFile.OPEN_READ, version)) {
+                Iterator<JarEntry> it = jarFile.versionedStream().iterator();
+
+                while (it.hasNext()) {
+                    JarEntry entry = it.next();
+                    String name = entry.getName();
+
+                    if (!name.endsWith(CLASS_SUFFIX) || entry.isDirectory() || name.equals(MODULE_INFO_CLASS) || name.startsWith("META-INF/")) {
+                        continue;
+                    }
+
+                    try (InputStream classFile = jarFile.getInputStream(entry)) {
+                        collector.collect(classFile.readAllBytes());
+                    }
+                }
+            }
+        }
+
+        Set<String> modules = new TreeSet<>();
+        for (String referencedClass : referencedClasses) {
+            int i = referencedClass.lastIndexOf('/');
+            if (i > 0) {
+                String module = index.modulesByPackage.get(referencedClass.substring(0, i).replace('/', '.'));
+                if (module != null) {
+                    modules.add(module);
+                }
+            }
+        }
+
+        log.debug("Analyzed " + jar + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        return modules;
+    }
+
+    private static Set<String> parseModules(String modules) {
+        return Arrays.stream(modules.split(","))
+                .filter(module -> !module.isEmpty())
+                .collect(Collectors.toCollection(TreeSet::new));
+    }
+
+    /**
+     * The modules required by a JAR, valid as long as the JAR's size and time stamp remain unchanged.
+     */
+    private static class AnalyzedJar {
+
+        private final long size;
+        private final FileTime lastModified;
+        private final JdkIndex index;
+        private final Runtime.Version version;
+        private final Set<String> modules;
+
+        AnalyzedJar(BasicFileAttributes attributes, JdkIndex index, Runtime.Version version, Set<String> modules) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime();
+            this.index = index;
+            this.version = version;
+            this.modules = Collections.unmodifiableSet(modules);
+        }
+
+        boolean isUpToDate(BasicFileAttributes attributes, JdkIndex index, Runtime.Version version) {
+            return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime()) && this.index == index
+                    && this.version.equals(version);
+        }
+    }
+
+    /**
+     * The packages and module graph of a JDK, read from its {@code jrt:/} file system.
+     */
+    private static class JdkIndex {
+
+        private final String id;
+        private final Map<String, String> modulesByPackage;
+        private final Map<String, Set<String>> transitiveRequires;
+
+        private JdkIndex(String id, Map<String, String> modulesByPackage, Map<String, Set<String>> transitiveRequires) {
+            this.id = id;
+            this.modulesByPackage = modulesByPackage;
+            this.transitiveRequires = transitiveRequires;
+        }
+
+        static JdkIndex of(Path javaHome) {
+            Path home;
+            try {
+                home = javaHome.toRealPath();
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Couldn't find JDK " + javaHome, e);
+            }
+
+            JdkIndex index = INDEXES.get(home);
+            if (index == null || !index.id.equals(getId(home))) {
+                index = read(home);
+                INDEXES.put(home, index);
+            }
+
+            return index;
+        }
+
+        /**
+         * Identifies a JDK by its location and the time stamp of its modules image.
+         */
+        private static String getId(Path home) {
+            try {
+                return home + " " + Files.getLastModifiedTime(home.resolve("lib").resolve("modules")).toMillis();
+            }
+            catch (IOException e) {
+                return home.toString();
+            }
+        }
+
+        private static JdkIndex read(Path home) {
+            boolean current;
+            try {
+                current = home.equals(Paths.get(System.getProperty("java.home")).toRealPath());
+            }
+            catch (IOException e) {
+                current = false;
+            }
+
+            FileSystem jrt = null;
+            try {
+                jrt = current
+                        ? FileSystems.getFileSystem(URI.create("jrt:/"))
+                        : FileSystems.newFileSystem(URI.create("jrt:/"), Collections.singletonMap("java.home", home.toString()));
+
+                Map<String, String> modulesByPackage = new HashMap<>();
+                Map<String, Set<String>> transitiveRequires = new HashMap<>();
+                try (DirectoryStream<Path> modules = Files.newDirectoryStream(jrt.getPath("/modules"))) {
+                    for (Path module : modules) {
+                        // the descriptors of the JDK's modules list their packages; the directories below
+                        // /packages also comprise the parent directories of packages
+                        ModuleDescriptor descriptor = readDescriptor(Files.readAllBytes(module.resolve(MODULE_INFO_CLASS)));
+                        for (String pn : descriptor.packages()) {
+                            modulesByPackage.put(pn, descriptor.name());
+                        }
+                        transitiveRequires.put(descriptor.name(), descriptor.requires()
+                                .stream()
+                                .filter(requires -> requires.modifiers().contains(Requires.Modifier.TRANSITIVE))
+                                .map(Requires::name)
+                                .collect(Collectors.toSet()));
+                    }
+                }
+
+                return new JdkIndex(getId(home), modulesByPackage, transitiveRequires);
+            }
+            catch (IOException | RuntimeException e) {
+                throw new RuntimeException("Couldn't read the modules of JDK " + home, e);
+            }
+            finally {
+                if (jrt != null && !current) {
+                    try {
+                        jrt.close();
+                    }
+                    catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads the given module descriptor. The descriptors of a JDK newer than the current one are read as if
+         * they had the class file version of the current JDK, as their format hasn't changed since Java 9.
+         */
+        private static ModuleDescriptor readDescriptor(byte[] moduleInfo) {
+            int majorVersion = ((moduleInfo[6] & 0xFF) << 8) | (moduleInfo[7] & 0xFF);
+            int currentMajorVersion = 44 + Runtime.version().feature();
+
+            if (majorVersion > currentMajorVersion) {
+                moduleInfo[6] = (byte) (currentMajorVersion >> 8);
+                moduleInfo[7] = (byte) currentMajorVersion;
+            }
+
+            return ModuleDescriptor.read(ByteBuffer.wrap(moduleInfo));
+        }
+
+        /**
+         * Removes the modules read by other modules of the given set via {@code requires transitive}.
+         */
+        Set<String> reduce(Set<String> modules) {
+            Set<String> implied = new HashSet<>();
+
+            for (String module : modules) {
+                Deque<String> pending = new ArrayDeque<>(transitiveRequires.getOrDefault(module, Collections.emptySet()));
+                while (!pending.isEmpty()) {
+                    String required = pending.pop();
+                    if (!required.equals(module) && implied.add(required)) {
+                        pending.addAll(transitiveRequires.getOrDefault(required, Collections.emptySet()));
+                    }
+                }
+            }
+
+            Set<String> reduced = new TreeSet<>(modules);
+            reduced.removeAll(implied);
+
+            return reduced;
+        }
+    }
+}
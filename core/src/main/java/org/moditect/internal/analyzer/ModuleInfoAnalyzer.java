@@ -0,0 +1,533 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.analyzer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleDescriptor.Provides;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+import org.moditect.internal.cache.LruCache;
+import org.moditect.model.JarSnapshot;
+import org.moditect.spi.log.Log;
+
+import com.github.javaparser.ast.Modifier;
+import com.github.javaparser.ast.NodeList;
+import com.github.javaparser.ast.expr.Name;
+import com.github.javaparser.ast.modules.ModuleDeclaration;
+import com.github.javaparser.ast.modules.ModuleExportsDirective;
+import com.github.javaparser.ast.modules.ModuleProvidesDirective;
+import com.github.javaparser.ast.modules.ModuleRequiresDirective;
+
+import static com.github.javaparser.StaticJavaParser.parseName;
+
+/**
+ * Derives the module descriptor of a JAR from its class files, as an in-process alternative to
+ * {@code jdeps --generate-module-info}. The descriptor is the same as the one generated by jdeps: all packages
+ * of the JAR are exported, the services from {@code META-INF/services} are provided, and all modules
+ * containing classes referenced by the JAR are required; transitively, if they are referenced by the API of
+ * the JAR's public classes.
+ * <p>
+ * Of the jdeps options, only {@code --module-path}, {@code --add-modules}, {@code --multi-release} and
+ * {@code --ignore-missing-deps} are supported. If other options are given, or if jdeps possibly would come
+ * to another result (e.g. as dependencies are missing or packages are split), no descriptor is returned and
+ * jdeps should be used instead.
+ */
+public class ModuleInfoAnalyzer {
+
+    private static final String JAVA_BASE = "java.base";
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String MODULE_INFO_CLASS = "module-info.class";
+
+    /**
+     * The maximum number of module path entries whose modules are kept in memory.
+     */
+    private static final int MAX_MODULE_PATH_ENTRIES = 1024;
+
+    private static final LruCache<Path, ModulePathEntry> MODULE_PATH_ENTRIES = new LruCache<>(MAX_MODULE_PATH_ENTRIES);
+
+    private final Log log;
+
+    public ModuleInfoAnalyzer(Log log) {
+        this.log = log;
+    }
+
+    /**
+     * Analyzes the given JAR.
+     *
+     * @param inputJar the JAR to analyze
+     * @param modulePath the module path, as it would be passed to jdeps via {@code --module-path}
+     * @param jdepsExtraArgs any further options as they would be passed to jdeps
+     * @return the module descriptor, or an empty optional if the descriptor should be generated using jdeps
+     */
+    public Optional<ModuleDeclaration> analyze(Path inputJar, List<Path> modulePath, List<String> jdepsExtraArgs) {
+        Options options = Options.parse(modulePath, jdepsExtraArgs);
+        if (options == null) {
+            log.debug("Not analyzing " + inputJar + " in-process due to unsupported jdeps options " + jdepsExtraArgs);
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.ofNullable(analyze(inputJar, options));
+        }
+        catch (IOException | RuntimeException e) {
+            log.debug("Couldn't analyze " + inputJar + " in-process: " + e);
+            return Optional.empty();
+        }
+    }
+
+    private ModuleDeclaration analyze(Path inputJar, Options options) throws IOException {
+        long start = System.nanoTime();
+
+        ModuleDescriptor descriptor = getDescriptor(inputJar);
+        if (descriptor == null) {
+            return null;
+        }
+
+        Set<String> classes = new HashSet<>();
+        Set<String> dependencies = new HashSet<>();
+        Set<String> apiDependencies = new HashSet<>();
+
+        if (!collectDependencies(inputJar, options.version, classes, new ClassDependencyCollector(dependencies, apiDependencies))) {
+            return null;
+        }
+
+        Map<String, ModuleContents> modulesByPackage = getModulesByPackage(descriptor, options.modulePath);
+        if (modulesByPackage == null) {
+            return null;
+        }
+
+        Set<String> requires = new HashSet<>();
+        Set<String> missing = new TreeSet<>();
+        resolve(dependencies, classes, modulesByPackage, requires, missing);
+
+        Set<String> requiresTransitive = new HashSet<>();
+        resolve(apiDependencies, classes, modulesByPackage, requiresTransitive, new HashSet<>());
+
+        if (!missing.isEmpty()) {
+            if (!options.ignoreMissingDeps) {
+                log.debug("Not analyzing " + inputJar + " in-process as classes are missing: " + missing);
+                return null;
+            }
+
+            log.warn("--ignore-missing-deps specified. Missing dependencies from " + descriptor.name() + " are ignored");
+        }
+
+        log.debug("Analyzed " + inputJar + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        return toModuleDeclaration(descriptor, requires, requiresTransitive);
+    }
+
+    /**
+     * Returns the descriptor of the given JAR as an automatic module, as {@link ModuleFinder} would derive it.
+     *
+     * @return {@code null} if the JAR can't be treated as an automatic module
+     */
+    private ModuleDescriptor getDescriptor(Path inputJar) {
+        JarSnapshot jar = JarSnapshot.of(inputJar);
+        String name = ModuleNameIndex.getModuleName(inputJar, null);
+
+        if (name == null || jar.isModular()) {
+            log.debug("Not analyzing " + inputJar + " in-process as it has no valid automatic module name or is modular already");
+            return null;
+        }
+
+        ModuleDescriptor.Builder builder = ModuleDescriptor.newAutomaticModule(name).packages(jar.getPackages());
+
+        for (Map.Entry<String, List<String>> provides : jar.getProviders().entrySet()) {
+            for (String provider : provides.getValue()) {
+                int lastDot = provider.lastIndexOf('.');
+                if (lastDot == -1 || !jar.getPackages().contains(provider.substring(0, lastDot))) {
+                    log.debug("Not analyzing " + inputJar + " in-process as provider class " + provider + " isn't contained in it");
+                    return null;
+                }
+            }
+
+            builder.provides(provides.getKey(), provides.getValue());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Collects the dependencies of all classes of the given JAR, using the versioned view for multi-release JARs.
+     *
+     * @return {@code false} if the JAR can't be analyzed like jdeps does it
+     */
+    private boolean collectDependencies(Path inputJar, Runtime.Version version, Set<String> classes, ClassDependencyCollector collector)
+            throws IOException {
+        try (JarFile jarFile = version != null
+                ? new JarFile(inputJar.toFile(), false, ZipFile.OPEN_READ, version)
+                : new JarFile(inputJar.toFile(), false)) {
+
+            if (version == null && jarFile.isMultiRelease()) {
+                return false;
+            }
+
+            Stream<JarEntry> entries = version != null ? jarFile.versionedStream() : jarFile.stream();
+            Iterator<JarEntry> it = entries.iterator();
+
+            while (it.hasNext()) {
+                JarEntry entry = it.next();
+                String name = entry.getName();
+
+                if (!name.endsWith(CLASS_SUFFIX) || entry.isDirectory()) {
+                    continue;
+                }
+
+                // jdeps rejects JARs with a descriptor or classes in the unnamed package
+                if (name.equals(MODULE_INFO_CLASS) || name.indexOf('/') < 0 || name.startsWith("META-INF/")) {
+                    return false;
+                }
+
+                classes.add(name.substring(0, name.length() - CLASS_SUFFIX.length()));
+
+                try (InputStream classFile = jarFile.getInputStream(entry)) {
+                    collector.collect(classFile.readAllBytes());
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the observable modules by package: all system modules and the modules from the module path.
+     *
+     * @return {@code null} if the module path contains a module with the name of the analyzed one or a package
+     *         is contained in several modules
+     */
+    private Map<String, ModuleContents> getModulesByPackage(ModuleDescriptor descriptor, List<Path> modulePath) throws IOException {
+        Map<String, ModuleContents> modulesByPackage = new HashMap<>(SystemModules.MODULES_BY_PACKAGE);
+        Set<String> moduleNames = new HashSet<>(SystemModules.MODULE_NAMES);
+
+        for (Path entry : modulePath) {
+            for (ModuleContents contents : getModules(entry)) {
+                String name = contents.getName();
+
+                if (name.equals(descriptor.name())) {
+                    log.debug("Not analyzing " + name + " in-process as the module path contains a module of the same name");
+                    return null;
+                }
+
+                // system modules and modules from earlier module path entries take precedence
+                if (!moduleNames.add(name)) {
+                    continue;
+                }
+
+                for (String pn : contents.getPackages()) {
+                    if (modulesByPackage.putIfAbsent(pn, contents) != null) {
+                        log.debug("Not analyzing " + descriptor.name() + " in-process as package " + pn + " is contained in several modules");
+                        return null;
+                    }
+                }
+            }
+        }
+
+        for (String pn : descriptor.packages()) {
+            if (modulesByPackage.containsKey(pn)) {
+                log.debug("Not analyzing " + descriptor.name() + " in-process as package " + pn + " is contained in several modules");
+                return null;
+            }
+        }
+
+        return modulesByPackage;
+    }
+
+    /**
+     * Returns the modules of the given module path entry. They are memoized as long as the entry, or for a directory
+     * each file in it, keeps its size and time stamp, so the module path isn't scanned again for each analyzed JAR.
+     */
+    private static List<ModuleContents> getModules(Path entry) throws IOException {
+        Path absolutePath = entry.toAbsolutePath().normalize();
+        List<String> stamp = getStamp(absolutePath);
+
+        if (stamp == null) {
+            return findModules(absolutePath);
+        }
+
+        ModulePathEntry memoized = MODULE_PATH_ENTRIES.get(absolutePath);
+        if (memoized != null && memoized.stamp.equals(stamp)) {
+            return memoized.modules;
+        }
+
+        List<ModuleContents> modules = findModules(absolutePath);
+        MODULE_PATH_ENTRIES.put(absolutePath, new ModulePathEntry(stamp, modules));
+
+        return modules;
+    }
+
+    /**
+     * Returns size and time stamp of the given JAR, or of each file in the given directory.
+     *
+     * @return {@code null} if the entry doesn't exist or contains exploded modules, whose changes can't be
+     *         detected that way
+     */
+    private static List<String> getStamp(Path entry) throws IOException {
+        if (Files.isRegularFile(entry)) {
+            return Collections.singletonList(getStamp(entry, Files.readAttributes(entry, BasicFileAttributes.class)));
+        }
+
+        if (!Files.isDirectory(entry) || Files.exists(entry.resolve(MODULE_INFO_CLASS))) {
+            return null;
+        }
+
+        List<String> stamp = new ArrayList<>();
+
+        try (Stream<Path> files = Files.list(entry)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                if (attributes.isDirectory()) {
+                    return null;
+                }
+                stamp.add(getStamp(file, attributes));
+            }
+        }
+
+        Collections.sort(stamp);
+        return stamp;
+    }
+
+    private static String getStamp(Path file, BasicFileAttributes attributes) {
+        return file.getFileName() + " " + attributes.size() + " " + attributes.lastModifiedTime().toMillis();
+    }
+
+    private static List<ModuleContents> findModules(Path entry) {
+        return Collections.unmodifiableList(ModuleFinder.of(entry).findAll().stream()
+                .map(ModuleContents::new)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Determines the modules containing the given referenced classes.
+     */
+    private void resolve(Set<String> referencedClasses, Set<String> classes, Map<String, ModuleContents> modulesByPackage,
+                         Set<String> requires, Set<String> missing)
+            throws IOException {
+        for (String referencedClass : referencedClasses) {
+            if (classes.contains(referencedClass)) {
+                continue;
+            }
+
+            int i = referencedClass.lastIndexOf('/');
+            String pn = i > 0 ? referencedClass.substring(0, i).replace('/', '.') : "";
+            ModuleContents module = modulesByPackage.get(pn);
+
+            if (module != null && module.containsClass(referencedClass)) {
+                requires.add(module.getName());
+            }
+            else {
+                missing.add(referencedClass.replace('/', '.'));
+            }
+        }
+    }
+
+    /**
+     * Creates the descriptor with its directives in the same order as jdeps writes them.
+     */
+    private ModuleDeclaration toModuleDeclaration(ModuleDescriptor descriptor, Set<String> requires, Set<String> requiresTransitive) {
+        ModuleDeclaration module = new ModuleDeclaration(parseName(descriptor.name()), false);
+
+        requires.stream()
+                .filter(name -> !name.equals(JAVA_BASE) && !requiresTransitive.contains(name))
+                .sorted()
+                .forEach(name -> module.getDirectives().add(new ModuleRequiresDirective(new NodeList<>(), parseName(name))));
+
+        requiresTransitive.stream()
+                .filter(name -> !name.equals(JAVA_BASE))
+                .sorted()
+                .forEach(name -> module.getDirectives().add(
+                        new ModuleRequiresDirective(NodeList.nodeList(Modifier.transitiveModifier()), parseName(name))));
+
+        descriptor.packages().stream()
+                .sorted()
+                .forEach(pn -> module.getDirectives().add(new ModuleExportsDirective(parseName(pn), new NodeList<>())));
+
+        descriptor.provides().stream()
+                .sorted(Comparator.comparing(Provides::service))
+                .forEach(provides -> module.getDirectives().add(
+                        new ModuleProvidesDirective(
+                                parseName(provides.service().replace('$', '.')),
+                                provides.providers().stream()
+                                        .map(provider -> parseName(provider.replace('$', '.')))
+                                        .collect(Collectors.toCollection(NodeList<Name>::new)))));
+
+        return module;
+    }
+
+    /**
+     * The jdeps options relevant for the analysis.
+     */
+    private static class Options {
+
+        private final List<Path> modulePath;
+        private final boolean ignoreMissingDeps;
+        private final Runtime.Version version;
+
+        private Options(List<Path> modulePath, boolean ignoreMissingDeps, Runtime.Version version) {
+            this.modulePath = modulePath;
+            this.ignoreMissingDeps = ignoreMissingDeps;
+            this.version = version;
+        }
+
+        /**
+         * @return {@code null} if unsupported options are given
+         */
+        static Options parse(List<Path> modulePath, List<String> jdepsExtraArgs) {
+            boolean ignoreMissingDeps = false;
+            Runtime.Version version = null;
+
+            for (int i = 0; i < jdepsExtraArgs.size(); i++) {
+                String arg = jdepsExtraArgs.get(i);
+                String value = null;
+                int separator = arg.indexOf('=');
+
+                if (arg.startsWith("--") && separator > 0) {
+                    value = arg.substring(separator + 1);
+                    arg = arg.substring(0, separator);
+                }
+
+                if (arg.equals("--ignore-missing-deps") && value == null) {
+                    ignoreMissingDeps = true;
+                    continue;
+                }
+
+                if (!arg.equals("--module-path") && !arg.equals("--add-modules") && !arg.equals("--multi-release")) {
+                    return null;
+                }
+
+                if (value == null) {
+                    if (i == jdepsExtraArgs.size() - 1) {
+                        return null;
+                    }
+                    value = jdepsExtraArgs.get(++i);
+                }
+
+                // as with jdeps, the last module path option wins; all observable modules are analyzed, so any
+                // modules to add don't need to be regarded
+                if (arg.equals("--module-path")) {
+                    modulePath = new ArrayList<>();
+                    for (String element : value.split(File.pathSeparator)) {
+                        modulePath.add(Paths.get(element));
+                    }
+                }
+                else if (arg.equals("--multi-release")) {
+                    try {
+                        version = value.equalsIgnoreCase("base") ? JarFile.baseVersion() : Runtime.Version.parse(value);
+                    }
+                    catch (IllegalArgumentException e) {
+                        return null;
+                    }
+                    if (version.feature() < 9 && !value.equalsIgnoreCase("base")) {
+                        return null;
+                    }
+                }
+            }
+
+            return new Options(modulePath, ignoreMissingDeps, version);
+        }
+    }
+
+    /**
+     * A module whose class names are retrieved upon first access.
+     */
+    private static class ModuleContents {
+
+        private final ModuleReference reference;
+        private Set<String> classes;
+
+        ModuleContents(ModuleReference reference) {
+            this.reference = reference;
+        }
+
+        String getName() {
+            return reference.descriptor().name();
+        }
+
+        Set<String> getPackages() {
+            return reference.descriptor().packages();
+        }
+
+        synchronized boolean containsClass(String name) throws IOException {
+            if (classes == null) {
+                try (ModuleReader reader = reference.open(); Stream<String> resources = reader.list()) {
+                    classes = resources
+                            .filter(resource -> resource.endsWith(CLASS_SUFFIX))
+                            .map(resource -> resource.substring(0, resource.length() - CLASS_SUFFIX.length()))
+                            .collect(Collectors.toSet());
+                }
+            }
+
+            return classes.contains(name);
+        }
+    }
+
+    /**
+     * The modules found in a module path entry with the size and time stamps they were found for.
+     */
+    private static class ModulePathEntry {
+
+        private final List<String> stamp;
+        private final List<ModuleContents> modules;
+
+        ModulePathEntry(List<String> stamp, List<ModuleContents> modules) {
+            this.stamp = stamp;
+            this.modules = modules;
+        }
+    }
+
+    /**
+     * The modules of the current JDK, shared across all analyses.
+     */
+    private static class SystemModules {
+
+        private static final Set<String> MODULE_NAMES;
+        private static final Map<String, ModuleContents> MODULES_BY_PACKAGE;
+
+        static {
+            Set<String> moduleNames = new HashSet<>();
+            Map<String, ModuleContents> modulesByPackage = new HashMap<>();
+
+            for (ModuleReference reference : ModuleFinder.ofSystem().findAll()) {
+                moduleNames.add(reference.descriptor().name());
+
+                ModuleContents contents = new ModuleContents(reference);
+                for (String pn : reference.descriptor().packages()) {
+                    modulesByPackage.put(pn, contents);
+                }
+            }
+
+            MODULE_NAMES = Collections.unmodifiableSet(moduleNames);
+            MODULES_BY_PACKAGE = Collections.unmodifiableMap(modulesByPackage);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.analyzer;
+
+import java.lang.module.FindException;
+import java.lang.module.InvalidModuleDescriptorException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.moditect.model.JarSnapshot;
+
+/**
+ * Determines the module names of JARs, as {@link ModuleFinder} would, but based on the {@link JarSnapshot} of
+ * each JAR, i.e. without opening any entries other than the manifest and {@code module-info.class}. As the
+ * snapshots of recently used JARs are kept in memory, each JAR usually is read only once per build; the index may
+ * be used by several threads at the same time.
+ * <p>
+ * For explicit modules, the name is read from the module descriptor. For automatic modules, it is taken from
+ * the {@code Automatic-Module-Name} manifest header or derived from the file name, following the rules of
+ * {@link ModuleFinder#of(Path...)}. Files other than JARs are passed on to {@link ModuleFinder}.
+ */
+public final class ModuleNameIndex {
+
+    private static final String AUTOMATIC_MODULE_NAME = "Automatic-Module-Name";
+    private static final String INVALID_MODULE_NAME = "Invalid module name";
+
+    private static final Pattern DASH_VERSION = Pattern.compile("-(\\d+(\\.|$))");
+    private static final Pattern NON_ALPHANUM = Pattern.compile("[^A-Za-z0-9]");
+    private static final Pattern REPEATING_DOTS = Pattern.compile("(\\.)(\\1)+");
+    private static final Pattern LEADING_DOTS = Pattern.compile("^\\.");
+    private static final Pattern TRAILING_DOTS = Pattern.compile("\\.$");
+
+    private ModuleNameIndex() {
+    }
+
+    /**
+     * Returns the module name of the given JAR.
+     *
+     * @param path the JAR
+     * @param invalidModuleName the name to return if the JAR's automatic module name isn't valid
+     * @throws FindException if the JAR's module descriptor is invalid
+     */
+    public static String getModuleName(Path path, String invalidModuleName) {
+        String moduleName = Files.isRegularFile(path) && path.getFileName().toString().endsWith(".jar")
+                ? deriveModuleName(JarSnapshot.of(path))
+                : findModuleName(path);
+
+        return moduleName != null ? moduleName : invalidModuleName;
+    }
+
+    /**
+     * @return the module name, or {@code null} if the JAR's automatic module name isn't valid
+     */
+    private static String deriveModuleName(JarSnapshot jar) {
+        byte[] moduleDescriptor = jar.getModuleDescriptor();
+        if (moduleDescriptor != null) {
+            try {
+                return ModuleDescriptor.read(ByteBuffer.wrap(moduleDescriptor)).name();
+            }
+            catch (InvalidModuleDescriptorException e) {
+                throw new FindException("Error reading module: " + jar.getPath(), e);
+            }
+        }
+
+        String automaticModuleName = jar.getMainAttribute(AUTOMATIC_MODULE_NAME);
+        String moduleName = toModuleName(jar.getPath(), automaticModuleName != null ? automaticModuleName : cleanModuleName(jar.getPath()));
+
+        if (moduleName != null && jar.hasClassesInUnnamedPackage()) {
+            throw new FindException("Unable to derive module descriptor for " + jar.getPath(),
+                    new InvalidModuleDescriptorException("Classes found in top-level directory (unnamed package not allowed in module)"));
+        }
+
+        return moduleName;
+    }
+
+    private static String findModuleName(Path path) {
+        try {
+            return ModuleFinder.of(path)
+                    .findAll()
+                    .iterator()
+                    .next()
+                    .descriptor()
+                    .name();
+        }
+        catch (FindException e) {
+            if (e.getCause() != null && e.getCause().getMessage().contains(INVALID_MODULE_NAME)) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Derives the name of an automatic module from its file name, e.g. "foo-bar-1.0.jar" becomes "foo.bar".
+     */
+    private static String cleanModuleName(Path path) {
+        String fileName = path.getFileName().toString();
+        String moduleName = fileName.substring(0, fileName.length() - 4);
+
+        // drop the version, starting at the first occurrence of "-<number>." or "-<number>" at the end
+        Matcher matcher = DASH_VERSION.matcher(moduleName);
+        if (matcher.find()) {
+            moduleName = moduleName.substring(0, matcher.start());
+        }
+
+        moduleName = NON_ALPHANUM.matcher(moduleName).replaceAll(".");
+        moduleName = REPEATING_DOTS.matcher(moduleName).replaceAll(".");
+        moduleName = LEADING_DOTS.matcher(moduleName).replaceAll("");
+        moduleName = TRAILING_DOTS.matcher(moduleName).replaceAll("");
+
+        return moduleName;
+    }
+
+    /**
+     * @return the given name, or {@code null} if it isn't a valid module name
+     */
+    private static String toModuleName(Path path, String moduleName) {
+        try {
+            return ModuleDescriptor.newAutomaticModule(moduleName).build().name();
+        }
+        catch (IllegalArgumentException e) {
+            if (e.getMessage() != null && e.getMessage().contains(INVALID_MODULE_NAME)) {
+                return null;
+            }
+            throw new FindException("Unable to derive module descriptor for " + path, e);
+        }
+    }
+}
@@ -11,9 +11,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.stream.Collectors;
 
 import org.moditect.spi.log.Log;
 import org.objectweb.asm.ClassReader;
@@ -22,72 +25,133 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
+/**
+ * Determines the services loaded via {@code ServiceLoader.load()} by the classes of a JAR. Only classes whose
+ * constant pool references a method of {@code java.util.ServiceLoader} are visited, and the classes of a JAR
+ * are scanned in parallel, using the common fork-join pool.
+ */
 public class ServiceLoaderUseScanner {
 
+    private static final String SERVICE_LOADER = "java/util/ServiceLoader";
+
+    // constant pool tags, see JVMS 4.4
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+
     private final Log log;
+    private final ThreadLocal<ServiceLoaderUseVisitor> visitors;
 
     public ServiceLoaderUseScanner(Log log) {
         this.log = log;
+        this.visitors = ThreadLocal.withInitial(ServiceLoaderUseVisitor::new);
     }
 
     public Set<String> getUsedServices(Path jar) {
-        Set<String> usedServices = new HashSet<>();
+        Set<String> usedServices = ConcurrentHashMap.newKeySet();
 
         try (JarFile jarFile = new JarFile(jar.toFile())) {
-            jarFile.stream()
+            List<JarEntry> classFiles = jarFile.stream()
                     .filter(je -> !je.isDirectory() && je.getName().endsWith(".class"))
-                    .forEach(je -> usedServices.addAll(getUsedServices(jarFile, je)));
+                    .collect(Collectors.toList());
+
+            classFiles.parallelStream()
+                    .forEach(je -> addUsedServices(jarFile, je, usedServices));
         }
         catch (IOException e) {
             throw new RuntimeException("Couldn't open or close JAR file " + jar, e);
         }
 
-        return usedServices;
+        return new HashSet<>(usedServices);
     }
 
-    private Set<String> getUsedServices(JarFile jarFile, JarEntry je) {
-        Set<String> usedServices = new HashSet<>();
+    private void addUsedServices(JarFile jarFile, JarEntry je, Set<String> usedServices) {
+        ClassReader classReader;
 
         try (InputStream classFile = jarFile.getInputStream(je)) {
-            new ClassReader(classFile).accept(
-                    new ClassVisitor(Opcodes.ASM9) {
-
-                        @Override
-                        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-
-                            return new MethodVisitor(Opcodes.ASM9) {
-
-                                private Type lastType;
-
-                                @Override
-                                public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
-                                    if (owner.equals("java/util/ServiceLoader") && name.equals("load")) {
-                                        if (lastType == null) {
-                                            // TODO Log class/method
-                                            log.warn("Cannot derive uses clause from service loader invocation with non constant class literal");
-                                        }
-                                        else {
-                                            usedServices.add(lastType.getClassName());
-                                        }
-                                    }
-                                }
-
-                                @Override
-                                public void visitLdcInsn(Object cst) {
-                                    if (cst instanceof Type) {
-                                        lastType = (Type) cst;
-                                    }
-                                };
-                            };
-                        }
-                    },
-                    0);
+            classReader = new ClassReader(classFile);
         }
         catch (IOException e) {
             throw new RuntimeException(e);
         }
 
-        return usedServices;
+        if (referencesServiceLoader(classReader)) {
+            ServiceLoaderUseVisitor visitor = visitors.get();
+            visitor.usedServices = usedServices;
+            classReader.accept(visitor, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        }
+    }
+
+    /**
+     * Whether the constant pool of the given class contains a reference to a method of {@code ServiceLoader};
+     * only then the class' methods need to be visited.
+     */
+    private static boolean referencesServiceLoader(ClassReader classReader) {
+        char[] buffer = null;
+
+        for (int i = 1; i < classReader.getItemCount(); i++) {
+            int offset = classReader.getItem(i);
+
+            // long and double entries take two slots, the second of which has no offset
+            if (offset == 0) {
+                continue;
+            }
+
+            int tag = classReader.readByte(offset - 1);
+            if (tag == CONSTANT_METHODREF || tag == CONSTANT_INTERFACE_METHODREF) {
+                if (buffer == null) {
+                    buffer = new char[classReader.getMaxStringLength()];
+                }
+
+                if (SERVICE_LOADER.equals(classReader.readClass(offset, buffer))) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
     }
 
+    /**
+     * Collects the class literals passed to {@code ServiceLoader.load()}. Instances are re-used for all classes
+     * scanned by one thread.
+     */
+    private class ServiceLoaderUseVisitor extends ClassVisitor {
+
+        private final MethodVisitor methodVisitor;
+        private Set<String> usedServices;
+        private Type lastType;
+
+        ServiceLoaderUseVisitor() {
+            super(Opcodes.ASM9);
+
+            this.methodVisitor = new MethodVisitor(Opcodes.ASM9) {
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                    if (owner.equals(SERVICE_LOADER) && name.equals("load")) {
+                        if (lastType == null) {
+                            // TODO Log class/method
+                            log.warn("Cannot derive uses clause from service loader invocation with non constant class literal");
+                        }
+                        else {
+                            usedServices.add(lastType.getClassName());
+                        }
+                    }
+                }
+
+                @Override
+                public void visitLdcInsn(Object cst) {
+                    if (cst instanceof Type) {
+                        lastType = (Type) cst;
+                    }
+                };
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            lastType = null;
+            return methodVisitor;
+        }
+    }
 }
@@ -0,0 +1,52 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in-memory cache holding a bounded number of entries; the least recently used entry is removed when the
+ * maximum is exceeded. Used for data memoized across builds running in the same JVM (e.g. with the Maven daemon
+ * or within an IDE), which thus doesn't grow without bounds. The cache may be used by several threads at the
+ * same time.
+ */
+public class LruCache<K, V> {
+
+    private final Map<K, V> entries;
+
+    /**
+     * @param maxEntries the maximum number of entries
+     */
+    public LruCache(int maxEntries) {
+        this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the given entry, marking it as recently used.
+     *
+     * @return the entry or {@code null} if the cache doesn't contain it
+     */
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, value);
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.moditect.spi.log.Log;
+
+/**
+ * A persistent cache for generated module descriptors and compiled {@code module-info.class} files, shared by
+ * all builds using the same cache directory.
+ * <p>
+ * Entries are addressed by a hash of everything their content is derived from (see {@link KeyBuilder}), so
+ * they never need to be invalidated. When the total size of the entries exceeds the configured maximum, the
+ * least recently used entries are removed. Entries are written atomically, so several builds may use the
+ * same cache at the same time.
+ */
+public class ModuleInfoCache {
+
+    /**
+     * To be incremented whenever the way descriptors are derived changes, so no outdated entries are used.
+     */
+    private static final String FORMAT_VERSION = "1";
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxSize;
+    private final Log log;
+    private final Map<Path, FileHash> fileHashes = new ConcurrentHashMap<>();
+
+    private long size = -1;
+
+    /**
+     * @param directory the directory holding the cache entries
+     * @param maxSize the maximum total size of all entries in bytes
+     */
+    public ModuleInfoCache(Path directory, long maxSize, Log log) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.log = log;
+    }
+
+    /**
+     * Starts the key for an entry of the given kind.
+     */
+    public KeyBuilder newKey(String kind) {
+        return new KeyBuilder(kind);
+    }
+
+    /**
+     * Returns the content of the given entry, marking it as recently used.
+     */
+    public Optional<byte[]> get(String key, String extension) {
+        Path entry = getEntry(key, extension);
+
+        if (!Files.exists(entry)) {
+            return Optional.empty();
+        }
+
+        try {
+            byte[] content = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return Optional.of(content);
+        }
+        catch (IOException e) {
+            // the entry may just have been evicted by another build
+            log.debug("Couldn't read cache entry " + entry + ": " + e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Stores the given entry. Failures are logged, but not propagated, as the cache is an optimization only.
+     */
+    public void put(String key, String extension, byte[] content) {
+        Path entry = getEntry(key, extension);
+
+        try {
+            Files.createDirectories(entry.getParent());
+
+            Path tmp = Files.createTempFile(entry.getParent(), key, TEMP_FILE_SUFFIX);
+            Files.write(tmp, content);
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            log.warn("Couldn't write cache entry " + entry + ": " + e);
+            return;
+        }
+
+        added(content.length);
+    }
+
+    private Path getEntry(String key, String extension) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + "." + extension);
+    }
+
+    private synchronized void added(long entrySize) {
+        if (size == -1) {
+            size = getEntries().stream().mapToLong(CacheEntry::getSize).sum();
+        }
+        else {
+            size += entrySize;
+        }
+
+        if (size > maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache is below its maximum size again. The size is
+     * re-determined from the file system, as other builds may have added or removed entries meanwhile.
+     */
+    private void evict() {
+        List<CacheEntry> entries = getEntries();
+        entries.sort(Comparator.comparing(CacheEntry::getLastModified));
+
+        size = entries.stream().mapToLong(CacheEntry::getSize).sum();
+
+        for (CacheEntry entry : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+
+            try {
+                Files.deleteIfExists(entry.path);
+                size -= entry.size;
+            }
+            catch (IOException e) {
+                log.debug("Couldn't remove cache entry " + entry.path + ": " + e);
+            }
+        }
+
+        log.debug("Evicted entries from module descriptor cache " + directory + ", size is " + size + " bytes now");
+    }
+
+    private List<CacheEntry> getEntries() {
+        List<CacheEntry> entries = new ArrayList<>();
+
+        if (!Files.exists(directory)) {
+            return entries;
+        }
+
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile() && !file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+                        entries.add(new CacheEntry(file, attrs.size(), attrs.lastModifiedTime()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e) {
+            log.debug("Couldn't list cache entries in " + directory + ": " + e);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the hash of the given file's content. Hashes are kept in memory as long as size and time stamp of
+     * the file remain unchanged, so shared dependencies are read only once.
+     */
+    private String getFileHash(Path file) {
+        Path absolutePath = file.toAbsolutePath();
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+            FileHash fileHash = fileHashes.get(absolutePath);
+
+            if (fileHash == null || fileHash.size != attributes.size() || !fileHash.lastModified.equals(attributes.lastModifiedTime())) {
+                fileHash = new FileHash(attributes.size(), attributes.lastModifiedTime(), hash(absolutePath));
+                fileHashes.put(absolutePath, fileHash);
+            }
+
+            return fileHash.hash;
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't compute hash of " + file, e);
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream is = Files.newInputStream(file)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Builds the key of a cache entry from the values and files its content is derived from. The version of
+     * the running JDK, whose jdeps and system modules are used for generating descriptors, is always part of
+     * the key.
+     */
+    public class KeyBuilder {
+
+        private final MessageDigest digest = newDigest();
+
+        private KeyBuilder(String kind) {
+            add("format", FORMAT_VERSION);
+            add("kind", kind);
+            add("jdk", System.getProperty("java.vendor") + " " + System.getProperty("java.runtime.version"));
+        }
+
+        public KeyBuilder add(String name, Object value) {
+            digest.update((name + "=" + value + "\n").getBytes(StandardCharsets.UTF_8));
+            return this;
+        }
+
+        /**
+         * Adds the given values in their natural order, as their order doesn't matter.
+         */
+        public KeyBuilder addUnordered(String name, Collection<String> values) {
+            return add(name, new TreeSet<>(values));
+        }
+
+        /**
+         * Adds the content of the given file or, if it is a directory, of the files directly contained in it.
+         */
+        public KeyBuilder addFile(String name, Path file) {
+            if (Files.isDirectory(file)) {
+                List<Path> files = new ArrayList<>();
+
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(file)) {
+                    for (Path child : stream) {
+                        if (Files.isRegularFile(child)) {
+                            files.add(child);
+                        }
+                    }
+                }
+                catch (IOException e) {
+                    throw new RuntimeException("Couldn't list files in " + file, e);
+                }
+
+                files.sort(Comparator.naturalOrder());
+                add(name, "directory " + file.toAbsolutePath());
+
+                for (Path child : files) {
+                    add(name + "/" + child.getFileName(), getFileHash(child));
+                }
+
+                return this;
+            }
+            else if (Files.exists(file)) {
+                return add(name, getFileHash(file));
+            }
+            else {
+                return add(name, "missing " + file.toAbsolutePath());
+            }
+        }
+
+        public String build() {
+            return toHex(digest.digest());
+        }
+    }
+
+    private static class FileHash {
+
+        private final long size;
+        private final FileTime lastModified;
+        private final String hash;
+
+        FileHash(long size, FileTime lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private static class CacheEntry {
+
+        private final Path path;
+        private final long size;
+        private final FileTime lastModified;
+
+        CacheEntry(Path path, long size, FileTime lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        FileTime getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -9,55 +9,259 @@ package org.moditect.internal.command;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import org.moditect.spi.log.Log;
 
 /**
  * Executes a specified external processor, logging output to the given logger.
+ * <p>
+ * Standard output and error of the process are read concurrently, so a process can't block on either of them
+ * being full. Only a bounded number of output lines is retained: the most recent ones are logged when the
+ * process fails. If the process doesn't terminate within its timeout or the calling thread is
+ * interrupted, the process and all its descendants are killed.
  *
  * @author Gunnar Morling
  */
 public class ProcessExecutor {
 
-    public static void run(String name, List<String> command, Log log) {
-        ProcessBuilder builder = new ProcessBuilder(command);
+    /**
+     * The timeout of processes for which no specific timeout is given.
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(30);
+
+    /**
+     * The maximum number of lines of standard output returned; older lines are dropped.
+     */
+    private static final int MAX_OUTPUT_LINES = 10_000;
+
+    /**
+     * The number of most recent output lines logged when a process fails, in addition to those already logged
+     * as errors.
+     */
+    private static final int MAX_REPORTED_LINES = 100;
+
+    private static final long STOP_TIMEOUT_SECONDS = 30;
+    private static final long DRAIN_TIMEOUT_SECONDS = 10;
+
+    private static final ExecutorService OUTPUT_READERS = Executors.newCachedThreadPool(new OutputReaderThreadFactory());
+
+    /**
+     * Runs the given command.
+     *
+     * @return the lines written by the process to its standard output
+     */
+    public static List<String> run(String name, List<String> command, Log log) {
+        return run(name, command, DEFAULT_TIMEOUT, log);
+    }
+
+    /**
+     * Runs the given command, failing if it doesn't terminate within the given timeout.
+     *
+     * @return the lines written by the process to its standard output
+     */
+    public static List<String> run(String name, List<String> command, Duration timeout, Log log) {
+        return execute(name, command, timeout, false, log).output;
+    }
+
+    /**
+     * Runs the given command, e.g. an application which doesn't terminate by itself, until it terminates or the
+     * given timeout has elapsed. In the latter case, the process is stopped (gracefully at first), which isn't
+     * considered a failure. All output is logged on debug level.
+     * <p>
+     * Where the platform doesn't support stopping processes gracefully (see
+     * {@link ProcessHandle#supportsNormalTermination()}, e.g. on Windows), processes are terminated forcibly,
+     * i.e. without running their shutdown hooks or any other actions upon JVM exit.
+     *
+     * @return {@code true} if the process terminated by itself, {@code false} if it has been stopped
+     */
+    public static boolean runUntilTimeout(String name, List<String> command, Duration timeout, Log log) {
+        Result result = execute(name, command, timeout, true, log);
+        return !result.stopped;
+    }
+
+    private static Result execute(String name, List<String> command, Duration timeout, boolean stopOnTimeout, Log log) {
+        log.debug("Running " + String.join(" ", command));
 
         Process process;
-        List<String> outputLines = new ArrayList<>();
         try {
-            process = builder.start();
+            process = new ProcessBuilder(command).start();
+            process.getOutputStream().close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't run " + name, e);
+        }
 
-            BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            while ((line = in.readLine()) != null) {
-                outputLines.add(line);
+        OutputBuffer output = new OutputBuffer(MAX_OUTPUT_LINES);
+        OutputBuffer recentOutput = new OutputBuffer(MAX_REPORTED_LINES);
+
+        Future<?> stdout = OUTPUT_READERS.submit(() -> drain(process.getInputStream(), line -> {
+            output.add(line);
+            recentOutput.add(line);
+            log.debug(line);
+        }, name, log));
+
+        // lines of standard error are logged as errors right away, unless all output is logged on debug level
+        Future<?> stderr = OUTPUT_READERS.submit(() -> drain(process.getErrorStream(), line -> {
+            if (stopOnTimeout) {
+                recentOutput.add(line);
                 log.debug(line);
             }
-
-            BufferedReader err = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-            while ((line = err.readLine()) != null) {
+            else {
                 log.error(line);
             }
+        }, name, log));
 
-            process.waitFor();
-        }
-        catch (IOException | InterruptedException e) {
-            for (String line : outputLines) {
-                log.error(line);
+        try {
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                if (!stopOnTimeout) {
+                    destroyForcibly(process);
+                    awaitOutput(stdout, stderr, name, log);
+                    report(recentOutput, log);
+
+                    throw new RuntimeException("Execution of " + name + " timed out after " + timeout.getSeconds() + "s");
+                }
+
+                log.debug("Stopping " + name + " after timeout");
+                stop(process);
+                awaitOutput(stdout, stderr, name, log);
+
+                return new Result(output.getLines(), true);
             }
 
-            throw new RuntimeException("Couldn't run " + name, e);
+            awaitOutput(stdout, stderr, name, log);
+        }
+        catch (InterruptedException e) {
+            destroyForcibly(process);
+            Thread.currentThread().interrupt();
+
+            throw new RuntimeException("Interrupted while running " + name, e);
         }
 
         if (process.exitValue() != 0) {
-            for (String line : outputLines) {
-                log.error(line);
+            report(recentOutput, log);
+
+            throw new RuntimeException("Execution of " + name + " failed with exit value " + process.exitValue());
+        }
+
+        return new Result(output.getLines(), false);
+    }
+
+    private static void drain(InputStream stream, Consumer<String> consumer, String name, Log log) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                consumer.accept(line);
+            }
+        }
+        catch (IOException e) {
+            log.debug("Couldn't read output of " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Waits for the output of a terminated process to be read. Descendants of the process may keep its streams
+     * open, so only a limited time is waited.
+     */
+    private static void awaitOutput(Future<?> stdout, Future<?> stderr, String name, Log log) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_TIMEOUT_SECONDS);
+
+        for (Future<?> reader : new Future<?>[]{ stdout, stderr }) {
+            try {
+                reader.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
             }
+            catch (TimeoutException e) {
+                log.debug("Not waiting any longer for the output of " + name);
+                reader.cancel(true);
+            }
+            catch (ExecutionException e) {
+                log.debug("Couldn't read output of " + name + ": " + e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Stops the given process and its descendants gracefully, killing them if they don't terminate in time.
+     */
+    private static void stop(Process process) throws InterruptedException {
+        process.descendants().forEach(ProcessHandle::destroy);
+        process.destroy();
+
+        if (!process.waitFor(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            destroyForcibly(process);
+        }
+    }
+
+    private static void destroyForcibly(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    private static void report(OutputBuffer recentOutput, Log log) {
+        for (String line : recentOutput.getLines()) {
+            log.error(line);
+        }
+    }
+
+    private static class Result {
+
+        private final List<String> output;
+        private final boolean stopped;
+
+        Result(List<String> output, boolean stopped) {
+            this.output = output;
+            this.stopped = stopped;
+        }
+    }
+
+    /**
+     * Retains the given number of most recently added lines.
+     */
+    private static class OutputBuffer {
+
+        private final int capacity;
+        private final Deque<String> lines = new ArrayDeque<>();
+
+        OutputBuffer(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void add(String line) {
+            if (lines.size() == capacity) {
+                lines.removeFirst();
+            }
+            lines.addLast(line);
+        }
+
+        synchronized List<String> getLines() {
+            return new ArrayList<>(lines);
+        }
+    }
+
+    private static class OutputReaderThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
 
-            throw new RuntimeException("Execution of " + name + " failed");
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "moditect-process-output-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
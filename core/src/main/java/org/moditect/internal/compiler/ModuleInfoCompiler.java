@@ -10,12 +10,22 @@ package org.moditect.internal.compiler;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
+import org.moditect.model.ModuleAttributes;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ByteVector;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.ModuleVisitor;
 
-import com.github.javaparser.StaticJavaParser;
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseProblemException;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.Modifier;
 import com.github.javaparser.ast.expr.Name;
@@ -27,7 +37,7 @@ import com.github.javaparser.ast.modules.ModuleRequiresDirective;
 import com.github.javaparser.ast.modules.ModuleUsesDirective;
 import com.github.javaparser.ast.nodeTypes.NodeWithModifiers;
 
-import static com.github.javaparser.ParserConfiguration.LanguageLevel.*;
+import static com.github.javaparser.ParserConfiguration.LanguageLevel.JAVA_9;
 import static org.objectweb.asm.Opcodes.ACC_MANDATED;
 import static org.objectweb.asm.Opcodes.ACC_MODULE;
 import static org.objectweb.asm.Opcodes.ACC_OPEN;
@@ -38,15 +48,18 @@ import static org.objectweb.asm.Opcodes.V9;
 
 public class ModuleInfoCompiler {
 
-    static {
-        StaticJavaParser.getConfiguration().setLanguageLevel(JAVA_9);
-    }
+    // StaticJavaParser keeps its configuration in a thread-local, so a dedicated configuration is used to parse
+    // descriptors consistently also when modularizing several JARs in parallel
+    private static final ParserConfiguration PARSER_CONFIGURATION = new ParserConfiguration().setLanguageLevel(JAVA_9);
+
+    // resolution flag of the ModuleResolution attribute, see jdk.internal.module.ModuleResolution
+    private static final int DO_NOT_RESOLVE_BY_DEFAULT = 0x0001;
 
     public static ModuleDeclaration parseModuleInfo(Path moduleInfo) {
         CompilationUnit ast;
 
         try {
-            ast = StaticJavaParser.parse(moduleInfo);
+            ast = getResult(new JavaParser(PARSER_CONFIGURATION).parse(moduleInfo));
         }
         catch (IOException e) {
             throw new RuntimeException("Couldn't parse " + moduleInfo, e);
@@ -57,13 +70,44 @@ public class ModuleInfoCompiler {
     }
 
     public static ModuleDeclaration parseModuleInfo(String moduleInfoSource) {
-        CompilationUnit ast = StaticJavaParser.parse(moduleInfoSource);
+        CompilationUnit ast = getResult(new JavaParser(PARSER_CONFIGURATION).parse(moduleInfoSource));
 
         return ast.getModule()
                 .orElseThrow(() -> new IllegalArgumentException("Not a module-info.java: " + moduleInfoSource));
     }
 
+    private static CompilationUnit getResult(ParseResult<CompilationUnit> result) {
+        if (!result.isSuccessful()) {
+            throw new ParseProblemException(result.getProblems());
+        }
+
+        return result.getResult().get();
+    }
+
     public static byte[] compileModuleInfo(ModuleDeclaration module, String mainClass, String version) {
+        return compileModuleInfo(module, mainClass, version, Collections.emptySet());
+    }
+
+    /**
+     * Compiles the given descriptor.
+     *
+     * @param packages all packages of the module; if given, they are written into the {@code ModulePackages}
+     *        attribute, so the JVM doesn't need to scan the module's contents to determine its packages
+     */
+    public static byte[] compileModuleInfo(ModuleDeclaration module, String mainClass, String version, Set<String> packages) {
+        return compileModuleInfo(module, mainClass, version, packages, null);
+    }
+
+    /**
+     * Compiles the given descriptor.
+     *
+     * @param packages all packages of the module; if given, they are written into the {@code ModulePackages}
+     *        attribute, so the JVM doesn't need to scan the module's contents to determine its packages
+     * @param attributes the {@code ModuleTarget}, {@code ModuleResolution} and {@code ModuleHashes} attributes to
+     *        emit; may be {@code null}
+     */
+    public static byte[] compileModuleInfo(ModuleDeclaration module, String mainClass, String version, Set<String> packages,
+                                           ModuleAttributes attributes) {
         ClassWriter classWriter = new ClassWriter(0);
         classWriter.visit(V9, ACC_MODULE, "module-info", null, null, null);
 
@@ -114,14 +158,97 @@ public class ModuleInfoCompiler {
                             .toArray(String[]::new));
         }
 
+        for (String pn : new TreeSet<>(packages)) {
+            mv.visitPackage(getNameForBinary(pn, Kind.PACKAGE));
+        }
+
         mv.visitRequire("java.base", ACC_MANDATED, null);
         mv.visitEnd();
 
+        if (attributes != null) {
+            if (attributes.getTargetPlatform() != null) {
+                classWriter.visitAttribute(new ModuleTargetAttribute(attributes.getTargetPlatform()));
+            }
+            if (attributes.isDoNotResolveByDefault()) {
+                classWriter.visitAttribute(new ModuleResolutionAttribute(DO_NOT_RESOLVE_BY_DEFAULT));
+            }
+            if (!attributes.getHashes().isEmpty()) {
+                classWriter.visitAttribute(new ModuleHashesAttribute(ModuleAttributes.HASH_ALGORITHM, attributes.getHashes()));
+            }
+        }
+
         classWriter.visitEnd();
 
         return classWriter.toByteArray();
     }
 
+    /**
+     * The {@code ModuleTarget} attribute: {@code u2 target_platform_index}, referencing a {@code CONSTANT_Utf8}.
+     */
+    private static class ModuleTargetAttribute extends Attribute {
+
+        private final String targetPlatform;
+
+        ModuleTargetAttribute(String targetPlatform) {
+            super("ModuleTarget");
+            this.targetPlatform = targetPlatform;
+        }
+
+        @Override
+        protected ByteVector write(ClassWriter classWriter, byte[] code, int codeLength, int maxStack, int maxLocals) {
+            return new ByteVector().putShort(classWriter.newUTF8(targetPlatform));
+        }
+    }
+
+    /**
+     * The {@code ModuleResolution} attribute: {@code u2 resolution_flags}.
+     */
+    private static class ModuleResolutionAttribute extends Attribute {
+
+        private final int flags;
+
+        ModuleResolutionAttribute(int flags) {
+            super("ModuleResolution");
+            this.flags = flags;
+        }
+
+        @Override
+        protected ByteVector write(ClassWriter classWriter, byte[] code, int codeLength, int maxStack, int maxLocals) {
+            return new ByteVector().putShort(flags);
+        }
+    }
+
+    /**
+     * The {@code ModuleHashes} attribute: {@code u2 algorithm_index}, {@code u2 hashes_count} and for each hash
+     * {@code u2 module_name_index} (a {@code CONSTANT_Module}), {@code u2 hash_length} and the hash itself.
+     */
+    private static class ModuleHashesAttribute extends Attribute {
+
+        private final String algorithm;
+        private final Map<String, byte[]> hashes;
+
+        ModuleHashesAttribute(String algorithm, Map<String, byte[]> hashes) {
+            super("ModuleHashes");
+            this.algorithm = algorithm;
+            this.hashes = hashes;
+        }
+
+        @Override
+        protected ByteVector write(ClassWriter classWriter, byte[] code, int codeLength, int maxStack, int maxLocals) {
+            ByteVector attribute = new ByteVector()
+                    .putShort(classWriter.newUTF8(algorithm))
+                    .putShort(hashes.size());
+
+            for (Map.Entry<String, byte[]> hash : hashes.entrySet()) {
+                attribute.putShort(classWriter.newModule(hash.getKey()))
+                        .putShort(hash.getValue().length)
+                        .putByteArray(hash.getValue(), 0, hash.getValue().length);
+            }
+
+            return attribute;
+        }
+    }
+
     private static String getNameForBinary(Name name, Kind kind) {
         return getNameForBinary(name.asString(), kind);
     }
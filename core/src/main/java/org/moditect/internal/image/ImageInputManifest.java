@@ -0,0 +1,182 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.image;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The inputs a runtime image has been created from, stored within the image. If the inputs of a subsequent build
+ * are the same, the image is up to date and doesn't need to be created again.
+ * <p>
+ * Files are compared by their content. Their hashes are stored together with size and time stamp of each file, so
+ * only files changed since the image was created need to be read when comparing the inputs.
+ */
+public class ImageInputManifest {
+
+    public static final String FILE_NAME = ".moditect-image-inputs";
+
+    private static final String OPTION_PREFIX = "option.";
+    private static final String FILE_PREFIX = "file.";
+    private static final String STATE_PREFIX = "state.";
+
+    private final Path manifest;
+    private final Properties previous;
+    private final Map<String, String> inputs = new TreeMap<>();
+    private final Map<String, String> states = new TreeMap<>();
+
+    /**
+     * @param imageDirectory the directory of the image, from which the inputs of its previous creation are read
+     */
+    public ImageInputManifest(Path imageDirectory) {
+        this.manifest = imageDirectory.resolve(FILE_NAME);
+        this.previous = new Properties();
+
+        if (Files.isRegularFile(manifest)) {
+            try (Reader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+                previous.load(reader);
+            }
+            catch (IOException | IllegalArgumentException e) {
+                // an unreadable manifest just means the image is re-created
+                previous.clear();
+            }
+        }
+    }
+
+    /**
+     * Adds an option the image is created with.
+     */
+    public ImageInputManifest add(String name, Object value) {
+        inputs.put(OPTION_PREFIX + name, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Adds the given file or, if it is a directory, all the files contained in it.
+     */
+    public ImageInputManifest addFiles(Path file) {
+        Path absolutePath = file.toAbsolutePath();
+
+        if (Files.isDirectory(absolutePath)) {
+            List<Path> files;
+
+            try (Stream<Path> contents = Files.walk(absolutePath)) {
+                files = contents.filter(Files::isRegularFile)
+                        .sorted()
+                        .collect(Collectors.toCollection(ArrayList::new));
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Couldn't list files in " + file, e);
+            }
+
+            inputs.put(FILE_PREFIX + absolutePath, "directory");
+            for (Path child : files) {
+                addFile(child);
+            }
+        }
+        else if (Files.exists(absolutePath)) {
+            addFile(absolutePath);
+        }
+        else {
+            inputs.put(FILE_PREFIX + absolutePath, "missing");
+        }
+
+        return this;
+    }
+
+    private void addFile(Path file) {
+        String key = file.toString();
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            String state = attributes.size() + " " + attributes.lastModifiedTime().toMillis();
+            String previousHash = previous.getProperty(FILE_PREFIX + key);
+
+            // the file is unchanged since the image was created, so its content needn't be read again
+            String hash = previousHash != null && state.equals(previous.getProperty(STATE_PREFIX + key)) ? previousHash : hash(file);
+
+            inputs.put(FILE_PREFIX + key, hash);
+            states.put(STATE_PREFIX + key, state);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't compute hash of " + file, e);
+        }
+    }
+
+    /**
+     * Whether the inputs are the same as those the existing image has been created from.
+     */
+    public boolean isUpToDate() {
+        Map<String, String> previousInputs = new TreeMap<>();
+
+        for (String name : previous.stringPropertyNames()) {
+            if (!name.startsWith(STATE_PREFIX)) {
+                previousInputs.put(name, previous.getProperty(name));
+            }
+        }
+
+        return !previousInputs.isEmpty() && previousInputs.equals(inputs);
+    }
+
+    /**
+     * Stores the inputs within the image, once it has been created.
+     */
+    public void write() {
+        Properties properties = new Properties();
+        properties.putAll(inputs);
+        properties.putAll(states);
+
+        try (Writer writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            properties.store(writer, "Inputs of the runtime image");
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't write " + manifest, e);
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream is = Files.newInputStream(file)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+}
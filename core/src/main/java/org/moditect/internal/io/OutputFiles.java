@@ -0,0 +1,193 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.io;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.moditect.spi.log.Log;
+
+/**
+ * Writes results in a way that is safe when several builds, or several projects of a parallel build
+ * ({@code mvn -T}), use the same output location: results are written to a temporary file or directory next to
+ * their target and then moved into place atomically, so a partially written result is never visible. Replacing a
+ * directory and checking for existing results is coordinated via a lock file within the parent directory.
+ * Intermediate files are written to scratch directories used by a single command run only.
+ */
+public final class OutputFiles {
+
+    /**
+     * The name of the lock file within directories whose contents are replaced. It is hidden, so it is ignored
+     * when the directory is used as module path.
+     */
+    public static final String LOCK_FILE_NAME = ".moditect.lock";
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    // file locks are held on behalf of the whole JVM, so threads are coordinated separately
+    private static final Map<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private OutputFiles() {
+    }
+
+    /**
+     * An action run while holding the lock of a directory.
+     */
+    @FunctionalInterface
+    public interface LockedAction<T> {
+
+        T run() throws IOException;
+    }
+
+    /**
+     * Runs the given action while holding the lock of the given directory, excluding other threads and processes
+     * using this class. Locks must not be nested.
+     */
+    public static <T> T withLock(Path directory, LockedAction<T> action) throws IOException {
+        Path dir = directory.toAbsolutePath().normalize();
+        ReentrantLock lock = LOCKS.computeIfAbsent(dir, d -> new ReentrantLock());
+
+        lock.lock();
+        try (FileChannel channel = FileChannel.open(dir.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock fileLock = channel.lock()) {
+            return action.run();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a path for a temporary file next to the given target, e.g. to be passed to
+     * {@link #publish(Path, Path)} once written. The file doesn't exist yet.
+     */
+    public static Path getTempFile(Path target) {
+        return target.resolveSibling("." + target.getFileName() + "-" + UUID.randomUUID() + TEMP_FILE_SUFFIX);
+    }
+
+    /**
+     * Moves the given temporary file to the given target atomically, replacing an existing file.
+     */
+    public static void publish(Path tempFile, Path target) throws IOException {
+        try {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Copies the given file to the given target atomically, replacing an existing file.
+     */
+    public static void copy(Path source, Path target) throws IOException {
+        Path tempFile = getTempFile(target);
+
+        try {
+            Files.copy(source, tempFile);
+            publish(tempFile, target);
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Replaces the given directory with one containing just the given file. The new directory is written next
+     * to the existing one and swapped in under the lock of the parent directory.
+     *
+     * @return the written file
+     */
+    public static Path replaceDirectory(Path parent, String directoryName, String fileName, byte[] content) throws IOException {
+        Path dir = parent.resolve(directoryName);
+        Path staged = Files.createTempDirectory(parent, "." + directoryName + "-");
+        Path replaced = getTempFile(dir);
+
+        try {
+            Files.write(staged.resolve(fileName), content);
+
+            withLock(parent, () -> {
+                if (Files.exists(dir)) {
+                    Files.move(dir, replaced, StandardCopyOption.ATOMIC_MOVE);
+                }
+                return Files.move(staged, dir, StandardCopyOption.ATOMIC_MOVE);
+            });
+        }
+        finally {
+            deleteRecursively(staged);
+            deleteRecursively(replaced);
+        }
+
+        return dir.resolve(fileName);
+    }
+
+    /**
+     * Creates a new directory for the intermediate files of a single command run.
+     */
+    public static Path createScratchDirectory(Path workingDirectory, String prefix) {
+        try {
+            return Files.createTempDirectory(workingDirectory, prefix);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't create directory in " + workingDirectory, e);
+        }
+    }
+
+    /**
+     * Deletes the given scratch directory. Failures are logged only, as they don't affect any results.
+     */
+    public static void deleteScratchDirectory(Path directory, Log log) {
+        try {
+            deleteRecursively(directory);
+        }
+        catch (IOException e) {
+            log.debug("Couldn't delete directory " + directory + ": " + e);
+        }
+    }
+
+    /**
+     * Deletes the given file or directory including its contents, if it exists.
+     */
+    public static void deleteRecursively(Path path) throws IOException {
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    if (exc != null) {
+                        throw exc;
+                    }
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (NoSuchFileException e) {
+            // doesn't exist (any longer)
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import static org.moditect.internal.zip.ZipFormat.CENTRAL_HEADER_SIGNATURE;
+import static org.moditect.internal.zip.ZipFormat.CENTRAL_HEADER_SIZE;
+import static org.moditect.internal.zip.ZipFormat.END_SIGNATURE;
+import static org.moditect.internal.zip.ZipFormat.END_SIZE;
+import static org.moditect.internal.zip.ZipFormat.LOCAL_HEADER_SIGNATURE;
+import static org.moditect.internal.zip.ZipFormat.LOCAL_HEADER_SIZE;
+import static org.moditect.internal.zip.ZipFormat.MAX_COMMENT_SIZE;
+import static org.moditect.internal.zip.ZipFormat.METHOD_DEFLATED;
+import static org.moditect.internal.zip.ZipFormat.METHOD_STORED;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_END_SIGNATURE;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_END_SIZE;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_EXTRA_ID;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_LOCATOR_SIGNATURE;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_LOCATOR_SIZE;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_MAGIC;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_MAGIC_COUNT;
+
+/**
+ * Provides access to the central directory of a ZIP file, without inflating any of its entries. Only the
+ * central directory itself is read into memory, entry data is accessed via the underlying channel on demand.
+ */
+public final class ZipArchive implements Closeable {
+
+    private final FileChannel channel;
+    private final List<ZipEntryRecord> entries;
+    private final long centralDirectoryOffset;
+    private final long prefixLength;
+
+    private ZipArchive(FileChannel channel, List<ZipEntryRecord> entries, long centralDirectoryOffset, long prefixLength) {
+        this.channel = channel;
+        this.entries = Collections.unmodifiableList(entries);
+        this.centralDirectoryOffset = centralDirectoryOffset;
+        this.prefixLength = prefixLength;
+    }
+
+    public static ZipArchive open(Path zipFile) throws IOException {
+        return open(FileChannel.open(zipFile, StandardOpenOption.READ));
+    }
+
+    /**
+     * Opens the given ZIP file for reading and writing, allowing to append entries via
+     * {@link ZipWriter#appendTo(ZipArchive, long)}.
+     */
+    public static ZipArchive openForUpdate(Path zipFile) throws IOException {
+        return open(FileChannel.open(zipFile, StandardOpenOption.READ, StandardOpenOption.WRITE));
+    }
+
+    private static ZipArchive open(FileChannel channel) throws IOException {
+        try {
+            return readCentralDirectory(channel);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static ZipArchive readCentralDirectory(FileChannel channel) throws IOException {
+        long endPosition = findEndOfCentralDirectory(channel);
+        ByteBuffer end = read(channel, endPosition, END_SIZE);
+
+        long entryCount = end.getShort(10) & 0xFFFF;
+        long centralDirectorySize = end.getInt(12) & ZIP64_MAGIC;
+        long centralDirectoryOffset = end.getInt(16) & ZIP64_MAGIC;
+        long centralDirectoryEnd = endPosition;
+
+        if (entryCount == ZIP64_MAGIC_COUNT || centralDirectorySize == ZIP64_MAGIC || centralDirectoryOffset == ZIP64_MAGIC) {
+            ByteBuffer locator = endPosition >= ZIP64_LOCATOR_SIZE ? read(channel, endPosition - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE) : null;
+
+            if (locator != null && locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                long zip64EndPosition = locator.getLong(8);
+                ByteBuffer zip64End = read(channel, zip64EndPosition, ZIP64_END_SIZE);
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new ZipException("Invalid ZIP64 end of central directory record");
+                }
+
+                entryCount = zip64End.getLong(32);
+                centralDirectorySize = zip64End.getLong(40);
+                centralDirectoryOffset = zip64End.getLong(48);
+                centralDirectoryEnd = zip64EndPosition;
+            }
+        }
+
+        // data may have been prepended to the archive (e.g. a launcher script), all offsets are relative to its start
+        long prefixLength = centralDirectoryEnd - centralDirectorySize - centralDirectoryOffset;
+        if (prefixLength < 0 || centralDirectorySize > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid central directory");
+        }
+
+        ByteBuffer centralDirectory = read(channel, centralDirectoryOffset + prefixLength, (int) centralDirectorySize);
+        List<ZipEntryRecord> entries = new ArrayList<>((int) Math.min(entryCount, ZIP64_MAGIC_COUNT));
+
+        for (long i = 0; i < entryCount; i++) {
+            entries.add(readCentralHeader(centralDirectory, prefixLength));
+        }
+
+        return new ZipArchive(channel, entries, centralDirectoryOffset + prefixLength, prefixLength);
+    }
+
+    private static long findEndOfCentralDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < END_SIZE) {
+            throw new ZipException("Not a ZIP file");
+        }
+
+        int searchLength = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(channel, fileSize - searchLength, searchLength);
+
+        for (int i = searchLength - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE && (tail.getShort(i + 20) & 0xFFFF) == searchLength - END_SIZE - i) {
+                return fileSize - searchLength + i;
+            }
+        }
+
+        throw new ZipException("End of central directory record not found");
+    }
+
+    private static ZipEntryRecord readCentralHeader(ByteBuffer buffer, long prefixLength) throws ZipException {
+        int position = buffer.position();
+        if (buffer.remaining() < CENTRAL_HEADER_SIZE || buffer.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid central directory header at " + position);
+        }
+
+        int versionMadeBy = buffer.getShort(position + 4) & 0xFFFF;
+        int versionNeeded = buffer.getShort(position + 6) & 0xFFFF;
+        int flags = buffer.getShort(position + 8) & 0xFFFF;
+        int method = buffer.getShort(position + 10) & 0xFFFF;
+        int dosTime = buffer.getInt(position + 12);
+        long crc = buffer.getInt(position + 16) & ZIP64_MAGIC;
+        long compressedSize = buffer.getInt(position + 20) & ZIP64_MAGIC;
+        long size = buffer.getInt(position + 24) & ZIP64_MAGIC;
+        int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+        int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+        int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+        int internalAttributes = buffer.getShort(position + 36) & 0xFFFF;
+        long externalAttributes = buffer.getInt(position + 38) & ZIP64_MAGIC;
+        long localHeaderOffset = buffer.getInt(position + 42) & ZIP64_MAGIC;
+
+        buffer.position(position + CENTRAL_HEADER_SIZE);
+        byte[] name = get(buffer, nameLength);
+        byte[] extra = get(buffer, extraLength);
+        byte[] comment = get(buffer, commentLength);
+
+        // resolve the actual values of any fields stored in the ZIP64 extra field, removing it from the remaining
+        // extra data; it will be re-created by ZipWriter if still required
+        ByteArrayOutputStream otherExtra = new ByteArrayOutputStream();
+        ByteBuffer extraBuffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (extraBuffer.remaining() >= 4) {
+            int id = extraBuffer.getShort() & 0xFFFF;
+            int length = Math.min(extraBuffer.getShort() & 0xFFFF, extraBuffer.remaining());
+            int dataStart = extraBuffer.position();
+
+            if (id == ZIP64_EXTRA_ID) {
+                if (size == ZIP64_MAGIC && extraBuffer.position() + 8 <= dataStart + length) {
+                    size = extraBuffer.getLong();
+                }
+                if (compressedSize == ZIP64_MAGIC && extraBuffer.position() + 8 <= dataStart + length) {
+                    compressedSize = extraBuffer.getLong();
+                }
+                if (localHeaderOffset == ZIP64_MAGIC && extraBuffer.position() + 8 <= dataStart + length) {
+                    localHeaderOffset = extraBuffer.getLong();
+                }
+            }
+            else {
+                otherExtra.write(extra, dataStart - 4, length + 4);
+            }
+
+            extraBuffer.position(dataStart + length);
+        }
+
+        return new ZipEntryRecord(versionMadeBy, versionNeeded, flags, method, dosTime, crc, compressedSize, size, internalAttributes,
+                externalAttributes, localHeaderOffset + prefixLength, name, otherExtra.toByteArray(), comment);
+    }
+
+    public List<ZipEntryRecord> getEntries() {
+        return entries;
+    }
+
+    public ZipEntryRecord getEntry(String name) {
+        for (ZipEntryRecord entry : entries) {
+            if (entry.getName().equals(name)) {
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the offset of the central directory, which usually is the end of the data of the last entry.
+     */
+    public long getCentralDirectoryOffset() {
+        return centralDirectoryOffset;
+    }
+
+    /**
+     * Returns the length of any data preceding the first entry of the archive, e.g. a launcher script.
+     */
+    public long getPrefixLength() {
+        return prefixLength;
+    }
+
+    /**
+     * Returns the offset of the given entry's compressed data.
+     */
+    public long getDataOffset(ZipEntryRecord entry) throws IOException {
+        ByteBuffer localHeader = read(channel, entry.getLocalHeaderOffset(), LOCAL_HEADER_SIZE);
+        if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for entry " + entry.getName());
+        }
+
+        int nameLength = localHeader.getShort(26) & 0xFFFF;
+        int extraLength = localHeader.getShort(28) & 0xFFFF;
+
+        return entry.getLocalHeaderOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * Returns the uncompressed contents of the given entry.
+     */
+    public byte[] getContent(ZipEntryRecord entry) throws IOException {
+        if (entry.getCompressedSize() > Integer.MAX_VALUE || entry.getSize() > Integer.MAX_VALUE) {
+            throw new ZipException("Entry too large: " + entry.getName());
+        }
+
+        ByteBuffer data = read(channel, getDataOffset(entry), (int) entry.getCompressedSize());
+
+        if (entry.getMethod() == METHOD_STORED) {
+            return data.array();
+        }
+        else if (entry.getMethod() == METHOD_DEFLATED) {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data.array());
+                byte[] content = new byte[(int) entry.getSize()];
+                int read = 0;
+                while (read < content.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(content, read, content.length - read);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    read += inflated;
+                }
+                if (read != content.length) {
+                    throw new ZipException("Unexpected size of entry " + entry.getName());
+                }
+                return content;
+            }
+            catch (DataFormatException e) {
+                throw new ZipException("Invalid compressed data of entry " + entry.getName() + ": " + e.getMessage());
+            }
+            finally {
+                inflater.end();
+            }
+        }
+        else {
+            throw new ZipException("Unsupported compression method " + entry.getMethod() + " of entry " + entry.getName());
+        }
+    }
+
+    FileChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static byte[] get(ByteBuffer buffer, int length) throws ZipException {
+        if (buffer.remaining() < length) {
+            throw new ZipException("Truncated central directory");
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of ZIP file");
+            }
+        }
+
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.zip;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An entry of a ZIP file's central directory. Besides the entry's meta-data it holds the offset of its local
+ * header, which allows to copy the compressed data of the entry without inflating it.
+ */
+public final class ZipEntryRecord {
+
+    private static final byte[] NONE = new byte[0];
+
+    private final int versionMadeBy;
+    private final int versionNeeded;
+    private final int flags;
+    private final int method;
+    private final int dosTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final int internalAttributes;
+    private final long externalAttributes;
+    private final long localHeaderOffset;
+    private final byte[] name;
+    private final byte[] extra;
+    private final byte[] comment;
+    private final String nameAsString;
+
+    ZipEntryRecord(int versionMadeBy, int versionNeeded, int flags, int method, int dosTime, long crc, long compressedSize, long size,
+                   int internalAttributes, long externalAttributes, long localHeaderOffset, byte[] name, byte[] extra, byte[] comment) {
+        this.versionMadeBy = versionMadeBy;
+        this.versionNeeded = versionNeeded;
+        this.flags = flags;
+        this.method = method;
+        this.dosTime = dosTime;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.internalAttributes = internalAttributes;
+        this.externalAttributes = externalAttributes;
+        this.localHeaderOffset = localHeaderOffset;
+        this.name = name;
+        this.extra = extra != null ? extra : NONE;
+        this.comment = comment != null ? comment : NONE;
+        this.nameAsString = new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a copy of this record, located at the given offset and with the given time stamp. Extra fields
+     * are dropped, the data descriptor flag is cleared as CRC and sizes always go to the local header.
+     */
+    ZipEntryRecord relocate(long localHeaderOffset, int dosTime) {
+        return new ZipEntryRecord(versionMadeBy, versionNeeded, flags & ~ZipFormat.FLAG_DATA_DESCRIPTOR, method, dosTime, crc,
+                compressedSize, size, internalAttributes, externalAttributes, localHeaderOffset, name, NONE, comment);
+    }
+
+    public String getName() {
+        return nameAsString;
+    }
+
+    public boolean isDirectory() {
+        return nameAsString.endsWith("/");
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public long getCrc() {
+        return crc;
+    }
+
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLocalHeaderOffset() {
+        return localHeaderOffset;
+    }
+
+    int getVersionMadeBy() {
+        return versionMadeBy;
+    }
+
+    int getVersionNeeded() {
+        return versionNeeded;
+    }
+
+    int getFlags() {
+        return flags;
+    }
+
+    int getDosTime() {
+        return dosTime;
+    }
+
+    int getInternalAttributes() {
+        return internalAttributes;
+    }
+
+    long getExternalAttributes() {
+        return externalAttributes;
+    }
+
+    byte[] getRawName() {
+        return name;
+    }
+
+    byte[] getExtra() {
+        return extra;
+    }
+
+    byte[] getComment() {
+        return comment;
+    }
+
+    @Override
+    public String toString() {
+        return "ZipEntryRecord [name=" + nameAsString + ", method=" + method + ", compressedSize=" + compressedSize + ", size=" + size
+                + ", localHeaderOffset=" + localHeaderOffset + "]";
+    }
+}
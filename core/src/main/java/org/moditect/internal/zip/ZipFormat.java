@@ -0,0 +1,70 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.zip;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Constants and helpers for the ZIP file format as described in PKWARE's APPNOTE.TXT.
+ */
+final class ZipFormat {
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    static final int END_SIGNATURE = 0x06054b50;
+    static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_SIZE = 22;
+    static final int ZIP64_END_SIZE = 56;
+    static final int ZIP64_LOCATOR_SIZE = 20;
+    static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    static final int FLAG_UTF8 = 0x800;
+
+    static final int METHOD_STORED = 0;
+    static final int METHOD_DEFLATED = 8;
+
+    static final int VERSION_STORED = 10;
+    static final int VERSION_DEFLATED = 20;
+    static final int VERSION_ZIP64 = 45;
+
+    private static final int DOS_TIME_BEFORE_1980 = (1 << 21) | (1 << 16);
+
+    private ZipFormat() {
+    }
+
+    /**
+     * Converts the given Java time into the MS-DOS date/time format used by ZIP headers, in the same way as
+     * {@link java.util.zip.ZipEntry#setTime(long)} does it.
+     */
+    static int toDosTime(long time) {
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        int year = dateTime.getYear() - 1980;
+
+        if (year < 0) {
+            return DOS_TIME_BEFORE_1980;
+        }
+
+        return year << 25 |
+                dateTime.getMonthValue() << 21 |
+                dateTime.getDayOfMonth() << 16 |
+                dateTime.getHour() << 11 |
+                dateTime.getMinute() << 5 |
+                dateTime.getSecond() >> 1;
+    }
+}
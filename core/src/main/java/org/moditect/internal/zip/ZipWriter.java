@@ -0,0 +1,345 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.zip;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import static org.moditect.internal.zip.ZipFormat.CENTRAL_HEADER_SIGNATURE;
+import static org.moditect.internal.zip.ZipFormat.CENTRAL_HEADER_SIZE;
+import static org.moditect.internal.zip.ZipFormat.END_SIGNATURE;
+import static org.moditect.internal.zip.ZipFormat.END_SIZE;
+import static org.moditect.internal.zip.ZipFormat.FLAG_UTF8;
+import static org.moditect.internal.zip.ZipFormat.LOCAL_HEADER_SIGNATURE;
+import static org.moditect.internal.zip.ZipFormat.LOCAL_HEADER_SIZE;
+import static org.moditect.internal.zip.ZipFormat.METHOD_DEFLATED;
+import static org.moditect.internal.zip.ZipFormat.METHOD_STORED;
+import static org.moditect.internal.zip.ZipFormat.VERSION_DEFLATED;
+import static org.moditect.internal.zip.ZipFormat.VERSION_STORED;
+import static org.moditect.internal.zip.ZipFormat.VERSION_ZIP64;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_END_SIGNATURE;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_END_SIZE;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_EXTRA_ID;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_LOCATOR_SIGNATURE;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_LOCATOR_SIZE;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_MAGIC;
+import static org.moditect.internal.zip.ZipFormat.ZIP64_MAGIC_COUNT;
+
+/**
+ * Writes a ZIP file to a channel. Entries of an existing {@link ZipArchive} are copied as is, i.e. their
+ * compressed data including CRC and sizes is transferred byte-for-byte instead of being inflated and
+ * re-compressed. Only newly added entries are compressed. The central directory is written by
+ * {@link #finish()}.
+ */
+public final class ZipWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final List<ZipEntryRecord> entries = new ArrayList<>();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final long startPosition;
+    private final byte[] originalContent;
+    private long position;
+
+    /**
+     * Creates a new writer, writing to the given channel, starting at the given position.
+     */
+    public ZipWriter(FileChannel channel, long position) throws IOException {
+        this(channel, position, null);
+    }
+
+    private ZipWriter(FileChannel channel, long position, byte[] originalContent) throws IOException {
+        this.channel = channel;
+        this.startPosition = position;
+        this.originalContent = originalContent;
+        this.position = position;
+
+        channel.position(position);
+    }
+
+    /**
+     * Creates a new writer for appending entries to the given archive, which must have been opened via
+     * {@link ZipArchive#openForUpdate(java.nio.file.Path)}. New entries are written from the given position on,
+     * e.g. in place of the existing central directory; entries to be retained must be located before it and be
+     * registered via {@link #keepEntry(ZipEntryRecord)}. The original content from the given position on is
+     * kept in memory, so it can be restored via {@link #restore()} if writing fails.
+     */
+    public static ZipWriter appendTo(ZipArchive archive, long position) throws IOException {
+        long length = archive.channel().size() - position;
+        if (position < 0 || length < 0 || length > Integer.MAX_VALUE) {
+            throw new ZipException("Invalid position for appending entries: " + position);
+        }
+
+        return new ZipWriter(archive.channel(), position, ZipArchive.read(archive.channel(), position, (int) length).array());
+    }
+
+    /**
+     * Copies the given entry from the given archive without inflating it, setting the given time stamp.
+     */
+    public void copyEntry(ZipArchive source, ZipEntryRecord entry, long time) throws IOException {
+        long dataOffset = source.getDataOffset(entry);
+        ZipEntryRecord copied = entry.relocate(position, ZipFormat.toDosTime(time));
+
+        writeLocalHeader(copied);
+        transfer(source.channel(), dataOffset, entry.getCompressedSize());
+
+        entries.add(copied);
+    }
+
+    /**
+     * Adds the given entry to the central directory, assuming it already is located at its recorded offset
+     * within the file written to.
+     */
+    public void keepEntry(ZipEntryRecord entry) {
+        entries.add(entry);
+    }
+
+    /**
+     * Adds a new entry with the given contents, compressing it.
+     */
+    public void addEntry(String name, byte[] content, long time) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length);
+
+        byte[] compressed = deflate(content);
+
+        ZipEntryRecord entry = new ZipEntryRecord(VERSION_DEFLATED, VERSION_DEFLATED, FLAG_UTF8, METHOD_DEFLATED,
+                ZipFormat.toDosTime(time), crc.getValue(), compressed.length, content.length, 0, 0, position,
+                name.getBytes(StandardCharsets.UTF_8), null, null);
+
+        writeLocalHeader(entry);
+        write(ByteBuffer.wrap(compressed));
+
+        entries.add(entry);
+    }
+
+    /**
+     * Adds a new directory entry.
+     */
+    public void addDirectory(String name, long time) throws IOException {
+        ZipEntryRecord entry = new ZipEntryRecord(VERSION_STORED, VERSION_STORED, FLAG_UTF8, METHOD_STORED,
+                ZipFormat.toDosTime(time), 0, 0, 0, 0, 0, position, name.getBytes(StandardCharsets.UTF_8), null, null);
+
+        writeLocalHeader(entry);
+
+        entries.add(entry);
+    }
+
+    /**
+     * Writes the central directory and truncates the file after its end.
+     */
+    public void finish() throws IOException {
+        long centralDirectoryOffset = position;
+
+        // the central directory is assembled in memory, so that it can be written in one go
+        ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream(entries.size() * (CENTRAL_HEADER_SIZE + 64));
+        for (ZipEntryRecord entry : entries) {
+            centralDirectory.write(getCentralHeader(entry));
+        }
+        write(ByteBuffer.wrap(centralDirectory.toByteArray()));
+
+        long centralDirectorySize = position - centralDirectoryOffset;
+
+        if (entries.size() >= ZIP64_MAGIC_COUNT || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC) {
+            writeZip64End(centralDirectoryOffset, centralDirectorySize);
+        }
+
+        ByteBuffer end = allocate(END_SIZE);
+        end.putInt(END_SIGNATURE);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+        end.putShort((short) Math.min(entries.size(), ZIP64_MAGIC_COUNT));
+        end.putInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC));
+        end.putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+        end.putShort((short) 0);
+        end.flip();
+        write(end);
+
+        channel.truncate(position);
+    }
+
+    /**
+     * Restores the original content of the archive this writer appends to, i.e. the file is truncated to the
+     * position writing started at and the content previously located there, including the original central
+     * directory, is written back.
+     */
+    public void restore() throws IOException {
+        if (originalContent == null) {
+            throw new IllegalStateException("Only archives appended to can be restored");
+        }
+
+        channel.truncate(startPosition);
+
+        ByteBuffer content = ByteBuffer.wrap(originalContent);
+        long restored = startPosition;
+        while (content.hasRemaining()) {
+            restored += channel.write(content, restored);
+        }
+
+        channel.force(false);
+        position = restored;
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    private void writeLocalHeader(ZipEntryRecord entry) throws IOException {
+        boolean zip64 = entry.getSize() >= ZIP64_MAGIC || entry.getCompressedSize() >= ZIP64_MAGIC;
+        byte[] name = entry.getRawName();
+
+        ByteBuffer header = allocate(LOCAL_HEADER_SIZE + name.length + (zip64 ? 20 : 0));
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort((short) (zip64 ? Math.max(entry.getVersionNeeded(), VERSION_ZIP64) : entry.getVersionNeeded()));
+        header.putShort((short) entry.getFlags());
+        header.putShort((short) entry.getMethod());
+        header.putInt(entry.getDosTime());
+        header.putInt((int) entry.getCrc());
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.getCompressedSize()));
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.getSize()));
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(name);
+
+        if (zip64) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) 16);
+            header.putLong(entry.getSize());
+            header.putLong(entry.getCompressedSize());
+        }
+
+        header.flip();
+        write(header);
+    }
+
+    private byte[] getCentralHeader(ZipEntryRecord entry) {
+        boolean zip64Size = entry.getSize() >= ZIP64_MAGIC;
+        boolean zip64CompressedSize = entry.getCompressedSize() >= ZIP64_MAGIC;
+        boolean zip64Offset = entry.getLocalHeaderOffset() >= ZIP64_MAGIC;
+        int zip64Length = (zip64Size ? 8 : 0) + (zip64CompressedSize ? 8 : 0) + (zip64Offset ? 8 : 0);
+        int extraLength = entry.getExtra().length + (zip64Length > 0 ? zip64Length + 4 : 0);
+
+        byte[] name = entry.getRawName();
+        byte[] comment = entry.getComment();
+
+        ByteBuffer header = allocate(CENTRAL_HEADER_SIZE + name.length + extraLength + comment.length);
+        header.putInt(CENTRAL_HEADER_SIGNATURE);
+        header.putShort((short) entry.getVersionMadeBy());
+        header.putShort((short) (zip64Length > 0 ? Math.max(entry.getVersionNeeded(), VERSION_ZIP64) : entry.getVersionNeeded()));
+        header.putShort((short) entry.getFlags());
+        header.putShort((short) entry.getMethod());
+        header.putInt(entry.getDosTime());
+        header.putInt((int) entry.getCrc());
+        header.putInt((int) (zip64CompressedSize ? ZIP64_MAGIC : entry.getCompressedSize()));
+        header.putInt((int) (zip64Size ? ZIP64_MAGIC : entry.getSize()));
+        header.putShort((short) name.length);
+        header.putShort((short) extraLength);
+        header.putShort((short) comment.length);
+        header.putShort((short) 0);
+        header.putShort((short) entry.getInternalAttributes());
+        header.putInt((int) entry.getExternalAttributes());
+        header.putInt((int) (zip64Offset ? ZIP64_MAGIC : entry.getLocalHeaderOffset()));
+        header.put(name);
+
+        if (zip64Length > 0) {
+            header.putShort((short) ZIP64_EXTRA_ID);
+            header.putShort((short) zip64Length);
+            if (zip64Size) {
+                header.putLong(entry.getSize());
+            }
+            if (zip64CompressedSize) {
+                header.putLong(entry.getCompressedSize());
+            }
+            if (zip64Offset) {
+                header.putLong(entry.getLocalHeaderOffset());
+            }
+        }
+
+        header.put(entry.getExtra());
+        header.put(comment);
+
+        return header.array();
+    }
+
+    private void writeZip64End(long centralDirectoryOffset, long centralDirectorySize) throws IOException {
+        long zip64EndOffset = position;
+
+        ByteBuffer zip64End = allocate(ZIP64_END_SIZE + ZIP64_LOCATOR_SIZE);
+        zip64End.putInt(ZIP64_END_SIGNATURE);
+        zip64End.putLong(ZIP64_END_SIZE - 12);
+        zip64End.putShort((short) VERSION_ZIP64);
+        zip64End.putShort((short) VERSION_ZIP64);
+        zip64End.putInt(0);
+        zip64End.putInt(0);
+        zip64End.putLong(entries.size());
+        zip64End.putLong(entries.size());
+        zip64End.putLong(centralDirectorySize);
+        zip64End.putLong(centralDirectoryOffset);
+
+        zip64End.putInt(ZIP64_LOCATOR_SIGNATURE);
+        zip64End.putInt(0);
+        zip64End.putLong(zip64EndOffset);
+        zip64End.putInt(1);
+
+        zip64End.flip();
+        write(zip64End);
+    }
+
+    private byte[] deflate(byte[] content) {
+        deflater.reset();
+        deflater.setInput(content);
+        deflater.finish();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(content.length / 2, 64));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+
+        return compressed.toByteArray();
+    }
+
+    private void transfer(FileChannel source, long offset, long count) throws IOException {
+        long transferred = 0;
+
+        while (transferred < count) {
+            long length = source.transferTo(offset + transferred, count - transferred, channel);
+            if (length <= 0) {
+                throw new EOFException("Unexpected end of ZIP file");
+            }
+            transferred += length;
+        }
+
+        position += count;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
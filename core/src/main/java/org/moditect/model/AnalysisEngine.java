@@ -0,0 +1,25 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.model;
+
+/**
+ * The engine used for deriving the candidate descriptor of a JAR when generating a module descriptor.
+ */
+public enum AnalysisEngine {
+
+    /**
+     * Runs {@code jdeps --generate-module-info}.
+     */
+    JDEPS,
+
+    /**
+     * Analyzes the class files in-process, falling back to jdeps if a JAR or the given jdeps options cannot be
+     * handled.
+     */
+    BYTECODE;
+}
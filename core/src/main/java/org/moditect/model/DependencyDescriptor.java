@@ -7,10 +7,10 @@
  */
 package org.moditect.model;
 
-import java.lang.module.FindException;
-import java.lang.module.ModuleFinder;
 import java.nio.file.Path;
 
+import org.moditect.internal.analyzer.ModuleNameIndex;
+
 public class DependencyDescriptor {
 
     private final Path path;
@@ -36,21 +36,13 @@ public class DependencyDescriptor {
         this.assignedModuleName = assignedModuleName;
     }
 
+    /**
+     * Returns the module name of the given JAR, as derived by {@link ModuleNameIndex}.
+     *
+     * @param invalidModuleName the name to return if the JAR's automatic module name isn't valid
+     */
     public static String getAutoModuleNameFromInputJar(Path path, String invalidModuleName) {
-        try {
-            return ModuleFinder.of(path)
-                    .findAll()
-                    .iterator()
-                    .next()
-                    .descriptor()
-                    .name();
-        }
-        catch (FindException e) {
-            if (e.getCause() != null && e.getCause().getMessage().contains("Invalid module name")) {
-                return invalidModuleName;
-            }
-            throw e;
-        }
+        return ModuleNameIndex.getModuleName(path, invalidModuleName);
     }
 
     public Path getPath() {
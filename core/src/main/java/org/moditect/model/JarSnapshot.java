@@ -0,0 +1,374 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.model;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import javax.lang.model.SourceVersion;
+
+import org.moditect.internal.analyzer.ServiceLoaderUseScanner;
+import org.moditect.internal.cache.LruCache;
+import org.moditect.internal.zip.ZipArchive;
+import org.moditect.internal.zip.ZipEntryRecord;
+import org.moditect.spi.log.Log;
+
+/**
+ * The contents of a JAR relevant for modularizing it, read once from its central directory, manifest and
+ * module descriptor. Snapshots of recently used JARs are kept in memory as long as size and time stamp of the JAR
+ * remain unchanged, so the different commands and build steps working with a JAR share a single snapshot of it.
+ * <p>
+ * Packages and the module descriptor are determined for the Java version of the running JVM, i.e. entries
+ * below {@code META-INF/versions} are taken into account for multi-release JARs, as by
+ * {@link java.lang.module.ModuleFinder}.
+ */
+public final class JarSnapshot {
+
+    private static final String MODULE_INFO_CLASS = "module-info.class";
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String MANIFEST_ENTRY_NAME = "META-INF/MANIFEST.MF";
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+    /**
+     * The maximum number of snapshots kept in memory; the least recently used ones are dropped beyond that, so
+     * memory use remains bounded if the JVM runs many builds, e.g. with the Maven daemon.
+     */
+    private static final int MAX_SNAPSHOTS = 1024;
+
+    private static final LruCache<Path, JarSnapshot> SNAPSHOTS = new LruCache<>(MAX_SNAPSHOTS);
+
+    private final Path path;
+    private final long size;
+    private final FileTime lastModified;
+    private final List<String> entryNames;
+    private final Manifest manifest;
+    private final boolean moduleInfo;
+    private final SortedSet<Integer> versionedModuleInfos;
+    private final byte[] moduleDescriptor;
+    private final Set<String> packages;
+    private final Set<String> allPackages;
+    private final boolean classesInUnnamedPackage;
+    private final Map<String, List<String>> providers;
+
+    private volatile Set<String> usedServices;
+
+    private JarSnapshot(Path path, BasicFileAttributes attributes) throws IOException {
+        this.path = path;
+        this.size = attributes.size();
+        this.lastModified = attributes.lastModifiedTime();
+
+        try (ZipArchive archive = ZipArchive.open(path)) {
+            Map<String, ZipEntryRecord> entries = new HashMap<>();
+            List<String> entryNames = new ArrayList<>();
+
+            for (ZipEntryRecord entry : archive.getEntries()) {
+                entries.put(entry.getName(), entry);
+                entryNames.add(entry.getName());
+            }
+
+            this.entryNames = Collections.unmodifiableList(entryNames);
+
+            ZipEntryRecord manifestEntry = entries.get(MANIFEST_ENTRY_NAME);
+            this.manifest = manifestEntry != null ? new Manifest(new ByteArrayInputStream(archive.getContent(manifestEntry))) : null;
+
+            boolean multiRelease = manifest != null && "true".equalsIgnoreCase(manifest.getMainAttributes().getValue("Multi-Release"));
+            int runtimeVersion = Runtime.version().feature();
+
+            // the entry names as seen by the running JVM; versioned entries override the base ones
+            Map<String, String> versionedNames = new TreeMap<>();
+            Map<String, Integer> versionsByName = new HashMap<>();
+            SortedSet<Integer> versionedModuleInfos = new TreeSet<>();
+
+            for (String name : entryNames) {
+                if (!name.startsWith(VERSIONS_PREFIX)) {
+                    versionedNames.putIfAbsent(name, name);
+                    continue;
+                }
+
+                int slash = name.indexOf('/', VERSIONS_PREFIX.length());
+                Integer version = slash != -1 ? parseVersion(name.substring(VERSIONS_PREFIX.length(), slash)) : null;
+                if (version == null) {
+                    versionedNames.putIfAbsent(name, name);
+                    continue;
+                }
+
+                String baseName = name.substring(slash + 1);
+                if (baseName.equals(MODULE_INFO_CLASS)) {
+                    versionedModuleInfos.add(version);
+                }
+
+                if (multiRelease && version <= runtimeVersion && !baseName.isEmpty()) {
+                    Integer previous = versionsByName.get(baseName);
+                    if (previous == null || previous < version) {
+                        versionsByName.put(baseName, version);
+                        versionedNames.put(baseName, name);
+                    }
+                }
+            }
+
+            this.moduleInfo = entries.containsKey(MODULE_INFO_CLASS);
+            this.versionedModuleInfos = Collections.unmodifiableSortedSet(versionedModuleInfos);
+
+            String moduleInfoName = versionedNames.get(MODULE_INFO_CLASS);
+            this.moduleDescriptor = moduleInfoName != null ? archive.getContent(entries.get(moduleInfoName)) : null;
+
+            Set<String> packages = new HashSet<>();
+            boolean classesInUnnamedPackage = false;
+            Map<String, List<String>> providers = new TreeMap<>();
+
+            for (Map.Entry<String, String> name : versionedNames.entrySet()) {
+                String baseName = name.getKey();
+
+                if (baseName.endsWith("/")) {
+                    continue;
+                }
+                else if (baseName.startsWith(SERVICES_PREFIX)) {
+                    String service = baseName.substring(SERVICES_PREFIX.length());
+                    if (!service.isEmpty() && service.indexOf('/') == -1) {
+                        List<String> providerNames = getProviderNames(archive.getContent(entries.get(name.getValue())));
+                        if (!providerNames.isEmpty()) {
+                            providers.put(service, Collections.unmodifiableList(providerNames));
+                        }
+                    }
+                }
+                else if (baseName.endsWith(CLASS_SUFFIX)) {
+                    int lastSlash = baseName.lastIndexOf('/');
+                    if (lastSlash != -1) {
+                        packages.add(baseName.substring(0, lastSlash).replace('/', '.'));
+                    }
+                    else if (!baseName.equals(MODULE_INFO_CLASS)) {
+                        classesInUnnamedPackage = true;
+                    }
+                }
+            }
+
+            this.packages = Collections.unmodifiableSet(packages);
+            this.allPackages = Collections.unmodifiableSet(getAllPackages(entryNames));
+            this.classesInUnnamedPackage = classesInUnnamedPackage;
+            this.providers = Collections.unmodifiableMap(providers);
+        }
+    }
+
+    /**
+     * Returns the snapshot of the given JAR, reading it only if it hasn't been read before or has changed since.
+     */
+    public static JarSnapshot of(Path jar) {
+        Path absolutePath = jar.toAbsolutePath();
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(absolutePath, BasicFileAttributes.class);
+            JarSnapshot snapshot = SNAPSHOTS.get(absolutePath);
+
+            if (snapshot == null || snapshot.size != attributes.size() || !snapshot.lastModified.equals(attributes.lastModifiedTime())) {
+                snapshot = new JarSnapshot(absolutePath, attributes);
+                SNAPSHOTS.put(absolutePath, snapshot);
+            }
+
+            return snapshot;
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Couldn't read JAR file " + jar, e);
+        }
+    }
+
+    private static Integer parseVersion(String version) {
+        try {
+            int parsed = Integer.parseInt(version);
+            return parsed >= 9 ? parsed : null;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the packages containing any entries, of all versions of a multi-release JAR. Directories whose
+     * names aren't valid package names, such as {@code META-INF}, are not considered.
+     */
+    private static Set<String> getAllPackages(List<String> entryNames) {
+        Set<String> packages = new HashSet<>();
+
+        for (String name : entryNames) {
+            if (name.endsWith("/")) {
+                continue;
+            }
+
+            if (name.startsWith(VERSIONS_PREFIX)) {
+                int slash = name.indexOf('/', VERSIONS_PREFIX.length());
+                if (slash != -1 && parseVersion(name.substring(VERSIONS_PREFIX.length(), slash)) != null) {
+                    name = name.substring(slash + 1);
+                }
+            }
+
+            int lastSlash = name.lastIndexOf('/');
+            if (lastSlash != -1) {
+                String packageName = name.substring(0, lastSlash).replace('/', '.');
+                if (SourceVersion.isName(packageName)) {
+                    packages.add(packageName);
+                }
+            }
+        }
+
+        return packages;
+    }
+
+    /**
+     * Parses a service configuration file; comments starting with "#" and empty lines are ignored.
+     */
+    private static List<String> getProviderNames(byte[] configuration) throws IOException {
+        List<String> providerNames = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(configuration), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                if (comment != -1) {
+                    line = line.substring(0, comment);
+                }
+
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    providerNames.add(line);
+                }
+            }
+        }
+
+        return providerNames;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the names of all entries, in the order of the central directory.
+     */
+    public List<String> getEntryNames() {
+        return entryNames;
+    }
+
+    /**
+     * Returns a copy of the JAR's manifest, or an empty manifest if there is none.
+     */
+    public Manifest getManifest() {
+        return manifest != null ? new Manifest(manifest) : new Manifest();
+    }
+
+    /**
+     * Returns the value of the given main attribute of the manifest, or {@code null} if it isn't present.
+     */
+    public String getMainAttribute(String name) {
+        return manifest != null ? manifest.getMainAttributes().getValue(name) : null;
+    }
+
+    public String getMainAttribute(Attributes.Name name) {
+        return getMainAttribute(name.toString());
+    }
+
+    /**
+     * Whether the JAR contains a module descriptor, either at its root or for a specific Java version.
+     */
+    public boolean isModular() {
+        return moduleInfo || !versionedModuleInfos.isEmpty();
+    }
+
+    /**
+     * Whether the JAR contains a module descriptor at its root.
+     */
+    public boolean hasModuleInfo() {
+        return moduleInfo;
+    }
+
+    /**
+     * Returns the Java versions for which a module descriptor exists below {@code META-INF/versions}.
+     */
+    public SortedSet<Integer> getVersionedModuleInfos() {
+        return versionedModuleInfos;
+    }
+
+    /**
+     * Returns the compiled module descriptor applying to the running JVM, or {@code null} if there is none.
+     */
+    public byte[] getModuleDescriptor() {
+        return moduleDescriptor != null ? moduleDescriptor.clone() : null;
+    }
+
+    /**
+     * Returns the names of all packages containing classes.
+     */
+    public Set<String> getPackages() {
+        return packages;
+    }
+
+    /**
+     * Returns the names of all packages containing classes or resources, including those only present for
+     * specific Java versions. This is the package set of the JAR when turned into an explicit module.
+     */
+    public Set<String> getAllPackages() {
+        return allPackages;
+    }
+
+    /**
+     * Whether the JAR contains classes in the unnamed package, which isn't allowed for modules.
+     */
+    public boolean hasClassesInUnnamedPackage() {
+        return classesInUnnamedPackage;
+    }
+
+    /**
+     * Returns the service providers declared in {@code META-INF/services}, by service name.
+     */
+    public Map<String, List<String>> getProviders() {
+        return providers;
+    }
+
+    /**
+     * Returns the services loaded via {@link java.util.ServiceLoader} by the JAR's classes. As this requires a
+     * pass over all class files, it is done upon the first invocation only.
+     */
+    public Set<String> getUsedServices(Log log) {
+        Set<String> usedServices = this.usedServices;
+
+        if (usedServices == null) {
+            synchronized (this) {
+                usedServices = this.usedServices;
+                if (usedServices == null) {
+                    usedServices = Collections.unmodifiableSet(new ServiceLoaderUseScanner(log).getUsedServices(path));
+                    this.usedServices = usedServices;
+                }
+            }
+        }
+
+        return usedServices;
+    }
+
+    @Override
+    public String toString() {
+        return "JarSnapshot [path=" + path + ", entries=" + entryNames.size() + ", packages=" + packages.size() + ", modular=" + isModular() + "]";
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The optional class file attributes of a module descriptor used by jlink and when resolving the boot layer:
+ * {@code ModuleTarget} (the platform a module is restricted to), {@code ModuleResolution} (whether a module is
+ * resolved by default) and {@code ModuleHashes} (the hashes of other modules, verified by the JVM when these
+ * modules are resolved together with the module).
+ */
+public final class ModuleAttributes {
+
+    /**
+     * The digest algorithm used for module hashes, the same as used by the jmod tool.
+     */
+    public static final String HASH_ALGORITHM = "SHA-256";
+
+    /**
+     * The first Java version verifying module hashes the way they are computed here; earlier versions hash the
+     * bytes of the modular JAR instead, so modules with recorded hashes can't be resolved by them.
+     */
+    public static final int MIN_HASHES_JVM_VERSION = 15;
+
+    private final String targetPlatform;
+    private final boolean doNotResolveByDefault;
+    private final Map<String, byte[]> hashes;
+
+    private ModuleAttributes(String targetPlatform, boolean doNotResolveByDefault, Map<String, byte[]> hashes) {
+        this.targetPlatform = targetPlatform;
+        this.doNotResolveByDefault = doNotResolveByDefault;
+        this.hashes = Collections.unmodifiableMap(hashes);
+    }
+
+    /**
+     * @param targetPlatform the target platform, e.g. {@code linux-amd64}; may be {@code null}
+     * @param doNotResolveByDefault whether the module should not be resolved by default when it is one of the
+     *        modules on the module path or in a runtime image
+     * @param hashedModules the modules whose hashes to record, by module name
+     */
+    public static ModuleAttributes of(String targetPlatform, boolean doNotResolveByDefault, Map<String, Path> hashedModules) {
+        Map<String, byte[]> hashes = new TreeMap<>();
+
+        for (Entry<String, Path> hashedModule : hashedModules.entrySet()) {
+            hashes.put(hashedModule.getKey(), computeHash(hashedModule.getValue()));
+        }
+
+        return new ModuleAttributes(targetPlatform, doNotResolveByDefault, hashes);
+    }
+
+    /**
+     * Computes the hash of the given modular JAR the same way JDK 15 and later do when verifying recorded hashes:
+     * over the names and contents of all the module's resources, in the order of their names.
+     */
+    public static byte[] computeHash(Path modularJar) {
+        Set<ModuleReference> modules = ModuleFinder.of(modularJar).findAll();
+        if (modules.size() != 1) {
+            throw new IllegalArgumentException("Not a module: " + modularJar);
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        try (ModuleReader reader = modules.iterator().next().open()) {
+            byte[] buffer = new byte[32 * 1024];
+
+            reader.list().sorted().forEachOrdered(name -> {
+                digest.update(name.getBytes(StandardCharsets.UTF_8));
+
+                try (InputStream in = reader.open(name).get()) {
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        digest.update(buffer, 0, read);
+                    }
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Couldn't compute hash of module " + modularJar, e);
+        }
+
+        return digest.digest();
+    }
+
+    public String getTargetPlatform() {
+        return targetPlatform;
+    }
+
+    public boolean isDoNotResolveByDefault() {
+        return doNotResolveByDefault;
+    }
+
+    /**
+     * Returns the recorded hashes by module name, ordered by name.
+     */
+    public Map<String, byte[]> getHashes() {
+        return hashes;
+    }
+
+    @Override
+    public String toString() {
+        return "ModuleAttributes [targetPlatform=" + targetPlatform + ", doNotResolveByDefault=" + doNotResolveByDefault + ", hashes=" + hashes.keySet()
+                + "]";
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A run of the launcher of a runtime image, recording the classes loaded by the application in a dynamic CDS
+ * archive. The application is stopped once the timeout has elapsed, unless it has terminated by itself before.
+ */
+public final class TrainingRun {
+
+    private final List<String> arguments;
+    private final long timeoutSeconds;
+
+    public TrainingRun(List<String> arguments, long timeoutSeconds) {
+        if (timeoutSeconds <= 0) {
+            throw new IllegalArgumentException("The timeout of the training run must be positive: " + timeoutSeconds);
+        }
+
+        this.arguments = arguments != null ? Collections.unmodifiableList(new ArrayList<>(arguments)) : Collections.emptyList();
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    /**
+     * Returns the arguments passed to the application.
+     */
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    public long getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return "TrainingRun [arguments=" + arguments + ", timeoutSeconds=" + timeoutSeconds + "]";
+    }
+}
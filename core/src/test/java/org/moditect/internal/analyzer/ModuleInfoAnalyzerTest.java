@@ -0,0 +1,201 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.analyzer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.moditect.commands.GenerateModuleInfo;
+import org.moditect.internal.cache.ModuleInfoCache;
+import org.moditect.model.AnalysisEngine;
+import org.moditect.model.GeneratedModuleInfo;
+import org.moditect.model.PackageNamePattern;
+import org.moditect.test.TestFiles;
+import org.moditect.test.TestLog;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.Compiler;
+import com.google.testing.compile.JavaFileObjects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ModuleInfoAnalyzerTest {
+
+    private static final Path WORKING_DIRECTORY = Paths.get("target", "analyzer-test");
+
+    private final TestLog log = new TestLog();
+
+    @Before
+    public void prepareDirectory() throws Exception {
+        TestFiles.recreateDirectory(WORKING_DIRECTORY);
+    }
+
+    @Test
+    public void shouldGenerateSameDescriptorAsJdeps() throws Exception {
+        Path exampleJar = prepareTestJar();
+
+        String fromJdeps = generateModuleInfo(exampleJar, AnalysisEngine.JDEPS);
+        String fromBytecode = generateModuleInfo(exampleJar, AnalysisEngine.BYTECODE);
+
+        assertThat(fromBytecode).isEqualTo(fromJdeps);
+        assertThat(fromBytecode)
+                .contains("requires java.sql;")
+                .contains("requires transitive java.logging;")
+                .contains("exports com.example.api;")
+                .contains("exports com.example.internal;")
+                .contains("provides com.example.api.Greeter with");
+    }
+
+    @Test
+    public void shouldNotShareCachedDescriptorsBetweenAnalysisEngines() throws Exception {
+        Path exampleJar = prepareTestJar();
+        ModuleInfoCache cache = new ModuleInfoCache(WORKING_DIRECTORY.resolve("cache"), 1024 * 1024, log);
+
+        generateModuleInfo(exampleJar, AnalysisEngine.BYTECODE, cache);
+        assertThat(getCacheEntries()).hasSize(1);
+
+        // a descriptor created by another engine is not used, but added as another entry
+        generateModuleInfo(exampleJar, AnalysisEngine.JDEPS, cache);
+        assertThat(getCacheEntries()).hasSize(2);
+
+        generateModuleInfo(exampleJar, AnalysisEngine.JDEPS, cache);
+        assertThat(getCacheEntries()).hasSize(2);
+    }
+
+    @Test
+    public void shouldNotCopyJarWithoutAutomaticModuleNameForCachedDescriptor() throws Exception {
+        // no valid automatic module name can be derived from this file name
+        Path exampleJar = Files.move(prepareTestJar(), WORKING_DIRECTORY.resolve("example-1abc.jar"));
+        ModuleInfoCache cache = new ModuleInfoCache(WORKING_DIRECTORY.resolve("cache"), 1024 * 1024, log);
+        Path workingDirectory = WORKING_DIRECTORY.resolve("jdeps-work");
+
+        generateModuleInfo(exampleJar, "com.example", AnalysisEngine.JDEPS, cache);
+        TestFiles.recreateDirectory(workingDirectory);
+        log.getInfoMessages().clear();
+
+        String fromCache = generateModuleInfo(exampleJar, "com.example", AnalysisEngine.JDEPS, cache);
+
+        assertThat(fromCache).contains("module com.example {");
+        assertThat(log.getInfoMessages()).anyMatch(message -> message.endsWith(" from cache"));
+        assertThat(getCacheEntries()).hasSize(1);
+        assertThat(workingDirectory).isEmptyDirectory();
+    }
+
+    @Test
+    public void shouldRequireModulesReferencedFromMethodBodies() throws Exception {
+        Path exampleJar = prepareTestJar();
+
+        assertThat(new ModuleInfoAnalyzer(log).analyze(exampleJar, Collections.emptyList(), Collections.emptyList()))
+                .hasValueSatisfying(module -> assertThat(module.toString()).contains("requires java.sql;"));
+    }
+
+    @Test
+    public void shouldNotAnalyzeWithUnsupportedJdepsOptions() throws Exception {
+        Path exampleJar = prepareTestJar();
+
+        assertThat(new ModuleInfoAnalyzer(log).analyze(exampleJar, Collections.emptyList(), Arrays.asList("--package", "com.example.api")))
+                .isEmpty();
+    }
+
+    @Test
+    public void shouldRescanChangedModulePath() throws Exception {
+        Path exampleJar = prepareTestJar();
+        Path modulePath = Files.createDirectories(WORKING_DIRECTORY.resolve("modules"));
+        ModuleInfoAnalyzer analyzer = new ModuleInfoAnalyzer(log);
+
+        assertThat(analyzer.analyze(exampleJar, Collections.singletonList(modulePath), Collections.emptyList())).isPresent();
+
+        // a module of the same name on the module path prevents the analysis
+        Files.copy(exampleJar, modulePath.resolve("example.jar"));
+        assertThat(analyzer.analyze(exampleJar, Collections.singletonList(modulePath), Collections.emptyList())).isEmpty();
+
+        Files.delete(modulePath.resolve("example.jar"));
+        assertThat(analyzer.analyze(exampleJar, Collections.singletonList(modulePath), Collections.emptyList())).isPresent();
+    }
+
+    private String generateModuleInfo(Path inputJar, AnalysisEngine analysisEngine) throws IOException {
+        return generateModuleInfo(inputJar, analysisEngine, null);
+    }
+
+    private String generateModuleInfo(Path inputJar, AnalysisEngine analysisEngine, ModuleInfoCache cache) throws IOException {
+        return generateModuleInfo(inputJar, null, analysisEngine, cache);
+    }
+
+    private String generateModuleInfo(Path inputJar, String moduleName, AnalysisEngine analysisEngine, ModuleInfoCache cache) throws IOException {
+        Path workingDirectory = Files.createDirectories(WORKING_DIRECTORY.resolve(analysisEngine.name().toLowerCase() + "-work"));
+        Path outputDirectory = Files.createDirectories(WORKING_DIRECTORY.resolve(analysisEngine.name().toLowerCase() + "-output"));
+
+        GeneratedModuleInfo generated = new GenerateModuleInfo(
+                inputJar,
+                moduleName,
+                false,
+                Collections.emptySet(),
+                PackageNamePattern.parsePatterns("*;"),
+                PackageNamePattern.parsePatterns("!*;"),
+                // no requires patterns, so the modifiers derived by the analysis engine are kept
+                Collections.emptyList(),
+                workingDirectory,
+                outputDirectory,
+                Collections.emptySet(),
+                Collections.emptySet(),
+                Collections.emptySet(),
+                false,
+                Collections.emptyList(),
+                analysisEngine,
+                cache,
+                log)
+                .run();
+
+        return new String(Files.readAllBytes(generated.getPath()), StandardCharsets.UTF_8);
+    }
+
+    private List<Path> getCacheEntries() throws IOException {
+        try (Stream<Path> files = Files.walk(WORKING_DIRECTORY.resolve("cache"))) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".java")).collect(Collectors.toList());
+        }
+    }
+
+    private Path prepareTestJar() throws Exception {
+        Compilation compilation = Compiler.javac()
+                .compile(
+                        JavaFileObjects.forSourceString(
+                                "com.example.api.Greeter",
+                                "package com.example.api;" +
+                                        "public interface Greeter {" +
+                                        "    java.util.logging.Logger getLogger();" +
+                                        "}"),
+                        JavaFileObjects.forSourceString(
+                                "com.example.internal.GreeterImpl",
+                                "package com.example.internal;" +
+                                        "public class GreeterImpl implements com.example.api.Greeter {" +
+                                        "    public java.util.logging.Logger getLogger() {" +
+                                        "        return java.util.logging.Logger.getLogger(\"greeter\");" +
+                                        "    }" +
+                                        "    void connect() throws Exception {" +
+                                        "        java.sql.DriverManager.getConnection(\"jdbc:example\").close();" +
+                                        "    }" +
+                                        "}"));
+
+        return TestFiles.createJar(
+                WORKING_DIRECTORY.resolve("example.jar"),
+                compilation,
+                Map.of("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n",
+                        "META-INF/services/com.example.api.Greeter", "com.example.internal.GreeterImpl\n"));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.analyzer;
+
+import java.io.IOException;
+import java.lang.module.FindException;
+import java.lang.module.ModuleFinder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.moditect.test.TestFiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ModuleNameIndexTest {
+
+    private static final Path WORKING_DIRECTORY = Paths.get("target", "module-name-test");
+
+    @Before
+    public void prepareDirectory() throws Exception {
+        TestFiles.recreateDirectory(WORKING_DIRECTORY);
+    }
+
+    @Test
+    public void shouldDeriveSameNamesAsModuleFinder() throws Exception {
+        assertSameNameAsModuleFinder(createJar("foo-bar-1.0.jar", null), "foo.bar");
+        assertSameNameAsModuleFinder(createJar("foo_bar--baz-2.0-SNAPSHOT.jar", null), "foo.bar.baz");
+        assertSameNameAsModuleFinder(createJar(".foo-bar.-3.jar", null), "foo.bar");
+        assertSameNameAsModuleFinder(createJar("foo-bar-1.0.jar.jar", null), "foo.bar");
+        assertSameNameAsModuleFinder(createJar("whatever-1.0.jar", "com.example.named"), "com.example.named");
+    }
+
+    @Test
+    public void shouldReturnGivenNameForInvalidNames() throws Exception {
+        Path fromFileName = createJar("foo-1abc.jar", null);
+        Path fromManifest = createJar("foo.jar", "com.example.1abc");
+
+        assertThatThrownBy(() -> ModuleFinder.of(fromFileName).findAll()).isInstanceOf(FindException.class);
+
+        assertThat(ModuleNameIndex.getModuleName(fromFileName, "com.example.assigned")).isEqualTo("com.example.assigned");
+        assertThat(ModuleNameIndex.getModuleName(fromFileName, null)).isNull();
+        assertThat(ModuleNameIndex.getModuleName(fromManifest, "com.example.assigned")).isEqualTo("com.example.assigned");
+    }
+
+    @Test
+    public void shouldRederiveNameOfChangedJar() throws Exception {
+        Path jar = createJar("changing.jar", "com.example.first");
+        assertThat(ModuleNameIndex.getModuleName(jar, null)).isEqualTo("com.example.first");
+
+        createJar("changing.jar", "com.example.second.name");
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+
+        assertThat(ModuleNameIndex.getModuleName(jar, null)).isEqualTo("com.example.second.name");
+    }
+
+    private void assertSameNameAsModuleFinder(Path jar, String expectedName) {
+        String fromModuleFinder = ModuleFinder.of(jar).findAll().iterator().next().descriptor().name();
+
+        assertThat(fromModuleFinder).isEqualTo(expectedName);
+        assertThat(ModuleNameIndex.getModuleName(jar, null)).isEqualTo(expectedName);
+    }
+
+    private Path createJar(String name, String automaticModuleName) throws IOException {
+        Path jar = WORKING_DIRECTORY.resolve(name);
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (automaticModuleName != null) {
+            manifest.getMainAttributes().putValue("Automatic-Module-Name", automaticModuleName);
+        }
+
+        try (JarOutputStream target = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            target.putNextEntry(new JarEntry("com/example/Resource.txt"));
+            target.write("resource".getBytes(StandardCharsets.UTF_8));
+            target.closeEntry();
+        }
+
+        return jar;
+    }
+}
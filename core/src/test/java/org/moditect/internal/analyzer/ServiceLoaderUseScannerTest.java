@@ -0,0 +1,61 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.analyzer;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+import org.moditect.test.TestFiles;
+import org.moditect.test.TestLog;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.Compiler;
+import com.google.testing.compile.JavaFileObjects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ServiceLoaderUseScannerTest {
+
+    private static final Path WORKING_DIRECTORY = Paths.get("target", "service-loader-test");
+
+    private final TestLog log = new TestLog();
+
+    @Test
+    public void shouldFindServicesLoadedWithClassLiterals() throws Exception {
+        Compilation compilation = Compiler.javac()
+                .compile(
+                        JavaFileObjects.forSourceString(
+                                "com.example.Loader",
+                                "package com.example;" +
+                                        "public class Loader {" +
+                                        "    void loadDrivers() {" +
+                                        "        java.util.ServiceLoader.load(java.sql.Driver.class).iterator();" +
+                                        "    }" +
+                                        "    void loadWithClassLoader() {" +
+                                        "        java.util.ServiceLoader.load(Runnable.class, getClass().getClassLoader()).iterator();" +
+                                        "    }" +
+                                        "    void loadDynamically(Class<?> service) {" +
+                                        "        java.util.ServiceLoader.load(service).iterator();" +
+                                        "    }" +
+                                        "}"),
+                        JavaFileObjects.forSourceString(
+                                "com.example.Other",
+                                "package com.example;" +
+                                        "public class Other {" +
+                                        "    Class<?> type() {" +
+                                        "        return java.util.logging.Logger.class;" +
+                                        "    }" +
+                                        "}"));
+
+        Path jar = TestFiles.createJar(WORKING_DIRECTORY.resolve("example.jar"), compilation);
+
+        assertThat(new ServiceLoaderUseScanner(log).getUsedServices(jar)).containsOnly("java.sql.Driver", "java.lang.Runnable");
+        assertThat(log.getWarnings()).containsExactly("Cannot derive uses clause from service loader invocation with non constant class literal");
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.cache;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LruCacheTest {
+
+    @Test
+    public void shouldRemoveLeastRecentlyUsedEntries() {
+        LruCache<String, Integer> cache = new LruCache<>(2);
+
+        cache.put("one", 1);
+        cache.put("two", 2);
+
+        // marks "one" as recently used, so "two" is removed
+        assertThat(cache.get("one")).isEqualTo(1);
+        cache.put("three", 3);
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.get("one")).isEqualTo(1);
+        assertThat(cache.get("two")).isNull();
+        assertThat(cache.get("three")).isEqualTo(3);
+    }
+}
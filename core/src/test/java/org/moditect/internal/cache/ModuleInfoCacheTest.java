@@ -0,0 +1,107 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.cache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.moditect.test.TestFiles;
+import org.moditect.test.TestLog;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ModuleInfoCacheTest {
+
+    private static final Path CACHE_TEST_DIRECTORY = Paths.get("target", "cache-test");
+
+    private final TestLog log = new TestLog();
+
+    private Path cacheDirectory;
+    private Path inputFile;
+
+    @Before
+    public void prepareDirectories() throws Exception {
+        TestFiles.recreateDirectory(CACHE_TEST_DIRECTORY);
+
+        cacheDirectory = Files.createDirectories(CACHE_TEST_DIRECTORY.resolve("cache"));
+        inputFile = CACHE_TEST_DIRECTORY.resolve("input.jar");
+        Files.write(inputFile, "some content".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldReturnStoredEntry() {
+        ModuleInfoCache cache = new ModuleInfoCache(cacheDirectory, 1024 * 1024, log);
+        String key = cache.newKey("test").addFile("input", inputFile).add("name", "com.example").build();
+
+        assertThat(cache.get(key, "java")).isEmpty();
+
+        cache.put(key, "java", "module com.example {}".getBytes(StandardCharsets.UTF_8));
+
+        ModuleInfoCache otherCache = new ModuleInfoCache(cacheDirectory, 1024 * 1024, log);
+        String otherKey = otherCache.newKey("test").addFile("input", inputFile).add("name", "com.example").build();
+
+        assertThat(otherKey).isEqualTo(key);
+        assertThat(otherCache.get(otherKey, "java")).hasValueSatisfying(
+                content -> assertThat(new String(content, StandardCharsets.UTF_8)).isEqualTo("module com.example {}"));
+        assertThat(otherCache.get(otherKey, "class")).isEmpty();
+    }
+
+    @Test
+    public void shouldDeriveKeyFromFileContentAndValues() throws Exception {
+        ModuleInfoCache cache = new ModuleInfoCache(cacheDirectory, 1024 * 1024, log);
+        String key = cache.newKey("test").addFile("input", inputFile).addUnordered("uses", Arrays.asList("a.A", "b.B")).build();
+
+        assertThat(cache.newKey("test").addFile("input", inputFile).addUnordered("uses", Arrays.asList("b.B", "a.A")).build())
+                .isEqualTo(key);
+        assertThat(cache.newKey("test").addFile("input", inputFile).addUnordered("uses", Arrays.asList("a.A")).build())
+                .isNotEqualTo(key);
+        assertThat(cache.newKey("other").addFile("input", inputFile).addUnordered("uses", Arrays.asList("a.A", "b.B")).build())
+                .isNotEqualTo(key);
+
+        Files.write(inputFile, "changed content".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(inputFile, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+
+        assertThat(cache.newKey("test").addFile("input", inputFile).addUnordered("uses", Arrays.asList("a.A", "b.B")).build())
+                .isNotEqualTo(key);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntries() throws Exception {
+        ModuleInfoCache cache = new ModuleInfoCache(cacheDirectory, 250, log);
+        byte[] content = new byte[100];
+
+        String first = cache.newKey("test").add("entry", 1).build();
+        String second = cache.newKey("test").add("entry", 2).build();
+        String third = cache.newKey("test").add("entry", 3).build();
+
+        cache.put(first, "class", content);
+        cache.put(second, "class", content);
+        setLastModified(first, System.currentTimeMillis() - 20_000);
+        setLastModified(second, System.currentTimeMillis() - 30_000);
+
+        // using the first entry makes the second one the least recently used
+        assertThat(cache.get(first, "class")).isPresent();
+
+        cache.put(third, "class", content);
+
+        assertThat(cache.get(first, "class")).isPresent();
+        assertThat(cache.get(second, "class")).isEmpty();
+        assertThat(cache.get(third, "class")).isPresent();
+    }
+
+    private void setLastModified(String key, long millis) throws IOException {
+        Files.setLastModifiedTime(cacheDirectory.resolve(key.substring(0, 2)).resolve(key + ".class"), FileTime.fromMillis(millis));
+    }
+}
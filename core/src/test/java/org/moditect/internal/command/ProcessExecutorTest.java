@@ -0,0 +1,110 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.command;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.moditect.test.TestLog;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ProcessExecutorTest {
+
+    private static final Path WORKING_DIRECTORY = Paths.get("target", "process-executor-test");
+
+    private final TestLog log = new TestLog();
+
+    @Test
+    public void shouldReadStandardErrorWhileProcessIsRunning() throws Exception {
+        // more output on standard error than fits into the pipe, before anything is written to standard output
+        List<String> command = java("Noisy",
+                "for (int i = 0; i < 20_000; i++) { System.err.println(\"warning \" + i); }" +
+                        "System.out.println(\"done\");");
+
+        List<String> output = ProcessExecutor.run("noisy", command, Duration.ofMinutes(1), log);
+
+        assertThat(output).containsExactly("done");
+        assertThat(log.getErrors()).hasSize(20_000);
+    }
+
+    @Test
+    public void shouldKillProcessAfterTimeout() throws Exception {
+        List<String> command = java("Sleeper",
+                "System.out.println(\"sleeping\");" +
+                        "Thread.sleep(60_000);");
+
+        long start = System.nanoTime();
+
+        assertThatThrownBy(() -> ProcessExecutor.run("sleeper", command, Duration.ofSeconds(5), log))
+                .hasMessage("Execution of sleeper timed out after 5s");
+
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(30));
+        assertThat(log.getErrors()).containsExactly("sleeping");
+    }
+
+    @Test
+    public void shouldStopProcessGracefullyAfterTimeout() throws Exception {
+        Path marker = WORKING_DIRECTORY.resolve("stopped.txt");
+        Files.deleteIfExists(marker);
+
+        List<String> command = java("Server",
+                "Runtime.getRuntime().addShutdownHook(new Thread(() -> {" +
+                        "    try { java.nio.file.Files.write(java.nio.file.Paths.get(\"" + marker.toAbsolutePath() + "\"), new byte[0]); }" +
+                        "    catch (Exception e) { throw new RuntimeException(e); }" +
+                        "}));" +
+                        "Thread.sleep(60_000);");
+
+        assertThat(ProcessExecutor.runUntilTimeout("server", command, Duration.ofSeconds(5), log)).isFalse();
+
+        assertThat(marker).exists();
+    }
+
+    @Test
+    public void shouldReportProcessTerminatedBeforeTimeout() throws Exception {
+        List<String> command = java("Terminating", "System.out.println(\"done\");");
+
+        assertThat(ProcessExecutor.runUntilTimeout("terminating", command, Duration.ofMinutes(1), log)).isTrue();
+    }
+
+    @Test
+    public void shouldReportRecentOutputOnFailure() throws Exception {
+        List<String> command = java("Failing",
+                "for (int i = 0; i < 1_000; i++) { System.out.println(\"line \" + i); }" +
+                        "System.exit(3);");
+
+        assertThatThrownBy(() -> ProcessExecutor.run("failing", command, Duration.ofMinutes(1), log))
+                .hasMessage("Execution of failing failed with exit value 3");
+
+        assertThat(log.getErrors()).hasSize(100);
+        assertThat(log.getErrors().get(99)).isEqualTo("line 999");
+    }
+
+    /**
+     * Returns the command for launching a single-file program with the given main method body.
+     */
+    private List<String> java(String className, String body) throws Exception {
+        Files.createDirectories(WORKING_DIRECTORY);
+        Path source = WORKING_DIRECTORY.resolve(className + ".java");
+
+        Files.write(source, ("public class " + className + " {" +
+                "    public static void main(String... args) throws Exception {" +
+                body +
+                "    }" +
+                "}").getBytes(StandardCharsets.UTF_8));
+
+        return Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(), source.toString());
+    }
+}
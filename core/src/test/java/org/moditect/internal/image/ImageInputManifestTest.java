@@ -0,0 +1,69 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.image;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.moditect.test.TestFiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ImageInputManifestTest {
+
+    private static final Path TEST_DIRECTORY = Paths.get("target", "image-manifest-test");
+
+    private Path imageDirectory;
+    private Path modulePath;
+
+    @Before
+    public void prepareDirectories() throws Exception {
+        TestFiles.recreateDirectory(TEST_DIRECTORY);
+
+        imageDirectory = Files.createDirectories(TEST_DIRECTORY.resolve("image"));
+        modulePath = Files.createDirectories(TEST_DIRECTORY.resolve("modules"));
+        Files.write(modulePath.resolve("example.jar"), "example".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void shouldDetectUnchangedInputs() throws Exception {
+        assertThat(newManifest("com.example").isUpToDate()).isFalse();
+        newManifest("com.example").write();
+
+        assertThat(newManifest("com.example").isUpToDate()).isTrue();
+
+        // only the time stamp changes
+        Files.setLastModifiedTime(modulePath.resolve("example.jar"), FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+        assertThat(newManifest("com.example").isUpToDate()).isTrue();
+    }
+
+    @Test
+    public void shouldDetectChangedInputs() throws Exception {
+        newManifest("com.example").write();
+
+        assertThat(newManifest("com.example,com.example.other").isUpToDate()).isFalse();
+
+        Files.write(modulePath.resolve("example.jar"), "changed content".getBytes(StandardCharsets.UTF_8));
+        assertThat(newManifest("com.example").isUpToDate()).isFalse();
+        newManifest("com.example").write();
+
+        Files.write(modulePath.resolve("other.jar"), "other".getBytes(StandardCharsets.UTF_8));
+        assertThat(newManifest("com.example").isUpToDate()).isFalse();
+    }
+
+    private ImageInputManifest newManifest(String modules) {
+        return new ImageInputManifest(imageDirectory)
+                .add("modules", modules)
+                .addFiles(modulePath);
+    }
+}
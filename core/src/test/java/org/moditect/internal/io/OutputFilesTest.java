@@ -0,0 +1,112 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.io;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class OutputFilesTest {
+
+    private static final Path OUTPUT_FILES_TEST_DIRECTORY = Paths.get("target", "output-files-test");
+
+    @Before
+    public void prepareDirectories() throws Exception {
+        OutputFiles.deleteRecursively(OUTPUT_FILES_TEST_DIRECTORY);
+        Files.createDirectories(OUTPUT_FILES_TEST_DIRECTORY);
+    }
+
+    @Test
+    public void shouldReplaceDirectoryConcurrently() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Path>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 64; i++) {
+                byte[] content = ("module com.example { // " + i + " }").getBytes(StandardCharsets.UTF_8);
+                results.add(executor.submit(
+                        () -> OutputFiles.replaceDirectory(OUTPUT_FILES_TEST_DIRECTORY, "com.example", "module-info.java", content)));
+            }
+
+            for (Future<Path> result : results) {
+                assertThat(result.get()).isEqualTo(OUTPUT_FILES_TEST_DIRECTORY.resolve("com.example").resolve("module-info.java"));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        // only the lock file and the directory of the last writer remain, without any temporary files
+        assertThat(list(OUTPUT_FILES_TEST_DIRECTORY)).containsOnly(OutputFiles.LOCK_FILE_NAME, "com.example");
+        assertThat(list(OUTPUT_FILES_TEST_DIRECTORY.resolve("com.example"))).containsOnly("module-info.java");
+        assertThat(new String(Files.readAllBytes(OUTPUT_FILES_TEST_DIRECTORY.resolve("com.example").resolve("module-info.java")), StandardCharsets.UTF_8))
+                .matches("module com\\.example \\{ // \\d+ \\}");
+    }
+
+    @Test
+    public void shouldExcludeConcurrentActionsOnSameDirectory() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        List<Future<Object>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(() -> OutputFiles.withLock(OUTPUT_FILES_TEST_DIRECTORY, () -> {
+                    maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    LockSupport.parkNanos(2_000_000);
+                    active.decrementAndGet();
+                    return null;
+                })));
+            }
+
+            for (Future<Object> result : results) {
+                result.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        assertThat(maxActive.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCopyAtomically() throws Exception {
+        Path source = OUTPUT_FILES_TEST_DIRECTORY.resolve("source.jar");
+        Path target = OUTPUT_FILES_TEST_DIRECTORY.resolve("target.jar");
+        Files.write(source, "new".getBytes(StandardCharsets.UTF_8));
+        Files.write(target, "old".getBytes(StandardCharsets.UTF_8));
+
+        OutputFiles.copy(source, target);
+
+        assertThat(new String(Files.readAllBytes(target), StandardCharsets.UTF_8)).isEqualTo("new");
+        assertThat(list(OUTPUT_FILES_TEST_DIRECTORY)).containsOnly("source.jar", "target.jar");
+    }
+
+    private static List<String> list(Path directory) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.internal.zip;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipFile;
+
+import org.junit.Test;
+import org.moditect.test.TestFiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ZipWriterTest {
+
+    private static final Path WORKING_DIRECTORY = Paths.get("target", "zip-writer-test");
+
+    @Test
+    public void shouldRestoreArchiveAppendedTo() throws Exception {
+        TestFiles.recreateDirectory(WORKING_DIRECTORY);
+        Path jar = WORKING_DIRECTORY.resolve("example.jar");
+
+        try (JarOutputStream target = new JarOutputStream(Files.newOutputStream(jar))) {
+            target.putNextEntry(new JarEntry("com/example/greeting.txt"));
+            target.write("Moin".getBytes(StandardCharsets.UTF_8));
+            target.closeEntry();
+        }
+
+        byte[] original = Files.readAllBytes(jar);
+
+        try (ZipArchive archive = ZipArchive.openForUpdate(jar);
+                ZipWriter zipWriter = ZipWriter.appendTo(archive, archive.getCentralDirectoryOffset())) {
+            for (ZipEntryRecord entry : archive.getEntries()) {
+                zipWriter.keepEntry(entry);
+            }
+            zipWriter.addEntry("com/example/other.txt", new byte[100_000], 0);
+
+            // e.g. upon a failure before the central directory has been written
+            zipWriter.restore();
+        }
+
+        assertThat(Files.readAllBytes(jar)).isEqualTo(original);
+
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+            assertThat(zipFile.size()).isEqualTo(1);
+            assertThat(zipFile.getInputStream(zipFile.getEntry("com/example/greeting.txt")).readAllBytes())
+                    .isEqualTo("Moin".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -13,6 +13,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ProcessBuilder.Redirect;
+import java.lang.module.Configuration;
+import java.lang.module.FindException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -21,12 +27,18 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.jar.Attributes;
 import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -36,12 +48,21 @@ import javax.tools.StandardLocation;
 import org.junit.Before;
 import org.junit.Test;
 import org.moditect.commands.AddModuleInfo;
+import org.moditect.model.ModuleAttributes;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
 
 import com.google.testing.compile.Compilation;
 import com.google.testing.compile.Compiler;
 import com.google.testing.compile.JavaFileObjects;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author Gunnar Morling
@@ -95,6 +116,9 @@ public class AddModuleInfoTest {
                 GENERATED_TEST_MODULES,
                 "9",
                 false,
+                null,
+                false,
+                null,
                 null)
                 .run();
 
@@ -140,6 +164,9 @@ public class AddModuleInfoTest {
                 GENERATED_TEST_MODULES,
                 "9",
                 false,
+                null,
+                false,
+                null,
                 null)
                 .run();
 
@@ -158,6 +185,9 @@ public class AddModuleInfoTest {
                 GENERATED_TEST_MODULES,
                 "9",
                 false,
+                null,
+                false,
+                null,
                 null)
                 .run();
 
@@ -199,6 +229,9 @@ public class AddModuleInfoTest {
                 GENERATED_TEST_MODULES,
                 null,
                 false,
+                null,
+                false,
+                null,
                 null)
                 .run();
 
@@ -240,6 +273,9 @@ public class AddModuleInfoTest {
                 GENERATED_TEST_MODULES,
                 null,
                 false,
+                null,
+                false,
+                null,
                 null)
                 .run();
 
@@ -258,6 +294,9 @@ public class AddModuleInfoTest {
                 GENERATED_TEST_MODULES,
                 null,
                 false,
+                null,
+                false,
+                null,
                 null)
                 .run();
 
@@ -273,6 +312,298 @@ public class AddModuleInfoTest {
         }
     }
 
+    @Test
+    public void addJvmVersionModuleInfoInPlaceAndRunModular() throws Exception {
+        Path inputJar = prepareTestJar();
+        long originalSize = Files.size(inputJar);
+
+        addModuleInfoInPlace(inputJar, "9");
+
+        // the manifest must be amended, so the JAR is copied, keeping the manifest as its first entry
+        assertFalse(Files.exists(GENERATED_TEST_MODULES.resolve(inputJar.getFileName())));
+        assertJarEntries(inputJar,
+                List.of("META-INF/MANIFEST.MF", "com/", "com/example/", "com/example/HelloWorld.class",
+                        "META-INF/versions/", "META-INF/versions/9/", "META-INF/versions/9/module-info.class"));
+
+        try (JarInputStream jar = new JarInputStream(Files.newInputStream(inputJar))) {
+            assertEquals("true", jar.getManifest().getMainAttributes().getValue("Multi-Release"));
+        }
+
+        ProcessBuilder builder = new ProcessBuilder(
+                JAVA_BIN, "--module-path", inputJar.toString(), "--module", "com.example");
+
+        Process process = builder.start();
+        process.waitFor();
+
+        if (process.exitValue() != 0) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            process.getInputStream().transferTo(baos);
+            process.getErrorStream().transferTo(baos);
+            throw new AssertionError(baos.toString());
+        }
+
+        long modularizedSize = Files.size(inputJar);
+        assertTrue(modularizedSize > originalSize);
+
+        // now the JAR is updated in place, replacing the entries added before
+        addModuleInfoInPlace(inputJar, "9");
+
+        assertJarEntries(inputJar,
+                List.of("META-INF/MANIFEST.MF", "com/", "com/example/", "com/example/HelloWorld.class",
+                        "META-INF/versions/", "META-INF/versions/9/", "META-INF/versions/9/module-info.class"));
+        assertEquals(modularizedSize, Files.size(inputJar));
+    }
+
+    @Test
+    public void addModuleInfoInPlaceTwiceKeepsSize() throws Exception {
+        Path inputJar = prepareTestJar();
+        long originalSize = Files.size(inputJar);
+
+        addModuleInfoInPlace(inputJar, null);
+
+        assertJarEntries(inputJar,
+                List.of("META-INF/MANIFEST.MF", "com/", "com/example/", "com/example/HelloWorld.class", "module-info.class"));
+        long modularizedSize = Files.size(inputJar);
+        assertTrue(modularizedSize > originalSize);
+
+        addModuleInfoInPlace(inputJar, null);
+
+        assertJarEntries(inputJar,
+                List.of("META-INF/MANIFEST.MF", "com/", "com/example/", "com/example/HelloWorld.class", "module-info.class"));
+        assertEquals(modularizedSize, Files.size(inputJar));
+
+        try (ZipFile zipFile = new ZipFile(inputJar.toFile());
+                InputStream moduleInfo = zipFile.getInputStream(zipFile.getEntry("module-info.class"))) {
+            assertEquals("com.example", ModuleDescriptor.read(moduleInfo).name());
+        }
+    }
+
+    @Test
+    public void addModuleInfoCopiesEntriesWithoutRecompressing() throws Exception {
+        Path inputJar = prepareTestJar();
+        Path storedJar = GENERATED_TEST_RESOURCES.resolve("example-stored.jar");
+        byte[] resource = "Moin".getBytes(StandardCharsets.UTF_8);
+
+        try (ZipFile zipFile = new ZipFile(inputJar.toFile());
+                JarOutputStream target = new JarOutputStream(new FileOutputStream(storedJar.toFile()))) {
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                target.putNextEntry(new ZipEntry(entry.getName()));
+                zipFile.getInputStream(entry).transferTo(target);
+                target.closeEntry();
+            }
+
+            ZipEntry storedEntry = new ZipEntry("com/example/greeting.txt");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(resource.length);
+            CRC32 crc = new CRC32();
+            crc.update(resource);
+            storedEntry.setCrc(crc.getValue());
+            target.putNextEntry(storedEntry);
+            target.write(resource);
+            target.closeEntry();
+        }
+
+        new AddModuleInfo(
+                "module com.example {}",
+                "com.example.HelloWorld",
+                "1.42.3",
+                storedJar,
+                GENERATED_TEST_MODULES,
+                null,
+                false,
+                null,
+                false,
+                null,
+                null)
+                .run();
+
+        Path outputJar = GENERATED_TEST_MODULES.resolve(storedJar.getFileName());
+
+        try (ZipFile input = new ZipFile(storedJar.toFile()); ZipFile output = new ZipFile(outputJar.toFile())) {
+            for (ZipEntry inputEntry : Collections.list(input.entries())) {
+                ZipEntry outputEntry = output.getEntry(inputEntry.getName());
+                assertEquals(inputEntry.getMethod(), outputEntry.getMethod());
+                assertEquals(inputEntry.getCrc(), outputEntry.getCrc());
+                assertEquals(inputEntry.getCompressedSize(), outputEntry.getCompressedSize());
+                assertEquals(inputEntry.getSize(), outputEntry.getSize());
+            }
+
+            assertArrayEquals(resource, output.getInputStream(output.getEntry("com/example/greeting.txt")).readAllBytes());
+            assertEquals(input.size() + 1, output.size());
+        }
+    }
+
+    @Test
+    public void addModuleInfoWritesAllPackages() throws Exception {
+        Path inputJar = prepareTestJar();
+        Path jarWithResources = GENERATED_TEST_RESOURCES.resolve("example-resources.jar");
+
+        try (ZipFile zipFile = new ZipFile(inputJar.toFile());
+                JarOutputStream target = new JarOutputStream(new FileOutputStream(jarWithResources.toFile()))) {
+            for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                target.putNextEntry(new ZipEntry(entry.getName()));
+                zipFile.getInputStream(entry).transferTo(target);
+                target.closeEntry();
+            }
+
+            target.putNextEntry(new ZipEntry("com/example/messages/greeting.txt"));
+            target.write("Moin".getBytes(StandardCharsets.UTF_8));
+            target.closeEntry();
+        }
+
+        new AddModuleInfo(
+                "module com.example {}",
+                "com.example.HelloWorld",
+                "1.42.3",
+                jarWithResources,
+                GENERATED_TEST_MODULES,
+                null,
+                false,
+                null,
+                false,
+                null,
+                null)
+                .run();
+
+        Path outputJar = GENERATED_TEST_MODULES.resolve(jarWithResources.getFileName());
+
+        // without a package finder, the packages are only taken from the ModulePackages attribute
+        try (ZipFile zipFile = new ZipFile(outputJar.toFile());
+                InputStream moduleInfo = zipFile.getInputStream(zipFile.getEntry("module-info.class"))) {
+            assertEquals(Set.of("com.example", "com.example.messages"), ModuleDescriptor.read(moduleInfo).packages());
+        }
+    }
+
+    @Test
+    public void addModuleInfoWritesModuleAttributes() throws Exception {
+        Path exampleJar = addModuleInfo(prepareTestJar(), "module com.example {}", "1.0");
+        Path consumerJar = prepareResourceJar("consumer.jar", "com/example/consumer/greeting.txt");
+
+        new AddModuleInfo(
+                "module com.example.consumer { requires com.example; }",
+                null,
+                "1.0",
+                consumerJar,
+                GENERATED_TEST_MODULES,
+                "15",
+                false,
+                null,
+                false,
+                null,
+                ModuleAttributes.of("linux-amd64", true, Map.of("com.example", exampleJar)))
+                .run();
+
+        List<String> attributes = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(GENERATED_TEST_MODULES.resolve(consumerJar.getFileName()).toFile());
+                InputStream moduleInfo = zipFile.getInputStream(zipFile.getEntry("META-INF/versions/15/module-info.class"))) {
+            byte[] clazz = moduleInfo.readAllBytes();
+
+            new ClassReader(clazz).accept(new ClassVisitor(Opcodes.ASM9) {
+
+                @Override
+                public void visitAttribute(Attribute attribute) {
+                    attributes.add(attribute.type);
+                }
+            }, 0);
+
+            // the JDK's reader validates the attributes' layout
+            assertEquals("com.example.consumer", ModuleDescriptor.read(ByteBuffer.wrap(clazz)).name());
+        }
+
+        assertEquals(List.of("ModuleTarget", "ModuleResolution", "ModuleHashes"), attributes);
+    }
+
+    @Test
+    public void addModuleInfoRecordsHashesVerifiedUponResolution() throws Exception {
+        Path exampleJar = addModuleInfo(prepareTestJar(), "module com.example {}", "1.0");
+        Path consumerJar = prepareResourceJar("consumer.jar", "com/example/consumer/greeting.txt");
+
+        new AddModuleInfo(
+                "module com.example.consumer { requires com.example; }",
+                null,
+                "1.0",
+                consumerJar,
+                GENERATED_TEST_MODULES,
+                "15",
+                false,
+                null,
+                false,
+                null,
+                ModuleAttributes.of(null, false, Map.of("com.example", exampleJar)))
+                .run();
+
+        resolve("com.example.consumer");
+
+        // a changed version of the hashed module must be rejected
+        Files.delete(exampleJar);
+        addModuleInfo(prepareTestJar(), "module com.example {}", "2.0");
+
+        try {
+            resolve("com.example.consumer");
+            fail("Expected hash mismatch to be detected");
+        }
+        catch (FindException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Hash of com.example"));
+        }
+    }
+
+    @Test
+    public void addModuleInfoRejectsHashesForJvmVersionsBeforeJdk15() throws Exception {
+        Path exampleJar = addModuleInfo(prepareTestJar(), "module com.example {}", "1.0");
+        Path consumerJar = prepareResourceJar("consumer.jar", "com/example/consumer/greeting.txt");
+
+        for (String jvmVersion : Arrays.asList(null, "base", "11")) {
+            try {
+                new AddModuleInfo(
+                        "module com.example.consumer { requires com.example; }",
+                        null,
+                        "1.0",
+                        consumerJar,
+                        GENERATED_TEST_MODULES,
+                        jvmVersion,
+                        false,
+                        null,
+                        false,
+                        null,
+                        ModuleAttributes.of(null, false, Map.of("com.example", exampleJar)));
+                fail("Expected module hashes to be rejected for JVM version " + jvmVersion);
+            }
+            catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Module hashes can only be recorded for JVM version 15 or later"));
+            }
+        }
+    }
+
+    private void addModuleInfoInPlace(Path inputJar, String jvmVersion) {
+        new AddModuleInfo("module com.example {}", "com.example.HelloWorld", "1.42.3", inputJar, GENERATED_TEST_MODULES, jvmVersion, false, null,
+                true, null, null).run();
+    }
+
+    private Path addModuleInfo(Path inputJar, String moduleInfoSource, String version) {
+        new AddModuleInfo(moduleInfoSource, null, version, inputJar, GENERATED_TEST_MODULES, null, false, null, false, null, null).run();
+        return GENERATED_TEST_MODULES.resolve(inputJar.getFileName());
+    }
+
+    private void resolve(String rootModule) {
+        Configuration.resolve(ModuleFinder.of(GENERATED_TEST_MODULES), List.of(ModuleLayer.boot().configuration()), ModuleFinder.of(), Set.of(rootModule));
+    }
+
+    private Path prepareResourceJar(String name, String resource) throws Exception {
+        Path jar = GENERATED_TEST_RESOURCES.resolve(name);
+
+        // with a manifest, which is amended with the Multi-Release attribute when adding a versioned descriptor
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        try (JarOutputStream target = new JarOutputStream(new FileOutputStream(jar.toFile()), manifest)) {
+            target.putNextEntry(new JarEntry(resource));
+            target.write("Moin".getBytes(StandardCharsets.UTF_8));
+            target.closeEntry();
+        }
+
+        return jar;
+    }
+
     private Path prepareTestJar() throws Exception {
         Compilation compilation = Compiler.javac()
                 .compile(
@@ -0,0 +1,166 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaFileObject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.moditect.commands.AddModuleInfo;
+import org.moditect.commands.CreateRuntimeImage;
+import org.moditect.internal.command.ProcessExecutor;
+import org.moditect.model.JarInclusionPolicy;
+import org.moditect.model.TrainingRun;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.Compiler;
+import com.google.testing.compile.JavaFileObjects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CreateRuntimeImageTest {
+
+    private static final Path WORKING_DIRECTORY = Paths.get("target", "runtime-image-test");
+    private static final Path JMODS = Paths.get(System.getProperty("java.home"), "jmods");
+    private static final String MODULE = "com.example.app";
+
+    private final TestLog log = new TestLog();
+
+    private Path modulePath;
+    private Path imageDirectory;
+    private Map<String, byte[]> classFiles;
+
+    @Before
+    public void prepareModule() throws Exception {
+        TestFiles.recreateDirectory(WORKING_DIRECTORY);
+
+        // the unused class comes first in the JAR, i.e. before the main class if the resources aren't ordered
+        Compilation compilation = Compiler.javac().compile(
+                JavaFileObjects.forSourceString(
+                        "com.example.app.AUnused",
+                        "package com.example.app;" +
+                                "public class AUnused {" +
+                                "}"),
+                JavaFileObjects.forSourceString(
+                        "com.example.app.Main",
+                        "package com.example.app;" +
+                                "public class Main {" +
+                                "    public static void main(String... args) {" +
+                                "        System.out.println(\"Hello from \" + Main.class.getModule().getName());" +
+                                "    }" +
+                                "}"));
+
+        classFiles = new HashMap<>();
+        for (JavaFileObject classFile : compilation.generatedFiles()) {
+            try (InputStream is = classFile.openInputStream()) {
+                String path = classFile.toUri().getPath();
+                classFiles.put(path.substring(path.indexOf("com/example/")), is.readAllBytes());
+            }
+        }
+
+        Path jar = TestFiles.createJar(WORKING_DIRECTORY.resolve("app.jar"), compilation);
+        modulePath = Files.createDirectories(WORKING_DIRECTORY.resolve("modules"));
+        new AddModuleInfo("module " + MODULE + " {}", MODULE + ".Main", "1.0", jar, modulePath, "base", false, null, false, null, null).run();
+
+        imageDirectory = WORKING_DIRECTORY.resolve("image");
+    }
+
+    @Test
+    public void shouldOrderResourcesByClassLoadingOrder() throws Exception {
+        createImage(false, null, true);
+
+        assertResourcesOrderedByClassLoading();
+    }
+
+    @Test
+    public void shouldCreateImageWithCdsArchivesAndOrderedResources() throws Exception {
+        createImage(true, new TrainingRun(Collections.emptyList(), 60), true);
+
+        Path lib = imageDirectory.resolve("lib");
+        assertThat(lib.resolve("server").resolve("classes.jsa")).isRegularFile();
+        assertThat(lib.resolve("app.jsa")).isRegularFile();
+        assertThat(Files.readAllLines(imageDirectory.resolve("bin").resolve("app")))
+                .contains("JLINK_VM_OPTIONS=\"$JLINK_VM_OPTIONS -XX:SharedArchiveFile=$DIR/../lib/app.jsa\"");
+        assertResourcesOrderedByClassLoading();
+
+        // the launcher starts with the archive of the training run
+        List<String> output = ProcessExecutor.run("launcher", Arrays.asList(
+                imageDirectory.resolve("bin").resolve("app").toString()), log);
+        assertThat(output).containsExactly("Hello from " + MODULE);
+
+        log.getInfoMessages().clear();
+        createImage(true, new TrainingRun(Collections.emptyList(), 60), true);
+
+        assertThat(log.getInfoMessages()).contains("Runtime image " + imageDirectory + " is up to date, skipping jlink");
+        assertThat(Files.readAllLines(imageDirectory.resolve("bin").resolve("app")))
+                .filteredOn(line -> line.contains("SharedArchiveFile"))
+                .hasSize(1);
+    }
+
+    private void assertResourcesOrderedByClassLoading() throws IOException {
+        List<String> order = Files.readAllLines(WORKING_DIRECTORY.resolve("image-resource-order.txt"));
+        assertThat(order).contains("java/lang/Object", "com/example/app/Main").doesNotContain("com/example/app/AUnused");
+
+        byte[] modules = Files.readAllBytes(imageDirectory.resolve("lib").resolve("modules"));
+        int main = indexOf(modules, classFiles.get("com/example/app/Main.class"));
+        int unused = indexOf(modules, classFiles.get("com/example/app/AUnused.class"));
+
+        assertThat(main).isNotNegative();
+        assertThat(unused).isGreaterThan(main);
+    }
+
+    private void createImage(boolean generateCdsArchive, TrainingRun trainingRun, boolean orderResources) throws IOException {
+        new CreateRuntimeImage(
+                new HashSet<>(Arrays.asList(modulePath, JMODS)),
+                Collections.singletonList(MODULE),
+                JarInclusionPolicy.NONE,
+                Collections.emptySet(),
+                null,
+                "app",
+                MODULE + "/" + MODULE + ".Main",
+                imageDirectory,
+                null,
+                false,
+                false,
+                Collections.emptyList(),
+                log,
+                false,
+                false,
+                false,
+                null,
+                generateCdsArchive,
+                trainingRun,
+                orderResources)
+                .run();
+    }
+
+    private static int indexOf(byte[] content, byte[] part) {
+        outer: for (int i = 0; i <= content.length - part.length; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (content[i + j] != part[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+
+        return -1;
+    }
+}
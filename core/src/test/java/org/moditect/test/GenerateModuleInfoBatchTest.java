@@ -0,0 +1,149 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.moditect.commands.GenerateModuleInfo;
+import org.moditect.commands.GenerateModuleInfoBatch;
+import org.moditect.model.DependencePattern;
+import org.moditect.model.DependencyDescriptor;
+import org.moditect.model.GeneratedModuleInfo;
+import org.moditect.model.PackageNamePattern;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.Compiler;
+import com.google.testing.compile.JavaFileObjects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GenerateModuleInfoBatchTest {
+
+    private static final Path WORKING_DIRECTORY = Paths.get("target", "batch-test");
+
+    private final TestLog log = new TestLog();
+
+    private Path libJar;
+    private Path appJar;
+
+    @Before
+    public void prepareJars() throws Exception {
+        TestFiles.recreateDirectory(WORKING_DIRECTORY);
+
+        libJar = createJar(
+                "lib.jar",
+                Compiler.javac().compile(
+                        JavaFileObjects.forSourceString(
+                                "com.example.lib.Greeting",
+                                "package com.example.lib;" +
+                                        "public class Greeting {" +
+                                        "    public java.util.logging.Logger getLogger() {" +
+                                        "        return java.util.logging.Logger.getLogger(\"greeting\");" +
+                                        "    }" +
+                                        "}")));
+
+        appJar = createJar(
+                "app.jar",
+                Compiler.javac()
+                        .withClasspath(Collections.singletonList(libJar.toFile()))
+                        .compile(
+                                JavaFileObjects.forSourceString(
+                                        "com.example.app.App",
+                                        "package com.example.app;" +
+                                                "public class App {" +
+                                                "    public com.example.lib.Greeting greeting() throws Exception {" +
+                                                "        java.sql.DriverManager.getConnection(\"jdbc:example\").close();" +
+                                                "        return new com.example.lib.Greeting();" +
+                                                "    }" +
+                                                "}")));
+    }
+
+    @Test
+    public void shouldGenerateSameDescriptorsAsSeparateRuns() throws Exception {
+        List<String> separate = new ArrayList<>();
+        for (GenerateModuleInfo command : createCommands("separate")) {
+            separate.add(read(command.run()));
+        }
+
+        List<String> batched = new ArrayList<>();
+        for (GeneratedModuleInfo generated : new GenerateModuleInfoBatch(createCommands("batch"), WORKING_DIRECTORY, log).run()) {
+            batched.add(read(generated));
+        }
+
+        assertThat(batched).isEqualTo(separate);
+        assertThat(batched.get(0))
+                .contains("module lib {")
+                .contains("requires java.logging;");
+        assertThat(batched.get(1))
+                .contains("module app {")
+                .contains("requires java.sql;")
+                .contains("requires lib;");
+    }
+
+    @Test
+    public void shouldAnalyzeModulesWithClashingNamesSeparately() throws Exception {
+        Path otherLibJar = Files.createDirectories(WORKING_DIRECTORY.resolve("other")).resolve("lib.jar");
+        Files.copy(libJar, otherLibJar);
+
+        List<GenerateModuleInfo> commands = createCommands("clash");
+        commands.add(createCommand(otherLibJar, "other-lib", Collections.emptySet(), "clash"));
+
+        List<GeneratedModuleInfo> generated = new GenerateModuleInfoBatch(commands, WORKING_DIRECTORY, log).run();
+
+        assertThat(generated).extracting(GeneratedModuleInfo::getModuleName).containsExactly("lib", "app", "other.lib");
+        assertThat(read(generated.get(2))).contains("requires java.logging;");
+    }
+
+    private List<GenerateModuleInfo> createCommands(String name) throws IOException {
+        return new ArrayList<>(Arrays.asList(
+                createCommand(libJar, null, Collections.emptySet(), name),
+                createCommand(appJar, null, Collections.singleton(new DependencyDescriptor(libJar, false, null)), name)));
+    }
+
+    private GenerateModuleInfo createCommand(Path inputJar, String moduleName, Set<DependencyDescriptor> dependencies, String name)
+            throws IOException {
+        Path workingDirectory = Files.createDirectories(WORKING_DIRECTORY.resolve(name + "-work"));
+        Path outputDirectory = Files.createDirectories(WORKING_DIRECTORY.resolve(name + "-output" + (moduleName != null ? "-" + moduleName : "")));
+
+        return new GenerateModuleInfo(
+                inputJar,
+                moduleName != null ? moduleName.replace('-', '.') : null,
+                false,
+                dependencies,
+                PackageNamePattern.parsePatterns("*;"),
+                PackageNamePattern.parsePatterns("!*;"),
+                DependencePattern.parsePatterns("*;"),
+                workingDirectory,
+                outputDirectory,
+                Collections.emptySet(),
+                Collections.emptySet(),
+                Collections.emptySet(),
+                false,
+                Collections.emptyList(),
+                log);
+    }
+
+    private String read(GeneratedModuleInfo generated) throws IOException {
+        return new String(Files.readAllBytes(generated.getPath()), StandardCharsets.UTF_8);
+    }
+
+    private Path createJar(String name, Compilation compilation) throws IOException {
+        return TestFiles.createJar(WORKING_DIRECTORY.resolve(name), compilation);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.spi.ToolProvider;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.moditect.commands.GenerateModuleList;
+import org.moditect.internal.cache.ModuleInfoCache;
+import org.moditect.model.Version;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.Compiler;
+import com.google.testing.compile.JavaFileObjects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GenerateModuleListTest {
+
+    private static final Path WORKING_DIRECTORY = Paths.get("target", "module-list-test");
+
+    private final TestLog log = new TestLog();
+
+    private Path libJar;
+    private Path appJar;
+
+    @Before
+    public void prepareJars() throws Exception {
+        TestFiles.recreateDirectory(WORKING_DIRECTORY);
+
+        libJar = createJar(
+                "lib.jar",
+                Compiler.javac().compile(
+                        JavaFileObjects.forSourceString(
+                                "com.example.lib.Greeting",
+                                "package com.example.lib;" +
+                                        "public class Greeting {" +
+                                        "    public java.util.logging.Logger getLogger() {" +
+                                        "        return java.util.logging.Logger.getLogger(\"greeting\");" +
+                                        "    }" +
+                                        "}")));
+
+        appJar = createJar(
+                "app.jar",
+                Compiler.javac()
+                        .withClasspath(Collections.singletonList(libJar.toFile()))
+                        .compile(
+                                JavaFileObjects.forSourceString(
+                                        "com.example.app.App",
+                                        "package com.example.app;" +
+                                                "public class App {" +
+                                                "    public com.example.lib.Greeting greeting() throws Exception {" +
+                                                "        java.sql.DriverManager.getConnection(\"jdbc:example\").close();" +
+                                                "        return new com.example.lib.Greeting();" +
+                                                "    }" +
+                                                "}")));
+    }
+
+    @Test
+    public void shouldListJdkModulesOfProjectJarAndDependencies() {
+        GenerateModuleList generateModuleList = new GenerateModuleList(
+                appJar, Collections.singleton(libJar), Version.valueOf(Runtime.version().feature()), log);
+
+        // java.logging, required by the dependency, is implied by java.sql
+        assertThat(generateModuleList.getJdkModules()).containsExactly("java.base", "java.sql");
+    }
+
+    @Test
+    public void shouldListSameModulesAsJdepsIfAllDependenciesAreUsed() throws Exception {
+        Path desktopJar = createJar(
+                "desktop.jar",
+                Compiler.javac()
+                        .withClasspath(Arrays.asList(libJar.toFile(), appJar.toFile()))
+                        .compile(
+                                JavaFileObjects.forSourceString(
+                                        "com.example.desktop.Window",
+                                        "package com.example.desktop;" +
+                                                "public class Window extends javax.swing.JFrame {" +
+                                                "    @java.beans.Transient" +
+                                                "    public java.net.http.HttpClient client() {" +
+                                                "        return null;" +
+                                                "    }" +
+                                                "    public com.example.app.App app() {" +
+                                                "        return null;" +
+                                                "    }" +
+                                                "}")));
+
+        GenerateModuleList generateModuleList = new GenerateModuleList(
+                desktopJar, new HashSet<>(Arrays.asList(libJar, appJar)), Version.valueOf(Runtime.version().feature()), log);
+
+        assertThat(String.join(",", generateModuleList.getJdkModules())).isEqualTo(printModuleDeps(desktopJar, libJar, appJar));
+    }
+
+    @Test
+    public void shouldListModulesOfUnusedDependencies() throws Exception {
+        Path unusedJar = createJar(
+                "unused.jar",
+                Compiler.javac().compile(
+                        JavaFileObjects.forSourceString(
+                                "com.example.unused.Window",
+                                "package com.example.unused;" +
+                                        "public class Window extends javax.swing.JFrame {" +
+                                        "}")));
+
+        GenerateModuleList generateModuleList = new GenerateModuleList(
+                appJar, new HashSet<>(Arrays.asList(libJar, unusedJar)), Version.valueOf(Runtime.version().feature()), log);
+
+        // jdeps only follows the dependencies referenced by the project JAR, whereas any JAR on the class path may
+        // be loaded at runtime
+        assertThat(printModuleDeps(appJar, libJar, unusedJar)).isEqualTo("java.base,java.sql");
+        assertThat(generateModuleList.getJdkModules()).containsExactly("java.base", "java.desktop", "java.sql");
+    }
+
+    @Test
+    public void shouldAnalyzeOnlyAddedDependency() throws Exception {
+        Path otherJar = Files.copy(libJar, WORKING_DIRECTORY.resolve("other.jar"));
+
+        newCommand(Collections.singleton(libJar), null).getJdkModules();
+        log.getDebugMessages().clear();
+
+        assertThat(newCommand(new HashSet<>(Arrays.asList(libJar, otherJar)), null).getJdkModules()).containsExactly("java.base", "java.sql");
+        assertThat(log.getDebugMessages()).hasSize(1);
+        assertThat(log.getDebugMessages().get(0)).startsWith("Analyzed " + otherJar.toAbsolutePath() + " in ");
+    }
+
+    @Test
+    public void shouldReuseCachedModulesOfUnchangedContent() throws Exception {
+        ModuleInfoCache cache = new ModuleInfoCache(WORKING_DIRECTORY.resolve("cache"), 1024 * 1024, log);
+
+        assertThat(newCommand(Collections.singleton(libJar), cache).getJdkModules()).containsExactly("java.base", "java.sql");
+
+        // a touched JAR must be checked again, but its content is unchanged
+        Files.setLastModifiedTime(appJar, FileTime.fromMillis(Files.getLastModifiedTime(appJar).toMillis() - 10_000));
+        log.getDebugMessages().clear();
+
+        assertThat(newCommand(Collections.singleton(libJar), cache).getJdkModules()).containsExactly("java.base", "java.sql");
+        assertThat(log.getDebugMessages()).containsExactly("Using cached JDK modules required by " + appJar.toAbsolutePath());
+    }
+
+    private GenerateModuleList newCommand(Set<Path> dependencies, ModuleInfoCache cache) {
+        return new GenerateModuleList(appJar, dependencies, Version.valueOf(Runtime.version().feature()), null, cache, log);
+    }
+
+    private String printModuleDeps(Path jar, Path... classPath) {
+        StringWriter output = new StringWriter();
+        int result = ToolProvider.findFirst("jdeps").get().run(new PrintWriter(output), new PrintWriter(new StringWriter()),
+                "--print-module-deps", "--ignore-missing-deps", "--class-path", joinPaths(classPath), jar.toString());
+        assertThat(result).isEqualTo(0);
+
+        return output.toString().trim();
+    }
+
+    private String joinPaths(Path... paths) {
+        return Arrays.stream(paths).map(Path::toString).collect(Collectors.joining(File.pathSeparator));
+    }
+
+    private Path createJar(String name, Compilation compilation) throws IOException {
+        return TestFiles.createJar(WORKING_DIRECTORY.resolve(name), compilation);
+    }
+}
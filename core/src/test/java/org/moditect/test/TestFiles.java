@@ -0,0 +1,94 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaFileObject;
+
+import com.google.testing.compile.Compilation;
+
+/**
+ * Creates the directories and JARs used by tests.
+ */
+public final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    /**
+     * Deletes the given directory including its contents, if it exists, and creates it anew.
+     */
+    public static Path recreateDirectory(Path directory) throws IOException {
+        if (Files.exists(directory)) {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        return Files.createDirectories(directory);
+    }
+
+    /**
+     * Creates a JAR with the class files of the given compilation, all of which must be located in packages
+     * below {@code com.example}.
+     */
+    public static Path createJar(Path jar, Compilation compilation) throws IOException {
+        return createJar(jar, compilation, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a JAR with the class files of the given compilation, all of which must be located in packages
+     * below {@code com.example}, and the given resources, by entry name.
+     */
+    public static Path createJar(Path jar, Compilation compilation, Map<String, String> resources) throws IOException {
+        Files.createDirectories(jar.toAbsolutePath().getParent());
+
+        try (JarOutputStream target = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (JavaFileObject classFile : compilation.generatedFiles()) {
+                String entryName = classFile.toUri().getPath();
+                entryName = entryName.substring(entryName.indexOf("com/example/"));
+
+                target.putNextEntry(new JarEntry(entryName));
+                try (InputStream is = classFile.openInputStream()) {
+                    target.write(is.readAllBytes());
+                }
+                target.closeEntry();
+            }
+
+            for (Map.Entry<String, String> resource : resources.entrySet()) {
+                target.putNextEntry(new JarEntry(resource.getKey()));
+                target.write(resource.getValue().getBytes(StandardCharsets.UTF_8));
+                target.closeEntry();
+            }
+        }
+
+        return jar;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.moditect.spi.log.Log;
+
+/**
+ * A log recording the messages of each level, for assertions in tests. Messages may be logged by several threads
+ * at the same time.
+ */
+public class TestLog implements Log {
+
+    private final List<String> debugMessages = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> infoMessages = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> warnings = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public void debug(CharSequence message) {
+        debugMessages.add(message.toString());
+    }
+
+    @Override
+    public void info(CharSequence message) {
+        infoMessages.add(message.toString());
+    }
+
+    @Override
+    public void warn(CharSequence message) {
+        warnings.add(message.toString());
+    }
+
+    @Override
+    public void error(CharSequence message) {
+        errors.add(message.toString());
+    }
+
+    public List<String> getDebugMessages() {
+        return debugMessages;
+    }
+
+    public List<String> getInfoMessages() {
+        return infoMessages;
+    }
+
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.test.model;
+
+import java.io.IOException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.moditect.model.JarSnapshot;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+public class JarSnapshotTest {
+
+    private static final Path WORKING_DIRECTORY = Paths.get("target", "jar-snapshot-test");
+
+    @Before
+    public void prepareDirectory() throws Exception {
+        Files.createDirectories(WORKING_DIRECTORY);
+    }
+
+    @Test
+    public void shouldReadContentsAsModuleFinder() throws Exception {
+        Path jar = createJar("example-1.0.jar", true,
+                "com/example/api/Greeter.class",
+                "com/example/internal/GreeterImpl.class",
+                "META-INF/versions/11/com/example/java11/Helper.class",
+                "META-INF/versions/11/module-info.class.txt",
+                "com/example/resources/greeting.txt");
+
+        JarSnapshot snapshot = JarSnapshot.of(jar);
+        ModuleDescriptor descriptor = ModuleFinder.of(jar).findAll().iterator().next().descriptor();
+
+        assertThat(snapshot.getPackages()).isEqualTo(descriptor.packages());
+        assertThat(snapshot.getPackages()).containsOnly("com.example.api", "com.example.internal", "com.example.java11");
+        assertThat(snapshot.getProviders()).containsExactly(entry("com.example.api.Greeter", Arrays.asList("com.example.internal.GreeterImpl")));
+        assertThat(snapshot.getMainAttribute("Multi-Release")).isEqualTo("true");
+        assertThat(snapshot.getManifest().getMainAttributes().getValue("Multi-Release")).isEqualTo("true");
+        assertThat(snapshot.isModular()).isFalse();
+        assertThat(snapshot.hasClassesInUnnamedPackage()).isFalse();
+        assertThat(snapshot.getEntryNames()).contains("com/example/resources/greeting.txt");
+    }
+
+    @Test
+    public void shouldIgnoreVersionedEntriesOfRegularJar() throws Exception {
+        Path jar = createJar("plain.jar", false,
+                "com/example/api/Greeter.class",
+                "com/example/internal/GreeterImpl.class",
+                "META-INF/versions/11/com/example/java11/Helper.class");
+
+        assertThat(JarSnapshot.of(jar).getPackages()).containsOnly("com.example.api", "com.example.internal");
+    }
+
+    @Test
+    public void shouldDetectVersionedModuleDescriptors() throws Exception {
+        Path jar = createJar("versioned.jar", true, "com/example/api/Greeter.class", "com/example/internal/GreeterImpl.class",
+                "META-INF/versions/11/module-info.class");
+
+        JarSnapshot snapshot = JarSnapshot.of(jar);
+
+        assertThat(snapshot.isModular()).isTrue();
+        assertThat(snapshot.hasModuleInfo()).isFalse();
+        assertThat(snapshot.getVersionedModuleInfos()).containsExactly(11);
+    }
+
+    @Test
+    public void shouldReadChangedJarAgain() throws Exception {
+        Path jar = createJar("changing.jar", false, "com/example/api/Greeter.class", "com/example/internal/GreeterImpl.class");
+        JarSnapshot snapshot = JarSnapshot.of(jar);
+
+        assertThat(JarSnapshot.of(jar)).isSameAs(snapshot);
+
+        createJar("changing.jar", false, "com/example/api/Greeter.class", "com/example/internal/GreeterImpl.class", "Top.class");
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+
+        assertThat(JarSnapshot.of(jar)).isNotSameAs(snapshot);
+        assertThat(JarSnapshot.of(jar).hasClassesInUnnamedPackage()).isTrue();
+    }
+
+    private Path createJar(String name, boolean multiRelease, String... entries) throws IOException {
+        Path jar = WORKING_DIRECTORY.resolve(name);
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (multiRelease) {
+            manifest.getMainAttributes().putValue("Multi-Release", "true");
+        }
+
+        try (JarOutputStream target = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            for (String entry : entries) {
+                target.putNextEntry(new JarEntry(entry));
+                target.write(entry.getBytes(StandardCharsets.UTF_8));
+                target.closeEntry();
+            }
+
+            target.putNextEntry(new JarEntry("META-INF/services/com.example.api.Greeter"));
+            target.write("# the default greeter\ncom.example.internal.GreeterImpl # built-in\n\n".getBytes(StandardCharsets.UTF_8));
+            target.closeEntry();
+        }
+
+        return jar;
+    }
+}
@@ -9,22 +9,26 @@ package org.moditect.mavenplugin.add;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.module.FindException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleDescriptor.Requires;
+import java.lang.module.ModuleFinder;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.maven.archiver.MavenArchiver;
 import org.apache.maven.artifact.Artifact;
@@ -44,17 +48,28 @@ import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.moditect.commands.AddModuleInfo;
+import org.moditect.internal.analyzer.ModuleNameIndex;
+import org.moditect.internal.cache.ModuleInfoCache;
 import org.moditect.internal.compiler.ModuleInfoCompiler;
+import org.moditect.internal.io.OutputFiles;
 import org.moditect.mavenplugin.add.model.MainModuleConfiguration;
 import org.moditect.mavenplugin.add.model.ModuleConfiguration;
 import org.moditect.mavenplugin.common.model.ArtifactConfiguration;
+import org.moditect.mavenplugin.common.model.ModuleInfoConfiguration;
 import org.moditect.mavenplugin.generate.ModuleInfoGenerator;
-import org.moditect.mavenplugin.generate.model.ArtifactIdentifier;
+import org.moditect.mavenplugin.generate.model.GACE;
 import org.moditect.mavenplugin.util.ArtifactResolutionHelper;
+import org.moditect.mavenplugin.util.MojoLog;
+import org.moditect.mavenplugin.util.SharedModularizations;
+import org.moditect.mavenplugin.util.TaskGraphExecutor;
+import org.moditect.model.AnalysisEngine;
 import org.moditect.model.DependencyDescriptor;
 import org.moditect.model.GeneratedModuleInfo;
+import org.moditect.model.JarSnapshot;
+import org.moditect.model.ModuleAttributes;
 
 /**
  * @author Gunnar Morling
@@ -62,10 +77,6 @@ import org.moditect.model.GeneratedModuleInfo;
 @Mojo(name = "add-module-info", defaultPhase = LifecyclePhase.PROCESS_RESOURCES, requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME, threadSafe = true)
 public class AddModuleInfoMojo extends AbstractMojo {
 
-    private static final String MODULE_INFO_CLASS = "module-info.class";
-
-    private static final Pattern VERSIONED_MODULE_INFO = Pattern.compile("META-INF/versions/\\d+/" + MODULE_INFO_CLASS);
-
     @Component
     private RepositorySystem repoSystem;
 
@@ -99,6 +110,14 @@ public class AddModuleInfoMojo extends AbstractMojo {
     @Parameter(property = "overwriteExistingFiles", defaultValue = "false")
     private boolean overwriteExistingFiles;
 
+    /**
+     * Whether to add the module descriptor to the project's JAR in place, i.e. by appending it to the existing
+     * file instead of re-writing the whole JAR. The modularized JAR is linked (or copied, if linking isn't
+     * possible) into the output directory afterwards.
+     */
+    @Parameter(property = "moditect.inPlace", defaultValue = "false")
+    private boolean inPlace;
+
     /**
      * Timestamp for reproducible output archive entries, either formatted as ISO 8601 extended offset date-time
      * (e.g. in UTC such as '2011-12-03T10:15:30Z' or with an offset '2019-10-05T20:37:42+06:00'),
@@ -108,12 +127,41 @@ public class AddModuleInfoMojo extends AbstractMojo {
     @Parameter(defaultValue = "${project.build.outputTimestamp}")
     private String outputTimestamp;
 
+    /**
+     * Whether to cache generated module descriptors as well as compiled {@code module-info.class} files in
+     * {@code cacheDirectory}. Cached entries are reused as long as the JARs they are derived from, their
+     * configuration and the JDK remain unchanged.
+     */
+    @Parameter(property = "moditect.useCache", defaultValue = "false")
+    private boolean useCache;
+
+    /**
+     * The directory for cached module descriptors; may be shared by several projects.
+     */
+    @Parameter(property = "moditect.cacheDirectory", defaultValue = "${user.home}/.m2/moditect-cache")
+    private File cacheDirectory;
+
+    /**
+     * The maximum size of the cache in MB; the least recently used descriptors are removed when it is exceeded.
+     */
+    @Parameter(property = "moditect.cacheMaxSize", defaultValue = "256")
+    private long cacheMaxSize;
+
     @Parameter(property = "moditect.skip", defaultValue = "false")
     private boolean skip;
 
     @Parameter(property = "moditect.failOnWarning", defaultValue = "true")
     private boolean failOnWarning;
 
+    /**
+     * The number of threads used for adding module descriptors to the configured modules. Modules which depend
+     * on each other are still processed in the order they are configured in, so the result is the same as when
+     * processing all modules sequentially. If the output directory is passed to jdeps as module path via
+     * {@code jdepsExtraArgs}, modules with generated descriptors are processed one after another.
+     */
+    @Parameter(property = "moditect.parallelism", defaultValue = "1")
+    private int parallelism;
+
     @Parameter
     private MainModuleConfiguration module;
 
@@ -126,6 +174,15 @@ public class AddModuleInfoMojo extends AbstractMojo {
     @Parameter
     private List<String> jdepsExtraArgs;
 
+    /**
+     * How the dependencies of modules are analyzed when generating their descriptors: {@code JDEPS} (the default)
+     * invokes the jdeps tool, {@code BYTECODE} analyzes the class files in-process, which is considerably faster.
+     * If the in-process analysis can't produce the same result as jdeps would (e.g. due to unsupported
+     * {@code jdepsExtraArgs}), jdeps is used for the affected module.
+     */
+    @Parameter(property = "moditect.analysisEngine", defaultValue = "JDEPS")
+    private AnalysisEngine analysisEngine;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         // Check if this plugin should be skipped
@@ -151,50 +208,37 @@ public class AddModuleInfoMojo extends AbstractMojo {
         createDirectories();
 
         ArtifactResolutionHelper artifactResolutionHelper = new ArtifactResolutionHelper(repoSystem, repoSession, remoteRepos);
+        ModuleInfoCache cache = createCache();
 
         ModuleInfoGenerator moduleInfoGenerator = new ModuleInfoGenerator(
-                project, repoSystem, repoSession, remoteRepos, artifactResolutionHelper, jdepsExtraArgs, getLog(), workingDirectory,
+                project, repoSystem, repoSession, remoteRepos, artifactResolutionHelper, jdepsExtraArgs, analysisEngine, cache, getLog(), workingDirectory,
                 new File(workingDirectory, "generated-sources"));
 
         resolveArtifactsToBeModularized(artifactResolutionHelper);
 
-        Map<ArtifactIdentifier, String> assignedNamesByModule = getAssignedModuleNamesByModule(artifactResolutionHelper);
-        Map<ArtifactIdentifier, Path> modularizedJars = new HashMap<>();
+        Map<GACE, String> assignedNamesByModule = getAssignedModuleNamesByModule(artifactResolutionHelper);
+        Map<GACE, Path> modularizedJars = new ConcurrentHashMap<>();
+        SharedModularizations sharedModularizations = SharedModularizations.getInstance(repoSession);
 
         if (modules != null) {
+            TaskGraphExecutor executor = new TaskGraphExecutor(parallelism);
+            List<Path> inputFiles = new ArrayList<>();
+            boolean outputDirectoryOnModulePath = isOnJdepsModulePath(outputPath);
+
             for (ModuleConfiguration moduleConfiguration : modules) {
                 Path inputFile = getInputFile(moduleConfiguration, artifactResolutionHelper);
-                if (isModularJar(inputFile)) {
-                    String message = "File " + inputFile.getFileName() + " is already modular";
-                    if (failOnWarning) {
-                        throw new MojoExecutionException(message);
-                    }
-                    else {
-                        getLog().warn(message);
-                        continue;
-                    }
-                }
-
-                String moduleInfoSource = getModuleInfoSource(inputFile, moduleConfiguration, moduleInfoGenerator, assignedNamesByModule, modularizedJars);
-
-                AddModuleInfo addModuleInfo = new AddModuleInfo(
-                        moduleInfoSource,
-                        moduleConfiguration.getMainClass(),
-                        getVersion(moduleConfiguration),
-                        inputFile,
-                        outputPath,
-                        jvmVersion,
-                        overwriteExistingFiles,
-                        MavenArchiver.parseBuildOutputTimestamp(outputTimestamp).orElse(null));
-
-                addModuleInfo.run();
-
-                if (moduleConfiguration.getArtifact() != null) {
-                    modularizedJars.put(
-                            new ArtifactIdentifier(moduleConfiguration.getResolvedArtifact()),
-                            outputPath.resolve(inputFile.getFileName()));
-                }
+                Set<Integer> predecessors = executor.getParallelism() > 1
+                        ? getPredecessors(moduleConfiguration, inputFile, inputFiles, outputDirectoryOnModulePath, artifactResolutionHelper)
+                        : Collections.emptySet();
+
+                inputFiles.add(inputFile);
+                executor.addTask(
+                        () -> addModuleInfo(moduleConfiguration, inputFile, outputPath, moduleInfoGenerator, assignedNamesByModule, modularizedJars, cache,
+                                sharedModularizations),
+                        predecessors);
             }
+
+            executor.execute();
         }
 
         if (module != null) {
@@ -214,48 +258,420 @@ public class AddModuleInfoMojo extends AbstractMojo {
                 }
             }
 
+            Path outputJar = outputPath.resolve(inputJar.getFileName());
+            if (inPlace && Files.exists(outputJar) && !overwriteExistingFiles) {
+                throw new MojoExecutionException(
+                        "File " + outputJar + " already exists; either set 'overwriteExistingFiles' to true or specify another output directory");
+            }
+
+            String moduleInfoSource = getModuleInfoSource(inputJar, module, moduleInfoGenerator, assignedNamesByModule, modularizedJars);
+
             AddModuleInfo addModuleInfo = new AddModuleInfo(
-                    getModuleInfoSource(inputJar, module, moduleInfoGenerator, assignedNamesByModule, modularizedJars),
+                    moduleInfoSource,
                     module.getMainClass(),
                     version,
                     inputJar,
                     outputPath,
                     jvmVersion,
                     overwriteExistingFiles,
-                    MavenArchiver.parseBuildOutputTimestamp(outputTimestamp).orElse(null));
+                    MavenArchiver.parseBuildOutputTimestamp(outputTimestamp).orElse(null),
+                    inPlace,
+                    cache,
+                    getModuleAttributes(module.getModuleInfo(), moduleInfoSource, modularizedJars));
             addModuleInfo.run();
 
+            if (inPlace) {
+                linkOrCopy(inputJar, outputJar);
+            }
+            else {
+                try {
+                    OutputFiles.copy(outputJar, inputJar);
+                }
+                catch (IOException e) {
+                    throw new RuntimeException("Couldn't replace " + inputJar + " with modularized version", e);
+                }
+            }
+        }
+    }
+
+    private void addModuleInfo(ModuleConfiguration moduleConfiguration, Path inputFile, Path outputPath, ModuleInfoGenerator moduleInfoGenerator,
+                               Map<GACE, String> assignedNamesByModule, Map<GACE, Path> modularizedJars,
+                               ModuleInfoCache cache, SharedModularizations sharedModularizations)
+            throws MojoExecutionException {
+        if (isModularJar(inputFile)) {
+            String message = "File " + inputFile.getFileName() + " is already modular";
+            if (failOnWarning) {
+                throw new MojoExecutionException(message);
+            }
+            else {
+                getLog().warn(message);
+                return;
+            }
+        }
+
+        Path outputJar = outputPath.resolve(inputFile.getFileName());
+        String key = getModularizationKey(moduleConfiguration, inputFile, moduleInfoGenerator, assignedNamesByModule, modularizedJars, sharedModularizations);
+
+        if (key == null) {
+            modularize(moduleConfiguration, inputFile, outputPath, moduleInfoGenerator, assignedNamesByModule, modularizedJars, cache);
+        }
+        else {
+            Path modularizedJar = sharedModularizations.modularize(
+                    key,
+                    outputJar,
+                    () -> modularize(moduleConfiguration, inputFile, outputPath, moduleInfoGenerator, assignedNamesByModule, modularizedJars, cache));
+
+            if (!modularizedJar.equals(outputJar.toAbsolutePath().normalize())) {
+                // an existing output JAR is kept if it is the result of the same modularization, e.g. by a previous build
+                if (Files.exists(outputJar) && !overwriteExistingFiles) {
+                    if (!SharedModularizations.hasSameContent(outputJar, modularizedJar)) {
+                        throw new MojoExecutionException(
+                                "File " + outputJar + " already exists; either set 'overwriteExistingFiles' to true or specify another output directory");
+                    }
+
+                    getLog().debug("Keeping " + outputJar + ", which is the same as " + modularizedJar + " modularized by another project");
+                }
+                else {
+                    getLog().debug("Using " + modularizedJar + " modularized by another project");
+                    linkOrCopy(modularizedJar, outputJar);
+                }
+
+                sharedModularizations.register(outputJar, key);
+            }
+        }
+
+        if (moduleConfiguration.getArtifact() != null) {
+            modularizedJars.put(GACE.of(moduleConfiguration.getResolvedArtifact()), outputJar);
+        }
+    }
+
+    private void modularize(ModuleConfiguration moduleConfiguration, Path inputFile, Path outputPath, ModuleInfoGenerator moduleInfoGenerator,
+                            Map<GACE, String> assignedNamesByModule, Map<GACE, Path> modularizedJars, ModuleInfoCache cache)
+            throws MojoExecutionException {
+        String moduleInfoSource = getModuleInfoSource(inputFile, moduleConfiguration, moduleInfoGenerator, assignedNamesByModule, modularizedJars);
+
+        AddModuleInfo addModuleInfo = new AddModuleInfo(
+                moduleInfoSource,
+                moduleConfiguration.getMainClass(),
+                getVersion(moduleConfiguration),
+                inputFile,
+                outputPath,
+                jvmVersion,
+                overwriteExistingFiles,
+                MavenArchiver.parseBuildOutputTimestamp(outputTimestamp).orElse(null),
+                false,
+                cache,
+                getModuleAttributes(moduleConfiguration.getModuleInfo(), moduleInfoSource, modularizedJars));
+
+        addModuleInfo.run();
+    }
+
+    /**
+     * Returns the key identifying the modularization of the given module within the entire build, made up of
+     * all its inputs, or {@code null} if the modularization isn't shared with other projects. That's the case for
+     * modules which aren't given as artifact or whose descriptor records the hashes of modules, as these are
+     * derived from the project's dependencies.
+     */
+    private String getModularizationKey(ModuleConfiguration moduleConfiguration, Path inputFile, ModuleInfoGenerator moduleInfoGenerator,
+                                        Map<GACE, String> assignedNamesByModule, Map<GACE, Path> modularizedJars,
+                                        SharedModularizations sharedModularizations)
+            throws MojoExecutionException {
+        if (moduleConfiguration.getArtifact() == null || (moduleConfiguration.getModuleInfo() != null && moduleConfiguration.getModuleInfo().getHashModules() != null)) {
+            return null;
+        }
+
+        StringBuilder key = new StringBuilder();
+        key.append("input=").append(sharedModularizations.getFileKey(inputFile)).append('\n');
+        key.append("mainClass=").append(moduleConfiguration.getMainClass()).append('\n');
+        key.append("version=").append(getVersion(moduleConfiguration)).append('\n');
+        key.append("jvmVersion=").append(jvmVersion).append('\n');
+        key.append("timestamp=").append(MavenArchiver.parseBuildOutputTimestamp(outputTimestamp).orElse(null)).append('\n');
+
+        if (isGeneratedModuleInfo(moduleConfiguration)) {
+            key.append("moduleInfo=").append(moduleConfiguration.getModuleInfo()).append('\n');
+            key.append("jdepsExtraArgs=").append(getJdepsExtraArgsKey(sharedModularizations)).append('\n');
+            key.append("analysisEngine=").append(analysisEngine).append('\n');
+
+            for (DependencyDescriptor dependency : moduleInfoGenerator.getDependencyDescriptors(
+                    moduleConfiguration.getArtifact(), moduleConfiguration.getAdditionalDependencies(), assignedNamesByModule, modularizedJars)) {
+                key.append("dependency=").append(sharedModularizations.getFileKey(dependency.getPath()))
+                        .append(' ').append(dependency.isOptional())
+                        .append(' ').append(dependency.getAssignedModuleName())
+                        .append('\n');
+            }
+        }
+        else if (moduleConfiguration.getModuleInfoSource() != null) {
+            key.append("moduleInfoSource=").append(moduleConfiguration.getModuleInfoSource()).append('\n');
+        }
+        else if (moduleConfiguration.getModuleInfoFile() != null) {
+            key.append("moduleInfoFile=").append(sharedModularizations.getFileKey(moduleConfiguration.getModuleInfoFile().toPath())).append('\n');
+        }
+
+        return key.toString();
+    }
+
+    /**
+     * Returns the additional descriptor attributes configured for a module, or {@code null} if there are none. The
+     * hashes of the required modules matching {@code hashModules} are computed from the modularized JARs of the
+     * previously configured modules or, for modules not modularized by this plug-in, from the project's
+     * dependencies.
+     */
+    private ModuleAttributes getModuleAttributes(ModuleInfoConfiguration moduleInfo, String moduleInfoSource, Map<GACE, Path> modularizedJars) {
+        if (moduleInfo == null || (moduleInfo.getTargetPlatform() == null && !moduleInfo.isDoNotResolveByDefault() && moduleInfo.getHashModules() == null)) {
+            return null;
+        }
+
+        Map<String, Path> hashedModules = new HashMap<>();
+
+        if (moduleInfo.getHashModules() != null) {
+            Pattern hashModules = Pattern.compile(moduleInfo.getHashModules());
+            Map<String, Path> modularJars = getModularJarsByName(modularizedJars);
+            ModuleDescriptor descriptor = ModuleDescriptor.read(
+                    ByteBuffer.wrap(ModuleInfoCompiler.compileModuleInfo(ModuleInfoCompiler.parseModuleInfo(moduleInfoSource), null, null)));
+
+            for (Requires requires : descriptor.requires()) {
+                String moduleName = requires.name();
+
+                if (!hashModules.matcher(moduleName).matches() || ModuleFinder.ofSystem().find(moduleName).isPresent()) {
+                    continue;
+                }
+
+                Path modularJar = modularJars.get(moduleName);
+                if (modularJar != null) {
+                    hashedModules.put(moduleName, modularJar);
+                }
+                else {
+                    getLog().warn("Couldn't find module " + moduleName + " for recording its hash");
+                }
+            }
+        }
+
+        return ModuleAttributes.of(moduleInfo.getTargetPlatform(), moduleInfo.isDoNotResolveByDefault(), hashedModules);
+    }
+
+    /**
+     * Returns the project's dependencies and the JARs modularized so far by module name; a modularized JAR takes
+     * precedence over the dependency it has been derived from.
+     */
+    private Map<String, Path> getModularJarsByName(Map<GACE, Path> modularizedJars) {
+        List<Path> jars = new ArrayList<>();
+        Map<String, Path> jarsByName = new HashMap<>();
+
+        for (Artifact artifact : project.getArtifacts()) {
+            if (artifact.getFile() != null && Files.isRegularFile(artifact.getFile().toPath())) {
+                jars.add(artifact.getFile().toPath());
+            }
+        }
+        jars.addAll(modularizedJars.values());
+
+        for (Path jar : jars) {
             try {
-                Files.copy(outputPath.resolve(inputJar.getFileName()), inputJar, StandardCopyOption.REPLACE_EXISTING);
+                String moduleName = ModuleNameIndex.getModuleName(jar, null);
+                if (moduleName != null) {
+                    jarsByName.put(moduleName, jar);
+                }
             }
-            catch (IOException e) {
-                throw new RuntimeException("Couldn't replace " + inputJar + " with modularized version", e);
+            catch (FindException e) {
+                getLog().debug("Couldn't determine module name of " + jar + ": " + e.getMessage());
             }
         }
+
+        return jarsByName;
     }
 
     /**
-     * Determines if the given JAR is already modular that is,
-     * it contains either a "module-info.class" entry or at least
-     * one "/META-INF/version/\\d+/module-info.class" entry.
+     * Returns the indexes of the previously configured modules which must have been modularized before the given
+     * one: those whose modularized JAR is used when generating the descriptor of the given module, as well as
+     * those written to the same output file. All other modules may be processed in parallel with the given one.
+     * Modules recording the hashes of other modules are processed after all previously configured modules.
+     * <p>
+     * If the output directory is on the module path of jdeps, any JAR written to it may be picked up when
+     * generating a descriptor, so then descriptor generation is ordered with respect to all other modules.
      */
-    private boolean isModularJar(Path jarPath) {
-        try (JarFile jarFile = new JarFile(jarPath.toFile())) {
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while (entries.hasMoreElements()) {
-                JarEntry entry = entries.nextElement();
-                String entryName = entry.getName();
-                if (entryName.equals(MODULE_INFO_CLASS) || VERSIONED_MODULE_INFO.matcher(entryName).matches()) {
-                    return true;
+    private Set<Integer> getPredecessors(ModuleConfiguration moduleConfiguration, Path inputFile, List<Path> previousInputFiles,
+                                         boolean outputDirectoryOnModulePath, ArtifactResolutionHelper artifactResolutionHelper)
+            throws MojoExecutionException {
+        Set<Integer> predecessors = new HashSet<>();
+        boolean generated = isGeneratedModuleInfo(moduleConfiguration);
+
+        // the modules whose hashes are recorded must have been written before
+        if (generated && moduleConfiguration.getModuleInfo().getHashModules() != null) {
+            for (int i = 0; i < previousInputFiles.size(); i++) {
+                predecessors.add(i);
+            }
+            return predecessors;
+        }
+        Set<GACE> dependencyKeys = new HashSet<>();
+
+        // only descriptors generated for artifacts are based on the modularized JARs of other modules
+        if (generated && moduleConfiguration.getArtifact() != null && !outputDirectoryOnModulePath) {
+            for (DependencyNode dependency : artifactResolutionHelper.getCompilationDependencies(moduleConfiguration.getResolvedArtifact())) {
+                org.eclipse.aether.artifact.Artifact artifact = dependency.getDependency().getArtifact();
+                dependencyKeys.add(GACE.of(artifact));
+            }
+
+            for (ArtifactConfiguration further : moduleConfiguration.getAdditionalDependencies()) {
+                dependencyKeys.add(new GACE(further.getGroupId(), further.getArtifactId(), further.getClassifier(), further.getType()));
+            }
+        }
+
+        for (int i = 0; i < previousInputFiles.size(); i++) {
+            ModuleConfiguration previous = modules.get(i);
+
+            if (previousInputFiles.get(i).getFileName().equals(inputFile.getFileName())) {
+                predecessors.add(i);
+            }
+            else if (outputDirectoryOnModulePath && (generated || isGeneratedModuleInfo(previous))) {
+                predecessors.add(i);
+            }
+            else if (previous.getArtifact() != null) {
+                org.eclipse.aether.artifact.Artifact artifact = previous.getResolvedArtifact();
+                if (dependencyKeys.contains(GACE.of(artifact))) {
+                    predecessors.add(i);
                 }
             }
         }
-        catch (IOException ioe) {
-            throw new IllegalStateException("Unexpected error when reading " + jarPath.getFileName());
+
+        return predecessors;
+    }
+
+    private boolean isGeneratedModuleInfo(ModuleConfiguration moduleConfiguration) {
+        return moduleConfiguration.getModuleInfo() != null && moduleConfiguration.getModuleInfoSource() == null
+                && moduleConfiguration.getModuleInfoFile() == null;
+    }
+
+    /**
+     * Returns {@code jdepsExtraArgs} as part of a modularization key. Module path entries are described by their
+     * contents instead of their location, so modules can be shared also if e.g. the output directory of each
+     * project, containing the JARs modularized before, is on the module path.
+     */
+    private String getJdepsExtraArgsKey(SharedModularizations sharedModularizations) {
+        if (jdepsExtraArgs == null) {
+            return null;
         }
+
+        List<String> args = new ArrayList<>();
+
+        for (int i = 0; i < jdepsExtraArgs.size(); i++) {
+            String arg = jdepsExtraArgs.get(i);
+
+            if (arg.equals("--module-path") && i + 1 < jdepsExtraArgs.size()) {
+                args.add(arg);
+                args.add(getModulePathKey(jdepsExtraArgs.get(++i), sharedModularizations));
+            }
+            else if (arg.startsWith("--module-path=")) {
+                args.add("--module-path=" + getModulePathKey(arg.substring("--module-path=".length()), sharedModularizations));
+            }
+            else {
+                args.add(arg);
+            }
+        }
+
+        return args.toString();
+    }
+
+    private String getModulePathKey(String modulePath, SharedModularizations sharedModularizations) {
+        List<String> elements = new ArrayList<>();
+
+        for (String element : modulePath.split(File.pathSeparator)) {
+            if (element.trim().isEmpty()) {
+                continue;
+            }
+
+            Path path = Paths.get(element.trim());
+            if (!Files.isDirectory(path)) {
+                elements.add(sharedModularizations.getFileKey(path));
+                continue;
+            }
+
+            // directories within the directory, i.e. exploded modules, are described by their location
+            try (Stream<Path> contents = Files.list(path)) {
+                elements.add(contents.sorted()
+                        .map(file -> file.getFileName() + "=" + (Files.isRegularFile(file) ? sharedModularizations.getFileKey(file) : file.toAbsolutePath()))
+                        .collect(Collectors.toList())
+                        .toString());
+            }
+            catch (IOException e) {
+                elements.add(path.toAbsolutePath().toString());
+            }
+        }
+
+        return String.join(File.pathSeparator, elements);
+    }
+
+    /**
+     * Whether the given directory is part of a module path passed to jdeps via {@code jdepsExtraArgs}.
+     */
+    private boolean isOnJdepsModulePath(Path directory) {
+        if (jdepsExtraArgs == null) {
+            return false;
+        }
+
+        Path normalizedDirectory = directory.toAbsolutePath().normalize();
+
+        for (int i = 0; i < jdepsExtraArgs.size(); i++) {
+            String arg = jdepsExtraArgs.get(i);
+            String modulePath = null;
+
+            if (arg.equals("--module-path") && i + 1 < jdepsExtraArgs.size()) {
+                modulePath = jdepsExtraArgs.get(i + 1);
+            }
+            else if (arg.startsWith("--module-path=")) {
+                modulePath = arg.substring("--module-path=".length());
+            }
+
+            if (modulePath != null) {
+                for (String element : modulePath.split(File.pathSeparator)) {
+                    if (!element.trim().isEmpty() && Paths.get(element.trim()).toAbsolutePath().normalize().equals(normalizedDirectory)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
         return false;
     }
 
+    /**
+     * Makes the project JAR modularized in place available in the output directory, preferably as a hard link
+     * to avoid copying it. The link or copy replaces an existing output JAR atomically.
+     */
+    private void linkOrCopy(Path inputJar, Path outputJar) throws MojoExecutionException {
+        Path tmpOutputJar = OutputFiles.getTempFile(outputJar);
+
+        try {
+            try {
+                Files.createLink(tmpOutputJar, inputJar);
+            }
+            catch (IOException | UnsupportedOperationException e) {
+                getLog().debug("Couldn't link " + inputJar + " to " + outputJar + ", copying it instead: " + e.getMessage());
+                Files.copy(inputJar, tmpOutputJar);
+            }
+
+            OutputFiles.publish(tmpOutputJar, outputJar);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Couldn't copy " + inputJar + " to " + outputJar, e);
+        }
+        finally {
+            try {
+                Files.deleteIfExists(tmpOutputJar);
+            }
+            catch (IOException e) {
+                getLog().debug("Couldn't delete " + tmpOutputJar + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Determines if the given JAR is already modular that is,
+     * it contains either a "module-info.class" entry or at least
+     * one "/META-INF/version/\\d+/module-info.class" entry.
+     */
+    private boolean isModularJar(Path jarPath) {
+        return JarSnapshot.of(jarPath).isModular();
+    }
+
     /**
      * Sets the resolved artifact of all artifact configurations. If no version is given, we try
      * to obtain it from the project dependencies.
@@ -265,49 +681,44 @@ public class AddModuleInfoMojo extends AbstractMojo {
             return;
         }
 
+        List<ModuleConfiguration> modulesWithArtifact = new ArrayList<>();
+        List<org.eclipse.aether.artifact.Artifact> artifacts = new ArrayList<>();
+        Map<GACE, String> versionsFromProject = ModuleInfoGenerator.getVersionsFromProject(project);
+
         for (ModuleConfiguration moduleConfiguration : modules) {
             ArtifactConfiguration artifact = moduleConfiguration.getArtifact();
 
             if (artifact != null) {
                 if (artifact.getVersion() == null) {
-                    artifact.setVersion(determineVersion(artifact));
+                    artifact.setVersion(determineVersion(artifact, versionsFromProject));
                 }
 
-                moduleConfiguration.setResolvedArtifact(artifactResolutionHelper.resolveArtifact(artifact));
+                modulesWithArtifact.add(moduleConfiguration);
+                artifacts.add(ArtifactResolutionHelper.toArtifact(artifact));
             }
         }
-    }
 
-    private String determineVersion(ArtifactConfiguration artifact) throws MojoExecutionException {
-        Optional<Artifact> resolvedDependency = project.getArtifacts()
-                .stream()
-                .filter(a -> {
-                    return Objects.equals(a.getGroupId(), artifact.getGroupId()) &&
-                            Objects.equals(a.getArtifactId(), artifact.getArtifactId()) &&
-                            Objects.equals(a.getClassifier(), artifact.getClassifier()) &&
-                            Objects.equals(a.getType(), artifact.getType());
-                })
-                .findFirst();
+        // resolve all artifacts at once, so they can be downloaded in parallel
+        List<org.eclipse.aether.artifact.Artifact> resolvedArtifacts = artifactResolutionHelper.resolveArtifacts(artifacts);
+        List<org.eclipse.aether.artifact.Artifact> generatedArtifacts = new ArrayList<>();
+
+        for (int i = 0; i < modulesWithArtifact.size(); i++) {
+            modulesWithArtifact.get(i).setResolvedArtifact(resolvedArtifacts.get(i));
 
-        if (resolvedDependency.isPresent()) {
-            return resolvedDependency.get().getVersion();
+            if (isGeneratedModuleInfo(modulesWithArtifact.get(i))) {
+                generatedArtifacts.add(resolvedArtifacts.get(i));
+            }
         }
 
-        if (project.getDependencyManagement() != null) {
-            Optional<org.apache.maven.model.Dependency> managed = project.getDependencyManagement()
-                    .getDependencies()
-                    .stream()
-                    .filter(d -> {
-                        return Objects.equals(d.getGroupId(), artifact.getGroupId()) &&
-                                Objects.equals(d.getArtifactId(), artifact.getArtifactId()) &&
-                                Objects.equals(d.getClassifier(), artifact.getClassifier()) &&
-                                Objects.equals(d.getType(), artifact.getType());
-                    })
-                    .findFirst();
+        // the dependencies of all modules whose descriptors are generated are collected within a single graph
+        artifactResolutionHelper.collectCompilationDependencies(generatedArtifacts);
+    }
 
-            if (managed.isPresent()) {
-                return managed.get().getVersion();
-            }
+    private String determineVersion(ArtifactConfiguration artifact, Map<GACE, String> versionsFromProject) throws MojoExecutionException {
+        String version = versionsFromProject.get(new GACE(artifact.getGroupId(), artifact.getArtifactId(), artifact.getClassifier(), artifact.getType()));
+
+        if (version != null) {
+            return version;
         }
 
         throw new MojoExecutionException(
@@ -351,7 +762,7 @@ public class AddModuleInfoMojo extends AbstractMojo {
     }
 
     private String getModuleInfoSource(Path inputFile, ModuleConfiguration moduleConfiguration, ModuleInfoGenerator moduleInfoGenerator,
-                                       Map<ArtifactIdentifier, String> assignedNamesByModule, Map<ArtifactIdentifier, Path> modularizedJars)
+                                       Map<GACE, String> assignedNamesByModule, Map<GACE, Path> modularizedJars)
             throws MojoExecutionException {
         if (moduleConfiguration.getModuleInfo() != null && moduleConfiguration.getModuleInfoSource() == null && moduleConfiguration.getModuleInfoFile() == null) {
             GeneratedModuleInfo generatedModuleInfo;
@@ -386,7 +797,7 @@ public class AddModuleInfoMojo extends AbstractMojo {
     }
 
     private String getModuleInfoSource(Path inputFile, MainModuleConfiguration moduleConfiguration, ModuleInfoGenerator moduleInfoGenerator,
-                                       Map<ArtifactIdentifier, String> assignedNamesByModule, Map<ArtifactIdentifier, Path> modularizedJars)
+                                       Map<GACE, String> assignedNamesByModule, Map<GACE, Path> modularizedJars)
             throws MojoExecutionException {
         if (moduleConfiguration.getModuleInfo() != null && moduleConfiguration.getModuleInfoSource() == null && moduleConfiguration.getModuleInfoFile() == null) {
 
@@ -394,7 +805,7 @@ public class AddModuleInfoMojo extends AbstractMojo {
                     .map(d -> new DependencyDescriptor(
                             d.getFile().toPath(),
                             d.isOptional(),
-                            getAssignedModuleName(assignedNamesByModule, d)))
+                            assignedNamesByModule.get(GACE.of(d))))
                     .collect(Collectors.toSet());
 
             GeneratedModuleInfo generatedModuleInfo = moduleInfoGenerator.generateModuleInfo(
@@ -439,8 +850,8 @@ public class AddModuleInfoMojo extends AbstractMojo {
         }
     }
 
-    private Map<ArtifactIdentifier, String> getAssignedModuleNamesByModule(ArtifactResolutionHelper artifactResolutionHelper) throws MojoExecutionException {
-        Map<ArtifactIdentifier, String> assignedNamesByModule = new HashMap<>();
+    private Map<GACE, String> getAssignedModuleNamesByModule(ArtifactResolutionHelper artifactResolutionHelper) throws MojoExecutionException {
+        Map<GACE, String> assignedNamesByModule = new HashMap<>();
 
         if (modules == null) {
             return assignedNamesByModule;
@@ -462,7 +873,7 @@ public class AddModuleInfoMojo extends AbstractMojo {
             // TODO handle file case; although file is unlikely to be used together with others
             if (configuredModule.getArtifact() != null) {
                 assignedNamesByModule.put(
-                        new ArtifactIdentifier(configuredModule.getResolvedArtifact()),
+                        GACE.of(configuredModule.getResolvedArtifact()),
                         assignedName);
             }
         }
@@ -470,20 +881,7 @@ public class AddModuleInfoMojo extends AbstractMojo {
         return assignedNamesByModule;
     }
 
-    private String getAssignedModuleName(Map<ArtifactIdentifier, String> assignedNamesByModule, Artifact artifact) {
-        for (Entry<ArtifactIdentifier, String> assignedNameByModule : assignedNamesByModule.entrySet()) {
-            // ignoring the version; the resolved artifact could have a different version then the one used
-            // in this modularization build
-            if (assignedNameByModule.getKey().getGroupId().equals(artifact.getGroupId()) &&
-                    assignedNameByModule.getKey().getArtifactId().equals(artifact.getArtifactId()) &&
-                    (artifact.getClassifier() == null && assignedNameByModule.getKey().getClassifier().equals("")
-                            || assignedNameByModule.getKey().getClassifier().equals(artifact.getClassifier()))
-                    &&
-                    assignedNameByModule.getKey().getExtension().equals(artifact.getType())) {
-                return assignedNameByModule.getValue();
-            }
-        }
-
-        return null;
+    private ModuleInfoCache createCache() {
+        return useCache ? new ModuleInfoCache(cacheDirectory.toPath(), cacheMaxSize * 1024 * 1024, new MojoLog(getLog())) : null;
     }
 }
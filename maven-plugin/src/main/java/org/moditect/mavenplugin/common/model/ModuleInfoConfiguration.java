@@ -21,6 +21,9 @@ public class ModuleInfoConfiguration {
     private String name;
     private boolean addServiceUses;
     private boolean open;
+    private String targetPlatform;
+    private boolean doNotResolveByDefault;
+    private String hashModules;
 
     public String getName() {
         return name;
@@ -94,9 +97,35 @@ public class ModuleInfoConfiguration {
         return open;
     }
 
+    public String getTargetPlatform() {
+        return targetPlatform;
+    }
+
+    public void setTargetPlatform(String targetPlatform) {
+        this.targetPlatform = targetPlatform;
+    }
+
+    public boolean isDoNotResolveByDefault() {
+        return doNotResolveByDefault;
+    }
+
+    public void setDoNotResolveByDefault(boolean doNotResolveByDefault) {
+        this.doNotResolveByDefault = doNotResolveByDefault;
+    }
+
+    public String getHashModules() {
+        return hashModules;
+    }
+
+    public void setHashModules(String hashModules) {
+        this.hashModules = hashModules;
+    }
+
     @Override
     public String toString() {
         return "ModuleInfoConfiguration [requires=" + requires + ", exports=" + exports + ", opens=" + opens + ", opensResources=" + opensResources
-                + ", uses=" + uses + ", provides=" + provides + ", name=" + name + ", addServiceUses=" + addServiceUses + ", open=" + open + "]";
+                + ", uses=" + uses + ", provides=" + provides + ", name=" + name + ", addServiceUses=" + addServiceUses + ", open=" + open + ", targetPlatform="
+                + targetPlatform + ", doNotResolveByDefault=" + doNotResolveByDefault + ", hashModules="
+                + hashModules + "]";
     }
 }
@@ -27,8 +27,16 @@ import org.eclipse.aether.util.graph.selector.ScopeDependencySelector;
  */
 public class CompileScopeDependencySelector implements DependencySelector {
 
-    private boolean level1 = true;
-    private DependencySelector delegate = new ScopeDependencySelector("test").deriveChildSelector(new MockDependencyCollectionContext());
+    private final boolean level1;
+    private final DependencySelector delegate = new ScopeDependencySelector("test").deriveChildSelector(new MockDependencyCollectionContext());
+
+    public CompileScopeDependencySelector() {
+        this(true);
+    }
+
+    private CompileScopeDependencySelector(boolean level1) {
+        this.level1 = level1;
+    }
 
     @Override
     public boolean selectDependency(Dependency dependency) {
@@ -38,14 +46,30 @@ public class CompileScopeDependencySelector implements DependencySelector {
     @Override
     public DependencySelector deriveChildSelector(DependencyCollectionContext context) {
         if (level1) {
-            level1 = false;
-            return this;
+            return new CompileScopeDependencySelector(false);
         }
         else {
             return new ScopeDependencySelector("test", "provided").deriveChildSelector(new MockDependencyCollectionContext());
         }
     }
 
+    // selectors are compared by the collector, so it can share the sub-graphs of nodes with equal selectors
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        return level1 == ((CompileScopeDependencySelector) obj).level1;
+    }
+
+    @Override
+    public int hashCode() {
+        return Boolean.hashCode(level1);
+    }
+
     // TODO get rid of this; it's needed only to get an instance of
     // ScopeDependencySelector in "transitive" mode
     private static class MockDependencyCollectionContext implements DependencyCollectionContext {
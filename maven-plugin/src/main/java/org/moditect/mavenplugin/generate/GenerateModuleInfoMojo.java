@@ -8,10 +8,12 @@
 package org.moditect.mavenplugin.generate;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.apache.maven.artifact.handler.manager.ArtifactHandlerManager;
 import org.apache.maven.execution.MavenSession;
@@ -25,12 +27,20 @@ import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.repository.RemoteRepository;
+import org.moditect.commands.GenerateModuleInfo;
+import org.moditect.commands.GenerateModuleInfoBatch;
+import org.moditect.internal.cache.ModuleInfoCache;
 import org.moditect.mavenplugin.common.model.ArtifactConfiguration;
 import org.moditect.mavenplugin.common.model.ModuleInfoConfiguration;
-import org.moditect.mavenplugin.generate.model.ArtifactIdentifier;
+import org.moditect.mavenplugin.generate.model.GACE;
 import org.moditect.mavenplugin.generate.model.ModuleConfiguration;
 import org.moditect.mavenplugin.util.ArtifactResolutionHelper;
+import org.moditect.mavenplugin.util.MojoLog;
+import org.moditect.mavenplugin.util.TaskGraphExecutor;
+import org.moditect.model.AnalysisEngine;
+import org.moditect.model.DependencyDescriptor;
 
 /**
  * @author Gunnar Morling
@@ -83,6 +93,50 @@ public class GenerateModuleInfoMojo extends AbstractMojo {
     @Parameter(property = "moditect.addServiceUses", defaultValue = "false")
     private boolean addServiceUsesOverride;
 
+    /**
+     * The number of threads used for generating the descriptors of the configured modules. When greater than 1,
+     * each module is processed in a separate working directory; the generated descriptors are the same as when
+     * processing the modules one after another.
+     */
+    @Parameter(property = "moditect.parallelism", defaultValue = "1")
+    private int parallelism;
+
+    /**
+     * How the dependencies of modules are analyzed when generating their descriptors: {@code JDEPS} (the default)
+     * invokes the jdeps tool, {@code BYTECODE} analyzes the class files in-process, which is considerably faster.
+     * If the in-process analysis can't produce the same result as jdeps would (e.g. due to unsupported
+     * {@code jdepsExtraArgs}), jdeps is used for the affected module.
+     */
+    @Parameter(property = "moditect.analysisEngine", defaultValue = "JDEPS")
+    private AnalysisEngine analysisEngine;
+
+    /**
+     * Whether to run jdeps once for all the configured modules instead of once per module, which avoids
+     * analyzing the same dependencies over and over again. The module path is the union of the dependencies of
+     * all modules. If set, {@code parallelism} is ignored.
+     */
+    @Parameter(property = "moditect.batchJdeps", defaultValue = "false")
+    private boolean batchJdeps;
+
+    /**
+     * Whether to cache generated module descriptors in {@code cacheDirectory}. Cached descriptors are reused
+     * as long as the JARs they are derived from, their configuration and the JDK remain unchanged.
+     */
+    @Parameter(property = "moditect.useCache", defaultValue = "false")
+    private boolean useCache;
+
+    /**
+     * The directory for cached module descriptors; may be shared by several projects.
+     */
+    @Parameter(property = "moditect.cacheDirectory", defaultValue = "${user.home}/.m2/moditect-cache")
+    private File cacheDirectory;
+
+    /**
+     * The maximum size of the cache in MB; the least recently used descriptors are removed when it is exceeded.
+     */
+    @Parameter(property = "moditect.cacheMaxSize", defaultValue = "256")
+    private long cacheMaxSize;
+
     @Parameter(property = "moditect.skip", defaultValue = "false")
     private boolean skip;
 
@@ -103,10 +157,12 @@ public class GenerateModuleInfoMojo extends AbstractMojo {
         createDirectories();
 
         ArtifactResolutionHelper artifactResolutionHelper = new ArtifactResolutionHelper(repoSystem, repoSession, remoteRepos);
+        ModuleInfoCache cache = createCache();
         ModuleInfoGenerator moduleInfoGenerator = new ModuleInfoGenerator(
-                project, repoSystem, repoSession, remoteRepos, artifactResolutionHelper, jdepsExtraArgs, getLog(), workingDirectory, outputDirectory);
+                project, repoSystem, repoSession, remoteRepos, artifactResolutionHelper, jdepsExtraArgs, analysisEngine, cache, getLog(), workingDirectory,
+                outputDirectory);
 
-        Map<ArtifactIdentifier, String> assignedNamesByModule = getAssignedModuleNamesByModule(artifactResolutionHelper);
+        Map<GACE, String> assignedNamesByModule = getAssignedModuleNamesByModule(artifactResolutionHelper);
 
         if (artifactOverride != null) {
             ModuleConfiguration moduleConfiguration = getModuleConfigurationFromOverrides();
@@ -117,25 +173,102 @@ public class GenerateModuleInfoMojo extends AbstractMojo {
                     assignedNamesByModule,
                     Collections.emptyMap());
         }
-        else {
+        else if (batchJdeps) {
+            List<GenerateModuleInfo> commands = new ArrayList<>();
+
             for (ModuleConfiguration moduleConfiguration : modules) {
-                moduleInfoGenerator.generateModuleInfo(
+                commands.add(moduleInfoGenerator.createGenerateModuleInfo(
                         moduleConfiguration.getArtifact(),
                         moduleConfiguration.getAdditionalDependencies(),
                         moduleConfiguration.getModuleInfo(),
                         assignedNamesByModule,
-                        Collections.emptyMap());
+                        Collections.emptyMap()));
+            }
+
+            new GenerateModuleInfoBatch(commands, workingDirectory.toPath(), new MojoLog(getLog())).run();
+        }
+        else {
+            TaskGraphExecutor executor = new TaskGraphExecutor(parallelism);
+            List<String> outputModuleNames = executor.getParallelism() > 1
+                    ? getOutputModuleNames(artifactResolutionHelper)
+                    : Collections.emptyList();
+
+            for (int i = 0; i < modules.size(); i++) {
+                ModuleConfiguration moduleConfiguration = modules.get(i);
+
+                // each jdeps run and temporary copy of a JAR uses a scratch directory of its own within the
+                // working directory, so modules can be processed in parallel
+                executor.addTask(
+                        () -> moduleInfoGenerator.generateModuleInfo(
+                                moduleConfiguration.getArtifact(),
+                                moduleConfiguration.getAdditionalDependencies(),
+                                moduleConfiguration.getModuleInfo(),
+                                assignedNamesByModule,
+                                Collections.emptyMap()),
+                        getPredecessors(outputModuleNames, i));
+            }
+
+            executor.execute();
+        }
+    }
+
+    /**
+     * Returns the indexes of the previously configured modules whose descriptors are written under the same
+     * module name as the given one; they are written to the same directory, so they are generated in the
+     * configured order.
+     */
+    private List<Integer> getPredecessors(List<String> outputModuleNames, int index) {
+        List<Integer> predecessors = new ArrayList<>();
+
+        if (outputModuleNames.isEmpty() || outputModuleNames.get(index) == null) {
+            return predecessors;
+        }
+
+        for (int i = 0; i < index; i++) {
+            if (outputModuleNames.get(index).equals(outputModuleNames.get(i))) {
+                predecessors.add(i);
+            }
+        }
+
+        return predecessors;
+    }
+
+    /**
+     * Returns the names the descriptors of the configured modules are written under: the configured name or,
+     * if none is given, the automatic module name of the module's JAR. {@code null} if neither is known.
+     */
+    private List<String> getOutputModuleNames(ArtifactResolutionHelper artifactResolutionHelper) throws MojoExecutionException {
+        List<String> outputModuleNames = new ArrayList<>();
+
+        for (ModuleConfiguration moduleConfiguration : modules) {
+            String moduleName = moduleConfiguration.getModuleInfo().getName();
+
+            if (moduleName == null) {
+                Artifact artifact = artifactResolutionHelper.resolveArtifact(moduleConfiguration.getArtifact());
+                moduleName = DependencyDescriptor.getAutoModuleNameFromInputJar(artifact.getFile().toPath(), null);
             }
+
+            outputModuleNames.add(moduleName);
         }
+
+        return outputModuleNames;
     }
 
-    private Map<ArtifactIdentifier, String> getAssignedModuleNamesByModule(ArtifactResolutionHelper artifactResolutionHelper) throws MojoExecutionException {
-        Map<ArtifactIdentifier, String> assignedNamesByModule = new HashMap<>();
+    private Map<GACE, String> getAssignedModuleNamesByModule(ArtifactResolutionHelper artifactResolutionHelper) throws MojoExecutionException {
+        Map<GACE, String> assignedNamesByModule = new HashMap<>();
+
+        List<Artifact> artifacts = modules.stream()
+                .map(configuredModule -> ArtifactResolutionHelper.toArtifact(configuredModule.getArtifact()))
+                .collect(Collectors.toList());
+        List<Artifact> resolvedArtifacts = artifactResolutionHelper.resolveArtifacts(artifacts);
 
-        for (ModuleConfiguration configuredModule : modules) {
+        // the dependencies of all modules are collected within a single graph
+        artifactResolutionHelper.collectCompilationDependencies(resolvedArtifacts);
+
+        for (int i = 0; i < modules.size(); i++) {
             assignedNamesByModule.put(
-                    new ArtifactIdentifier(artifactResolutionHelper.resolveArtifact(configuredModule.getArtifact())),
-                    configuredModule.getModuleInfo().getName());
+                    GACE.of(resolvedArtifacts.get(i)),
+                    modules.get(i).getModuleInfo().getName());
         }
 
         return assignedNamesByModule;
@@ -172,4 +305,8 @@ public class GenerateModuleInfoMojo extends AbstractMojo {
             outputDirectory.mkdirs();
         }
     }
+
+    private ModuleInfoCache createCache() {
+        return useCache ? new ModuleInfoCache(cacheDirectory.toPath(), cacheMaxSize * 1024 * 1024, new MojoLog(getLog())) : null;
+    }
 }
@@ -9,15 +9,14 @@ package org.moditect.mavenplugin.generate;
 
 import java.io.File;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Objects;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -31,11 +30,13 @@ import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.moditect.commands.GenerateModuleInfo;
+import org.moditect.internal.cache.ModuleInfoCache;
 import org.moditect.mavenplugin.common.model.ArtifactConfiguration;
 import org.moditect.mavenplugin.common.model.ModuleInfoConfiguration;
-import org.moditect.mavenplugin.generate.model.ArtifactIdentifier;
+import org.moditect.mavenplugin.generate.model.GACE;
 import org.moditect.mavenplugin.util.ArtifactResolutionHelper;
 import org.moditect.mavenplugin.util.MojoLog;
+import org.moditect.model.AnalysisEngine;
 import org.moditect.model.DependencePattern;
 import org.moditect.model.DependencyDescriptor;
 import org.moditect.model.GeneratedModuleInfo;
@@ -49,45 +50,77 @@ public class ModuleInfoGenerator {
     private final List<RemoteRepository> remoteRepos;
     private final ArtifactResolutionHelper artifactResolutionHelper;
     private final List<String> jdepsExtraArgs;
+    private final AnalysisEngine analysisEngine;
+    private final ModuleInfoCache cache;
     private final Log log;
     private final File workingDirectory;
     private final File outputDirectory;
 
+    /**
+     * The versions of the project's dependencies and managed dependencies, by their coordinates.
+     */
+    private final Map<GACE, String> versionsFromProject;
+
     public ModuleInfoGenerator(MavenProject project, RepositorySystem repoSystem, RepositorySystemSession repoSession,
-                               List<RemoteRepository> remoteRepos, ArtifactResolutionHelper artifactResolutionHelper, List<String> jdepsExtraArgs, Log log,
-                               File workingDirectory, File outputDirectory) {
+                               List<RemoteRepository> remoteRepos, ArtifactResolutionHelper artifactResolutionHelper, List<String> jdepsExtraArgs,
+                               AnalysisEngine analysisEngine, ModuleInfoCache cache, Log log, File workingDirectory, File outputDirectory) {
         this.project = project;
         this.repoSystem = repoSystem;
         this.repoSession = repoSession;
         this.remoteRepos = remoteRepos;
         this.artifactResolutionHelper = artifactResolutionHelper;
         this.jdepsExtraArgs = jdepsExtraArgs;
+        this.analysisEngine = analysisEngine;
+        this.cache = cache;
         this.log = log;
         this.workingDirectory = workingDirectory;
         this.outputDirectory = outputDirectory;
+        this.versionsFromProject = getVersionsFromProject(project);
     }
 
     public GeneratedModuleInfo generateModuleInfo(ArtifactConfiguration artifact, List<ArtifactConfiguration> additionalDependencies, ModuleInfoConfiguration moduleInfo,
-                                                  Map<ArtifactIdentifier, String> assignedNamesByModule, Map<ArtifactIdentifier, Path> modularizedJars)
+                                                  Map<GACE, String> assignedNamesByModule, Map<GACE, Path> modularizedJars)
+            throws MojoExecutionException {
+        return createGenerateModuleInfo(artifact, additionalDependencies, moduleInfo, assignedNamesByModule, modularizedJars).run();
+    }
+
+    /**
+     * Creates the command for generating the descriptor of the given artifact, without running it yet.
+     */
+    public GenerateModuleInfo createGenerateModuleInfo(ArtifactConfiguration artifact, List<ArtifactConfiguration> additionalDependencies,
+                                                       ModuleInfoConfiguration moduleInfo, Map<GACE, String> assignedNamesByModule,
+                                                       Map<GACE, Path> modularizedJars)
             throws MojoExecutionException {
         log.debug("Adding module descriptor to artifact " + artifact.toDependencyString());
 
         Artifact inputArtifact = artifactResolutionHelper.resolveArtifact(artifact);
+        Set<DependencyDescriptor> dependencies = getDependencyDescriptors(artifact, additionalDependencies, assignedNamesByModule, modularizedJars);
+
+        return createGenerateModuleInfo(inputArtifact.getFile().toPath(), dependencies, moduleInfo);
+    }
+
+    /**
+     * Returns the dependencies taken into account when generating the descriptor of the given artifact: its
+     * compilation dependencies and the given additional ones, using their modularized JARs where present.
+     */
+    public Set<DependencyDescriptor> getDependencyDescriptors(ArtifactConfiguration artifact, List<ArtifactConfiguration> additionalDependencies,
+                                                              Map<GACE, String> assignedNamesByModule, Map<GACE, Path> modularizedJars)
+            throws MojoExecutionException {
+        Artifact inputArtifact = artifactResolutionHelper.resolveArtifact(artifact);
 
         Set<DependencyDescriptor> dependencies = getDependencies(inputArtifact, assignedNamesByModule, modularizedJars);
 
         for (ArtifactConfiguration further : additionalDependencies) {
             Artifact furtherArtifact = artifactResolutionHelper.resolveArtifact(further);
-            Path modularized = getModularizedJar(modularizedJars,
-                    new ArtifactIdentifier(further.getGroupId(), further.getArtifactId(), further.getVersion(), further.getType(), further.getClassifier()));
+            Path modularized = modularizedJars.get(new GACE(further.getGroupId(), further.getArtifactId(), further.getClassifier(), further.getType()));
             dependencies.add(new DependencyDescriptor(modularized != null ? modularized : furtherArtifact.getFile().toPath(), false, null));
         }
 
-        return generateModuleInfo(inputArtifact.getFile().toPath(), dependencies, moduleInfo);
+        return dependencies;
     }
 
     public GeneratedModuleInfo generateModuleInfo(Path inputJar, List<ArtifactConfiguration> additionalDependencies, ModuleInfoConfiguration moduleInfo,
-                                                  Map<ArtifactIdentifier, String> assignedNamesByModule)
+                                                  Map<GACE, String> assignedNamesByModule)
             throws MojoExecutionException {
         Set<DependencyDescriptor> dependencies = new HashSet<>();
 
@@ -101,6 +134,10 @@ public class ModuleInfoGenerator {
 
     public GeneratedModuleInfo generateModuleInfo(Path inputJar, Set<DependencyDescriptor> dependencies, ModuleInfoConfiguration moduleInfo)
             throws MojoExecutionException {
+        return createGenerateModuleInfo(inputJar, dependencies, moduleInfo).run();
+    }
+
+    private GenerateModuleInfo createGenerateModuleInfo(Path inputJar, Set<DependencyDescriptor> dependencies, ModuleInfoConfiguration moduleInfo) {
         Set<String> opensResources;
 
         if (moduleInfo.getOpensResources() != null) {
@@ -149,27 +186,40 @@ public class ModuleInfoGenerator {
                 provides,
                 moduleInfo.isAddServiceUses(),
                 jdepsExtraArgs,
-                new MojoLog(log))
-                .run();
+                analysisEngine,
+                cache,
+                new MojoLog(log));
     }
 
-    private Set<DependencyDescriptor> getDependencies(Artifact inputArtifact, Map<ArtifactIdentifier, String> assignedNamesByModule,
-                                                      Map<ArtifactIdentifier, Path> modularizedJars)
+    private Set<DependencyDescriptor> getDependencies(Artifact inputArtifact, Map<GACE, String> assignedNamesByModule,
+                                                      Map<GACE, Path> modularizedJars)
             throws MojoExecutionException {
         Set<DependencyDescriptor> dependencies = new LinkedHashSet<>();
+        List<DependencyNode> compilationDependencies = artifactResolutionHelper.getCompilationDependencies(inputArtifact);
+        List<Artifact> artifacts = new ArrayList<>();
 
-        for (DependencyNode dependency : artifactResolutionHelper.getCompilationDependencies(inputArtifact)) {
+        for (DependencyNode dependency : compilationDependencies) {
             Artifact artifact = dependency.getDependency().getArtifact();
 
             // use the version of the dependency as used within the current project's build, if present
-            String versionFromProject = getVersionFromProject(artifact);
+            String versionFromProject = versionsFromProject.get(GACE.of(artifact));
             if (versionFromProject != null) {
                 artifact = new DefaultArtifact(artifact.getGroupId(), artifact.getArtifactId(), artifact.getClassifier(), artifact.getExtension(), versionFromProject);
             }
 
-            Artifact resolvedDependency = artifactResolutionHelper.resolveArtifact(artifact);
-            String assignedModuleName = getAssignedModuleName(assignedNamesByModule, new ArtifactIdentifier(resolvedDependency));
-            Path modularized = getModularizedJar(modularizedJars, new ArtifactIdentifier(resolvedDependency));
+            artifacts.add(artifact);
+        }
+
+        List<Artifact> resolvedDependencies = artifactResolutionHelper.resolveArtifacts(artifacts);
+
+        for (int i = 0; i < compilationDependencies.size(); i++) {
+            DependencyNode dependency = compilationDependencies.get(i);
+            Artifact resolvedDependency = resolvedDependencies.get(i);
+            // ignoring the version; the resolved artifact could have a different version than the one used
+            // in this modularization build
+            GACE key = GACE.of(resolvedDependency);
+            String assignedModuleName = assignedNamesByModule.get(key);
+            Path modularized = modularizedJars.get(key);
 
             dependencies.add(
                     new DependencyDescriptor(
@@ -181,79 +231,24 @@ public class ModuleInfoGenerator {
         return dependencies;
     }
 
-    private String getAssignedModuleName(Map<ArtifactIdentifier, String> assignedNamesByModule, ArtifactIdentifier artifactIdentifier) {
-        for (Entry<ArtifactIdentifier, String> assignedNameByModule : assignedNamesByModule.entrySet()) {
-            // ignoring the version; the resolved artifact could have a different version then the one used
-            // in this modularization build
-            if (assignedNameByModule.getKey().getGroupId().equals(artifactIdentifier.getGroupId()) &&
-                    assignedNameByModule.getKey().getArtifactId().equals(artifactIdentifier.getArtifactId()) &&
-                    assignedNameByModule.getKey().getClassifier().equals(artifactIdentifier.getClassifier()) &&
-                    assignedNameByModule.getKey().getExtension().equals(artifactIdentifier.getExtension())) {
-                return assignedNameByModule.getValue();
-            }
-        }
-
-        return null;
-    }
+    /**
+     * Returns the versions of the given project's dependencies and, with lower precedence, managed dependencies.
+     */
+    public static Map<GACE, String> getVersionsFromProject(MavenProject project) {
+        Map<GACE, String> versions = new HashMap<>();
 
-    private Path getModularizedJar(Map<ArtifactIdentifier, Path> modularizedJars, ArtifactIdentifier artifactIdentifier) {
-        for (Entry<ArtifactIdentifier, Path> assignedNameByModule : modularizedJars.entrySet()) {
-            // ignoring the version; the resolved artifact could have a different version than the one used
-            // in this modularization build
-            if (assignedNameByModule.getKey().getGroupId().equals(artifactIdentifier.getGroupId()) &&
-                    assignedNameByModule.getKey().getArtifactId().equals(artifactIdentifier.getArtifactId()) &&
-                    areEqualClassifiers(assignedNameByModule.getKey().getClassifier(), artifactIdentifier.getClassifier()) &&
-                    assignedNameByModule.getKey().getExtension().equals(artifactIdentifier.getExtension())) {
-                return assignedNameByModule.getValue();
-            }
-        }
-
-        return null;
-    }
-
-    private String getVersionFromProject(Artifact artifact) throws MojoExecutionException {
-        Optional<org.apache.maven.artifact.Artifact> resolvedDependency = project.getArtifacts()
-                .stream()
-                .filter(a -> {
-                    return Objects.equals(a.getGroupId(), artifact.getGroupId()) &&
-                            Objects.equals(a.getArtifactId(), artifact.getArtifactId()) &&
-                            areEqualClassifiers(a.getClassifier(), artifact.getClassifier()) &&
-                            Objects.equals(a.getType(), artifact.getExtension());
-                })
-                .findFirst();
-
-        if (resolvedDependency.isPresent()) {
-            return resolvedDependency.get().getVersion();
+        for (org.apache.maven.artifact.Artifact artifact : project.getArtifacts()) {
+            versions.putIfAbsent(GACE.of(artifact), artifact.getVersion());
         }
 
         if (project.getDependencyManagement() != null) {
-            Optional<org.apache.maven.model.Dependency> managed = project.getDependencyManagement()
-                    .getDependencies()
-                    .stream()
-                    .filter(d -> {
-                        return Objects.equals(d.getGroupId(), artifact.getGroupId()) &&
-                                Objects.equals(d.getArtifactId(), artifact.getArtifactId()) &&
-                                areEqualClassifiers(d.getClassifier(), artifact.getClassifier()) &&
-                                Objects.equals(d.getType(), artifact.getExtension());
-                    })
-                    .findFirst();
-
-            if (managed.isPresent()) {
-                return managed.get().getVersion();
+            for (org.apache.maven.model.Dependency managed : project.getDependencyManagement().getDependencies()) {
+                versions.putIfAbsent(
+                        new GACE(managed.getGroupId(), managed.getArtifactId(), managed.getClassifier(), managed.getType()),
+                        managed.getVersion());
             }
         }
 
-        return null;
-    }
-
-    private boolean areEqualClassifiers(String classifier1, String classifier2) {
-        if (classifier1 != null && classifier1.isEmpty()) {
-            classifier1 = null;
-        }
-        if (classifier2 != null && classifier2.isEmpty()) {
-            classifier2 = null;
-        }
-
-        return Objects.equals(classifier1, classifier2);
+        return versions;
     }
 }
@@ -1,115 +0,0 @@
-/*
- *  SPDX-License-Identifier: Apache-2.0
- *
- *  Copyright The original authors
- *
- *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
- */
-package org.moditect.mavenplugin.generate.model;
-
-import org.eclipse.aether.artifact.Artifact;
-
-public class ArtifactIdentifier {
-
-    private String groupId;
-    private String artifactId;
-    private String version;
-    private String extension;
-    private String classifier;
-
-    public ArtifactIdentifier(String groupId, String artifactId, String version, String extension, String classifier) {
-        this.groupId = groupId;
-        this.artifactId = artifactId;
-        this.version = version;
-        this.extension = extension;
-        this.classifier = classifier;
-    }
-
-    public ArtifactIdentifier(Artifact artifact) {
-        groupId = artifact.getGroupId();
-        artifactId = artifact.getArtifactId();
-        version = artifact.getVersion();
-        extension = artifact.getExtension();
-        classifier = artifact.getClassifier();
-    }
-
-    public String getGroupId() {
-        return groupId;
-    }
-
-    public String getArtifactId() {
-        return artifactId;
-    }
-
-    public String getVersion() {
-        return version;
-    }
-
-    public String getExtension() {
-        return extension;
-    }
-
-    public String getClassifier() {
-        return classifier;
-    }
-
-    @Override
-    public String toString() {
-        return "ArtifactIdentifier [groupId=" + groupId + ", artifactId=" + artifactId + ", version=" + version
-                + ", extension=" + extension + ", classifier=" + classifier + "]";
-    }
-
-    @Override
-    public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((artifactId == null) ? 0 : artifactId.hashCode());
-        result = prime * result + ((classifier == null) ? 0 : classifier.hashCode());
-        result = prime * result + ((extension == null) ? 0 : extension.hashCode());
-        result = prime * result + ((groupId == null) ? 0 : groupId.hashCode());
-        result = prime * result + ((version == null) ? 0 : version.hashCode());
-        return result;
-    }
-
-    @Override
-    public boolean equals(Object obj) {
-        if (this == obj)
-            return true;
-        if (obj == null)
-            return false;
-        if (getClass() != obj.getClass())
-            return false;
-        ArtifactIdentifier other = (ArtifactIdentifier) obj;
-        if (artifactId == null) {
-            if (other.artifactId != null)
-                return false;
-        }
-        else if (!artifactId.equals(other.artifactId))
-            return false;
-        if (classifier == null) {
-            if (other.classifier != null)
-                return false;
-        }
-        else if (!classifier.equals(other.classifier))
-            return false;
-        if (extension == null) {
-            if (other.extension != null)
-                return false;
-        }
-        else if (!extension.equals(other.extension))
-            return false;
-        if (groupId == null) {
-            if (other.groupId != null)
-                return false;
-        }
-        else if (!groupId.equals(other.groupId))
-            return false;
-        if (version == null) {
-            if (other.version != null)
-                return false;
-        }
-        else if (!version.equals(other.version))
-            return false;
-        return true;
-    }
-}
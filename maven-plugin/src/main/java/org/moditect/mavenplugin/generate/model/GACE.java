@@ -0,0 +1,84 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.mavenplugin.generate.model;
+
+import java.util.Objects;
+
+import org.eclipse.aether.artifact.Artifact;
+
+/**
+ * Identifies an artifact by group id, artifact id, classifier and extension, i.e. regardless of its version. Used
+ * as key for looking up artifacts whose version may differ from the one used in the modularization build, e.g.
+ * when a transitive dependency has been resolved to another version.
+ * <p>
+ * An empty classifier is the same as no classifier.
+ */
+public final class GACE {
+
+    private final String groupId;
+    private final String artifactId;
+    private final String classifier;
+    private final String extension;
+
+    public GACE(String groupId, String artifactId, String classifier, String extension) {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.classifier = classifier != null && !classifier.isEmpty() ? classifier : null;
+        this.extension = extension;
+    }
+
+    public static GACE of(Artifact artifact) {
+        return new GACE(artifact.getGroupId(), artifact.getArtifactId(), artifact.getClassifier(), artifact.getExtension());
+    }
+
+    /**
+     * Returns the key of the given project artifact; its type is used as extension.
+     */
+    public static GACE of(org.apache.maven.artifact.Artifact artifact) {
+        return new GACE(artifact.getGroupId(), artifact.getArtifactId(), artifact.getClassifier(), artifact.getType());
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getClassifier() {
+        return classifier;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(groupId, artifactId, classifier, extension);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        GACE other = (GACE) obj;
+        return Objects.equals(groupId, other.groupId) && Objects.equals(artifactId, other.artifactId)
+                && Objects.equals(classifier, other.classifier) && Objects.equals(extension, other.extension);
+    }
+
+    @Override
+    public String toString() {
+        return groupId + ":" + artifactId + ":" + (classifier != null ? classifier : "") + ":" + extension;
+    }
+}
@@ -9,11 +9,18 @@ package org.moditect.mavenplugin.image;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.lang.module.ModuleFinder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -31,10 +38,15 @@ import org.apache.maven.project.MavenProject;
 import org.apache.maven.toolchain.Toolchain;
 import org.apache.maven.toolchain.ToolchainManager;
 import org.moditect.commands.CreateRuntimeImage;
+import org.moditect.commands.GenerateModuleList;
+import org.moditect.internal.cache.ModuleInfoCache;
 import org.moditect.mavenplugin.image.model.Launcher;
+import org.moditect.mavenplugin.image.model.TrainingRun;
 import org.moditect.mavenplugin.util.DependencyHelper;
 import org.moditect.mavenplugin.util.MojoLog;
 import org.moditect.model.JarInclusionPolicy;
+import org.moditect.model.JarSnapshot;
+import org.moditect.model.Version;
 
 /**
  * @author Gunnar Morling
@@ -60,9 +72,42 @@ public class CreateRuntimeImageMojo extends AbstractMojo {
     @Parameter(property = "outputDirectory", defaultValue = "${project.build.directory}/image")
     private File outputDirectory;
 
-    @Parameter(required = true)
+    /**
+     * The root modules of the image. Not required anymore: if none are given, the module of the project JAR is used
+     * if it is modular; otherwise the JDK modules required by the project JAR and its dependencies are added, see
+     * {@code addRequiredJdkModules}.
+     */
+    @Parameter
     private List<String> modules;
 
+    /**
+     * Whether to add the JDK modules required by the project JAR and its dependencies, as jdeps'
+     * {@code --print-module-deps} option would list them, to the {@code modules} to be used as root. Defaults to
+     * {@code true} if no {@code modules} are given and the project JAR isn't modular, so that the image contains
+     * just the JDK modules needed by a classpath-based application.
+     */
+    @Parameter(property = "moditect.addRequiredJdkModules")
+    private Boolean addRequiredJdkModules;
+
+    /**
+     * Whether to cache the JDK modules required by the project JAR and its dependencies in {@code cacheDirectory}.
+     * Cached entries are reused as long as these JARs and the JDK remain unchanged.
+     */
+    @Parameter(property = "moditect.useCache", defaultValue = "false")
+    private boolean useCache;
+
+    /**
+     * The directory for cached module lists; may be shared by several projects.
+     */
+    @Parameter(property = "moditect.cacheDirectory", defaultValue = "${user.home}/.m2/moditect-cache")
+    private File cacheDirectory;
+
+    /**
+     * The maximum size of the cache in MB; the least recently used entries are removed when it is exceeded.
+     */
+    @Parameter(property = "moditect.cacheMaxSize", defaultValue = "256")
+    private long cacheMaxSize;
+
     @Parameter
     private JarInclusionPolicy jarInclusionPolicy;
 
@@ -102,9 +147,36 @@ public class CreateRuntimeImageMojo extends AbstractMojo {
     @Parameter(defaultValue = "false")
     private boolean bindServices;
 
+    /**
+     * Whether to add the default CDS archive, including the archived module graph, to the image, reducing the
+     * startup time of its JVM. The archive is created by jlink if it supports the {@code --generate-cds-archive}
+     * option, otherwise by running {@code java -Xshare:dump} of the image, which then must be runnable on the
+     * current platform.
+     */
+    @Parameter(property = "moditect.generateCdsArchive", defaultValue = "false")
+    private boolean generateCdsArchive;
+
+    /**
+     * A run of the launcher after linking the image, recording the classes loaded by the application in a
+     * dynamic CDS archive within the image, which then is used by the launcher script. Requires {@code launcher}
+     * to be given, implies {@code generateCdsArchive}.
+     */
+    @Parameter
+    private TrainingRun trainingRun;
+
+    /**
+     * Whether to order the resources in the image's {@code lib/modules} file by the order the classes are loaded
+     * in by the {@code launcher}, reducing page faults at startup. The order is recorded by linking the image once
+     * and running the launcher with the arguments and timeout of {@code trainingRun}; it is stored next to the
+     * image and re-used by later builds as long as the set of modules in the image doesn't change.
+     */
+    @Parameter(property = "moditect.orderResources", defaultValue = "false")
+    private boolean orderResources;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        Path jmodsDir = getJModsDir();
+        Toolchain baseJdkToolchain = getBaseJdkToolchain();
+        Path jmodsDir = getJModsDir(baseJdkToolchain);
 
         Set<Path> effectiveModulePath = this.modulePath.stream()
                 .map(File::toPath)
@@ -118,11 +190,13 @@ public class CreateRuntimeImageMojo extends AbstractMojo {
             throw new MojoFailureException(getNoProjectArtifactMessage(primaryProjectArtifact));
         }
 
+        Set<Path> dependencies = DependencyHelper.getDirectAndTransitiveDependencies(project);
+
         CreateRuntimeImage createRuntimeImage = new CreateRuntimeImage(
                 effectiveModulePath,
-                modules,
+                getModules(primaryProjectArtifact.getFile().toPath(), dependencies, baseJdkToolchain != null ? jmodsDir.getParent() : null),
                 jarInclusionPolicy,
-                DependencyHelper.getDirectAndTransitiveDependencies(project),
+                dependencies,
                 primaryProjectArtifact.getFile().toPath(),
                 launcher != null ? launcher.getName() : null,
                 launcher != null ? launcher.getModule() : null,
@@ -134,7 +208,11 @@ public class CreateRuntimeImageMojo extends AbstractMojo {
                 new MojoLog(getLog()),
                 noHeaderFiles,
                 noManPages,
-                bindServices);
+                bindServices,
+                getJlinkExecutable(baseJdkToolchain),
+                generateCdsArchive,
+                trainingRun != null ? trainingRun.toTrainingRun() : null,
+                orderResources);
         try {
             createRuntimeImage.run();
         }
@@ -144,6 +222,82 @@ public class CreateRuntimeImageMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * Returns the root modules of the image: the configured {@code modules} or, if none are configured, the module
+     * of the project JAR if it is modular; if enabled, the modules of the given JDK required by the project JAR and
+     * its dependencies are added.
+     */
+    private List<String> getModules(Path projectJar, Set<Path> dependencies, Path javaHome) throws MojoExecutionException {
+        Set<String> rootModules = new LinkedHashSet<>();
+
+        if (modules != null && !modules.isEmpty()) {
+            rootModules.addAll(modules);
+        }
+        else if (JarSnapshot.of(projectJar).isModular()) {
+            ModuleFinder.of(projectJar)
+                    .findAll()
+                    .forEach(module -> rootModules.add(module.descriptor().name()));
+        }
+
+        boolean addJdkModules = addRequiredJdkModules != null ? addRequiredJdkModules : rootModules.isEmpty();
+
+        if (addJdkModules) {
+            GenerateModuleList generateModuleList = new GenerateModuleList(
+                    projectJar,
+                    dependencies,
+                    // the classes of multi-release JARs used by the JDK the image is linked from
+                    Version.valueOf(getJdkVersion(javaHome)),
+                    javaHome,
+                    useCache ? new ModuleInfoCache(cacheDirectory.toPath(), cacheMaxSize * 1024 * 1024, new MojoLog(getLog())) : null,
+                    new MojoLog(getLog()));
+
+            try {
+                Set<String> jdkModules = generateModuleList.getJdkModules();
+                getLog().info("Adding required JDK modules " + jdkModules + " to the runtime image");
+                rootModules.addAll(jdkModules);
+            }
+            catch (RuntimeException ex) {
+                getLog().error(ex);
+                throw new MojoExecutionException("Error determining required JDK modules", ex);
+            }
+        }
+
+        if (rootModules.isEmpty()) {
+            throw new MojoExecutionException("No modules to be added to the runtime image were given or found, please specify the 'modules' configuration property");
+        }
+
+        return new ArrayList<>(rootModules);
+    }
+
+    /**
+     * Returns the feature version of the given JDK as given in its {@code release} file, or of the current JDK if
+     * none is given.
+     */
+    private static int getJdkVersion(Path javaHome) throws MojoExecutionException {
+        if (javaHome == null) {
+            return Runtime.version().feature();
+        }
+
+        Path releaseFile = javaHome.resolve("release");
+        Properties release = new Properties();
+
+        try (Reader reader = Files.newBufferedReader(releaseFile, StandardCharsets.UTF_8)) {
+            release.load(reader);
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Couldn't read " + releaseFile, e);
+        }
+
+        String version = release.getProperty("JAVA_VERSION");
+
+        try {
+            return Runtime.Version.parse(version.replace("\"", "")).feature();
+        }
+        catch (RuntimeException e) {
+            throw new MojoExecutionException("Couldn't determine the version of JDK " + javaHome + " from JAVA_VERSION " + version + " in " + releaseFile, e);
+        }
+    }
+
     private static String getNoProjectArtifactMessage(Artifact primaryProjectArtifact) {
         final StringBuilder message = new StringBuilder();
         message.append("No primary project artifact was found to create a runtime image.");
@@ -160,41 +314,50 @@ public class CreateRuntimeImageMojo extends AbstractMojo {
         return message.toString();
     }
 
+    /**
+     * Returns the toolchain identified by {@code baseJdk}, or {@code null} if {@code baseJdk} hasn't been given.
+     */
+    private Toolchain getBaseJdkToolchain() throws MojoExecutionException {
+        if (baseJdk == null) {
+            return null;
+        }
+
+        List<Toolchain> toolChains = toolchainManager.getToolchains(mavenSession, "jdk", getToolChainRequirements(baseJdk));
+        if (toolChains.isEmpty()) {
+            throw new MojoExecutionException("Found no tool chain of type 'jdk' and matching requirements '" + baseJdk + "'");
+        }
+        else if (toolChains.size() > 1) {
+            throw new MojoExecutionException("Found more than one tool chain of type 'jdk' and matching requirements '" + baseJdk + "'");
+        }
+        else {
+            return toolChains.get(0);
+        }
+    }
+
     /**
      * Returns the directory with the jmod files to be used for creating the image.
      * If {@code baseJdk} has been given, the jmod files from the JDK identified that way
      * will be used; otherwise the jmod files from the JDK running the current build
      * will be used.
      */
-    private Path getJModsDir() throws MojoExecutionException {
-        if (baseJdk != null) {
-            List<Toolchain> toolChains = toolchainManager.getToolchains(mavenSession, "jdk", getToolChainRequirements(baseJdk));
-            if (toolChains.isEmpty()) {
-                throw new MojoExecutionException("Found no tool chain of type 'jdk' and matching requirements '" + baseJdk + "'");
-            }
-            else if (toolChains.size() > 1) {
-                throw new MojoExecutionException("Found more than one tool chain of type 'jdk' and matching requirements '" + baseJdk + "'");
+    private Path getJModsDir(Toolchain baseJdkToolchain) throws MojoExecutionException {
+        if (baseJdkToolchain != null) {
+            String javac = baseJdkToolchain.findTool("javac");
+
+            // #63; when building on Linux / OS X but creating a Windows runtime image
+            // the tool lookup must be for javac.exe explicitly (as the toolchain mechanism
+            // itself won't append the suffix if not running this build on Windows
+            if (javac == null) {
+                javac = baseJdkToolchain.findTool("javac.exe");
             }
-            else {
-                Toolchain toolchain = toolChains.get(0);
-
-                String javac = toolchain.findTool("javac");
-
-                // #63; when building on Linux / OS X but creating a Windows runtime image
-                // the tool lookup must be for javac.exe explicitly (as the toolchain mechanism
-                // itself won't append the suffix if not running this build on Windows
-                if (javac == null) {
-                    javac = toolchain.findTool("javac.exe");
-                }
-                if (javac == null) {
-                    throw new MojoExecutionException("Couldn't locate toolchain directory");
-                }
-                return new File(javac)
-                        .toPath()
-                        .getParent()
-                        .getParent()
-                        .resolve("jmods");
+            if (javac == null) {
+                throw new MojoExecutionException("Couldn't locate toolchain directory");
             }
+            return new File(javac)
+                    .toPath()
+                    .getParent()
+                    .getParent()
+                    .resolve("jmods");
         }
         else {
             String javaHome = System.getProperty("java.home");
@@ -202,6 +365,33 @@ public class CreateRuntimeImageMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * Returns the jlink executable of the {@code baseJdk} toolchain if it is a JDK other than the one running the
+     * current build, or {@code null} if jlink of the current JDK should be run in-process. The latter also is the
+     * case if the toolchain's jlink can't be run on the current platform, e.g. when creating a Windows runtime image
+     * on Linux.
+     */
+    private Path getJlinkExecutable(Toolchain baseJdkToolchain) throws MojoExecutionException {
+        if (baseJdkToolchain == null) {
+            return null;
+        }
+
+        String jlink = baseJdkToolchain.findTool("jlink");
+        if (jlink == null) {
+            return null;
+        }
+
+        try {
+            Path jlinkHome = new File(jlink).toPath().getParent().getParent().toRealPath();
+            Path javaHome = new File(System.getProperty("java.home")).toPath().toRealPath();
+
+            return jlinkHome.equals(javaHome) ? null : new File(jlink).toPath();
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Couldn't locate toolchain directory", e);
+        }
+    }
+
     private Map<String, String> getToolChainRequirements(String baseJdk) throws MojoExecutionException {
         Map<String, String> toolChainRequirements = new HashMap<>();
         String[] requirements = baseJdk.split(",");
@@ -0,0 +1,43 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.mavenplugin.image.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A training run of the launcher, recording a dynamic CDS archive of the application.
+ */
+public class TrainingRun {
+
+    private List<String> arguments = new ArrayList<>();
+    private long timeout = 60;
+
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    public void setArguments(List<String> arguments) {
+        this.arguments = arguments;
+    }
+
+    /**
+     * Returns the time in seconds after which the application is stopped, unless it has terminated before.
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public org.moditect.model.TrainingRun toTrainingRun() {
+        return new org.moditect.model.TrainingRun(arguments, timeout);
+    }
+}
@@ -7,24 +7,43 @@
  */
 package org.moditect.mavenplugin.util;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
 import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryException;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
 import org.eclipse.aether.artifact.Artifact;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.collection.CollectRequest;
 import org.eclipse.aether.collection.CollectResult;
+import org.eclipse.aether.collection.DependencyCollectionContext;
 import org.eclipse.aether.collection.DependencyCollectionException;
+import org.eclipse.aether.collection.DependencyGraphTransformationContext;
+import org.eclipse.aether.collection.DependencyManagement;
+import org.eclipse.aether.collection.DependencyManager;
+import org.eclipse.aether.collection.DependencySelector;
+import org.eclipse.aether.collection.DependencyTraverser;
+import org.eclipse.aether.graph.DefaultDependencyNode;
 import org.eclipse.aether.graph.Dependency;
 import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.resolution.ArtifactRequest;
 import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.util.artifact.ArtifactIdUtils;
 import org.eclipse.aether.util.graph.selector.AndDependencySelector;
 import org.eclipse.aether.util.graph.selector.ExclusionDependencySelector;
 import org.eclipse.aether.util.graph.selector.OptionalDependencySelector;
@@ -32,40 +51,113 @@ import org.eclipse.aether.util.graph.visitor.PreorderNodeListGenerator;
 import org.moditect.mavenplugin.common.model.ArtifactConfiguration;
 import org.moditect.mavenplugin.generate.CompileScopeDependencySelector;
 
+/**
+ * Resolves artifacts and collects their compilation dependencies. Results are memoized by coordinates for the
+ * entire build, i.e. shared by all executions of the plug-in's goals using the same repository session.
+ */
 public class ArtifactResolutionHelper {
 
-    private RepositorySystem repoSystem;
-    private RepositorySystemSession repoSession;
-    private List<RemoteRepository> remoteRepos;
+    private static final String RESOLUTION_CACHE_KEY = ArtifactResolutionHelper.class.getName() + ".resolutionCache";
+
+    /**
+     * The root of the graph when collecting the dependencies of several artifacts at once.
+     */
+    private static final Artifact SYNTHETIC_ROOT = new DefaultArtifact("org.moditect", "moditect-compilation-dependencies", "pom", "0");
+
+    private final RepositorySystem repoSystem;
+    private final RepositorySystemSession repoSession;
+    private final RepositorySystemSession compilationSession;
+    private final List<RemoteRepository> remoteRepos;
+    private final ResolutionCache cache;
 
     public ArtifactResolutionHelper(RepositorySystem repoSystem, RepositorySystemSession repoSession,
                                     List<RemoteRepository> remoteRepos) {
         this.repoSystem = repoSystem;
         this.repoSession = repoSession;
         this.remoteRepos = remoteRepos;
+        this.cache = getResolutionCache(repoSession);
+
+        // a plain session, so the collected dependencies don't depend on the settings of the build (e.g. the
+        // dependency manager); only the settings for accessing repositories are taken over
+        DefaultRepositorySystemSession compilationSession = MavenRepositorySystemUtils.newSession();
+        compilationSession.setLocalRepositoryManager(repoSession.getLocalRepositoryManager());
+        compilationSession.setOffline(repoSession.isOffline());
+        compilationSession.setMirrorSelector(repoSession.getMirrorSelector());
+        compilationSession.setProxySelector(repoSession.getProxySelector());
+        compilationSession.setAuthenticationSelector(repoSession.getAuthenticationSelector());
+        compilationSession.setDependencySelector(
+                new AndDependencySelector(
+                        new CompileScopeDependencySelector(),
+                        new OptionalDependencySelector(),
+                        new ExclusionDependencySelector()));
+        this.compilationSession = compilationSession;
+    }
+
+    /**
+     * Returns the cache stored in the given session, creating it upon first access.
+     */
+    private static ResolutionCache getResolutionCache(RepositorySystemSession repoSession) {
+        SessionData data = repoSession.getData();
+
+        Object cache = data.get(RESOLUTION_CACHE_KEY);
+        if (cache == null) {
+            data.set(RESOLUTION_CACHE_KEY, null, new ResolutionCache());
+            cache = data.get(RESOLUTION_CACHE_KEY);
+        }
+
+        // the session may be shared with another version of this plug-in
+        return cache instanceof ResolutionCache ? (ResolutionCache) cache : new ResolutionCache();
+    }
+
+    public static Artifact toArtifact(ArtifactConfiguration artifact) {
+        return new DefaultArtifact(
+                artifact.getGroupId(),
+                artifact.getArtifactId(),
+                artifact.getClassifier(),
+                artifact.getType() != null ? artifact.getType() : "jar",
+                artifact.getVersion());
     }
 
     public Artifact resolveArtifact(ArtifactConfiguration artifact) throws MojoExecutionException {
-        return resolveArtifact(
-                new DefaultArtifact(
-                        artifact.getGroupId(),
-                        artifact.getArtifactId(),
-                        artifact.getClassifier(),
-                        artifact.getType() != null ? artifact.getType() : "jar",
-                        artifact.getVersion()));
+        return resolveArtifact(toArtifact(artifact));
     }
 
     public Artifact resolveArtifact(Artifact inputArtifact) throws MojoExecutionException {
-        ArtifactRequest request = new ArtifactRequest();
-        request.setArtifact(inputArtifact);
-        request.setRepositories(remoteRepos);
+        return resolveArtifacts(Collections.singletonList(inputArtifact)).get(0);
+    }
 
-        try {
-            return repoSystem.resolveArtifact(repoSession, request).getArtifact();
+    /**
+     * Resolves the given artifacts, requesting all those which haven't been resolved before at once.
+     *
+     * @return the resolved artifacts, in the order of the given ones
+     */
+    public List<Artifact> resolveArtifacts(List<Artifact> inputArtifacts) throws MojoExecutionException {
+        Map<String, ArtifactRequest> requests = new LinkedHashMap<>();
+
+        for (Artifact inputArtifact : inputArtifacts) {
+            String key = ArtifactIdUtils.toId(inputArtifact);
+            if (!cache.artifacts.containsKey(key) && !requests.containsKey(key)) {
+                ArtifactRequest request = new ArtifactRequest();
+                request.setArtifact(inputArtifact);
+                request.setRepositories(remoteRepos);
+                requests.put(key, request);
+            }
         }
-        catch (ArtifactResolutionException e) {
-            throw new MojoExecutionException(e.getMessage(), e);
+
+        if (!requests.isEmpty()) {
+            try {
+                for (ArtifactResult result : repoSystem.resolveArtifacts(repoSession, requests.values())) {
+                    cache.artifacts.put(ArtifactIdUtils.toId(result.getRequest().getArtifact()), result.getArtifact());
+                }
+            }
+            catch (ArtifactResolutionException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            }
         }
+
+        return inputArtifacts.stream()
+                .map(inputArtifact -> cache.artifacts.get(ArtifactIdUtils.toId(inputArtifact)))
+                .collect(Collectors.toList());
     }
 
     /**
@@ -74,37 +166,271 @@ public class ArtifactResolutionHelper {
      * specific dependencies used during compilation, we cannot retrieve them here).
      */
     public List<DependencyNode> getCompilationDependencies(Artifact inputArtifact) throws MojoExecutionException {
+        String key = getCompilationDependenciesKey(inputArtifact);
+
+        List<DependencyNode> cached = cache.compilationDependencies.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
         try {
             CollectRequest collectRequest = new CollectRequest(new Dependency(inputArtifact, "compile"), remoteRepos);
+            CollectResult collectResult = repoSystem.collectDependencies(compilationSession, collectRequest);
 
-            DefaultRepositorySystemSession sessionWithProvided = MavenRepositorySystemUtils.newSession();
-            sessionWithProvided.setDependencySelector(
-                    new AndDependencySelector(
-                            new CompileScopeDependencySelector(),
-                            new OptionalDependencySelector(),
-                            new ExclusionDependencySelector()));
-            sessionWithProvided.setLocalRepositoryManager(repoSession.getLocalRepositoryManager());
-
-            CollectResult collectResult = repoSystem.collectDependencies(sessionWithProvided, collectRequest);
+            List<DependencyNode> dependencies = getDependencies(collectResult.getRoot());
+            cache.compilationDependencies.put(key, dependencies);
 
-            PreorderNodeListGenerator nlg = new PreorderNodeListGenerator();
-            collectResult.getRoot().accept(nlg);
+            return dependencies;
+        }
+        catch (DependencyCollectionException e) {
+            throw new MojoExecutionException("Couldn't collect dependencies of artifact " + inputArtifact, e);
+        }
+    }
 
-            List<DependencyNode> dependencies = nlg.getNodes();
+    /**
+     * Collects the compilation dependencies of all the given artifacts at once, so subsequent invocations of
+     * {@link #getCompilationDependencies(Artifact)} for them don't need to collect any dependencies.
+     * <p>
+     * A single graph is collected, with a synthetic root depending on all the artifacts. The collector shares
+     * the sub-graphs of equal nodes, i.e. each dependency is only processed once, also if it is a dependency of
+     * several artifacts. Conflicts are resolved for each artifact separately, so its dependencies are the same as
+     * when collecting them for that artifact alone.
+     */
+    public void collectCompilationDependencies(List<Artifact> inputArtifacts) throws MojoExecutionException {
+        Map<String, Artifact> artifactsByKey = new LinkedHashMap<>();
 
-            // remove the input artifact itself
-            Iterator<DependencyNode> it = dependencies.iterator();
-            while (it.hasNext()) {
-                DependencyNode next = it.next();
-                if (next.getDependency() == collectRequest.getRoot()) {
-                    it.remove();
-                }
+        for (Artifact inputArtifact : inputArtifacts) {
+            String key = getCompilationDependenciesKey(inputArtifact);
+            if (!cache.compilationDependencies.containsKey(key)) {
+                artifactsByKey.putIfAbsent(key, inputArtifact);
             }
+        }
 
-            return dependencies;
+        if (artifactsByKey.size() < 2) {
+            return;
+        }
+
+        CollectRequest collectRequest = new CollectRequest();
+        collectRequest.setRootArtifact(SYNTHETIC_ROOT);
+        collectRequest.setRepositories(remoteRepos);
+        for (Artifact inputArtifact : artifactsByKey.values()) {
+            collectRequest.addDependency(new Dependency(inputArtifact, "compile"));
+        }
+
+        // the artifacts are processed like the root of a graph of their own, and conflicts aren't resolved yet
+        DefaultRepositorySystemSession mergedSession = new DefaultRepositorySystemSession(compilationSession);
+        mergedSession.setDependencySelector(new SyntheticRootDependencySelector(compilationSession.getDependencySelector(), true));
+        mergedSession.setDependencyManager(new SyntheticRootDependencyManager(compilationSession.getDependencyManager(), true));
+        mergedSession.setDependencyTraverser(new SyntheticRootDependencyTraverser(compilationSession.getDependencyTraverser(), true));
+        mergedSession.setDependencyGraphTransformer(null);
+
+        CollectResult collectResult;
+        try {
+            collectResult = repoSystem.collectDependencies(mergedSession, collectRequest);
         }
         catch (DependencyCollectionException e) {
-            throw new MojoExecutionException("Couldn't collect dependencies of artifact " + inputArtifact, e);
+            // the dependencies are collected separately then, failing for the affected artifact only
+            return;
+        }
+
+        List<DependencyNode> artifactNodes = collectResult.getRoot().getChildren();
+        if (artifactNodes.size() != artifactsByKey.size()) {
+            return;
+        }
+
+        Iterator<String> keys = artifactsByKey.keySet().iterator();
+        for (DependencyNode artifactNode : artifactNodes) {
+            DependencyNode root = copy(artifactNode, new IdentityHashMap<>(), new IdentityHashMap<>());
+
+            try {
+                root = compilationSession.getDependencyGraphTransformer()
+                        .transformGraph(root, new GraphTransformationContext(compilationSession));
+            }
+            catch (RepositoryException e) {
+                throw new MojoExecutionException("Couldn't collect dependencies of artifact " + artifactNode.getArtifact(), e);
+            }
+
+            cache.compilationDependencies.putIfAbsent(keys.next(), getDependencies(root));
+        }
+    }
+
+    private String getCompilationDependenciesKey(Artifact inputArtifact) {
+        return ArtifactIdUtils.toId(inputArtifact) + " " + remoteRepos.stream()
+                .map(RemoteRepository::getId)
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * Returns all nodes of the given graph in pre-order, except the root itself.
+     */
+    private static List<DependencyNode> getDependencies(DependencyNode root) {
+        PreorderNodeListGenerator nlg = new PreorderNodeListGenerator();
+        root.accept(nlg);
+
+        List<DependencyNode> dependencies = new ArrayList<>(nlg.getNodes());
+
+        // remove the input artifact itself
+        Iterator<DependencyNode> it = dependencies.iterator();
+        while (it.hasNext()) {
+            DependencyNode next = it.next();
+            if (next == root) {
+                it.remove();
+            }
+        }
+
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    /**
+     * Copies the given (sub-)graph, so conflicts can be resolved in it without altering other graphs sharing
+     * nodes with it. Nodes and lists of children shared within the graph, e.g. due to cycles, are shared
+     * within the copy too.
+     */
+    private static DependencyNode copy(DependencyNode node, Map<DependencyNode, DependencyNode> copiedNodes,
+                                       Map<List<DependencyNode>, List<DependencyNode>> copiedChildren) {
+        DependencyNode copy = copiedNodes.get(node);
+        if (copy != null) {
+            return copy;
+        }
+
+        copy = new DefaultDependencyNode(node);
+        copiedNodes.put(node, copy);
+
+        List<DependencyNode> children = copiedChildren.get(node.getChildren());
+        if (children == null) {
+            children = new ArrayList<>(node.getChildren().size());
+            copiedChildren.put(node.getChildren(), children);
+
+            for (DependencyNode child : node.getChildren()) {
+                children.add(copy(child, copiedNodes, copiedChildren));
+            }
+        }
+
+        copy.setChildren(children);
+        return copy;
+    }
+
+    /**
+     * The resolved artifacts and collected dependencies, by coordinates.
+     */
+    private static class ResolutionCache {
+
+        private final Map<String, Artifact> artifacts = new ConcurrentHashMap<>();
+        private final Map<String, List<DependencyNode>> compilationDependencies = new ConcurrentHashMap<>();
+    }
+
+    private static class GraphTransformationContext implements DependencyGraphTransformationContext {
+
+        private final RepositorySystemSession session;
+        private final Map<Object, Object> data = new HashMap<>();
+
+        GraphTransformationContext(RepositorySystemSession session) {
+            this.session = session;
+        }
+
+        @Override
+        public RepositorySystemSession getSession() {
+            return session;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return data.get(key);
+        }
+
+        @Override
+        public Object put(Object key, Object value) {
+            return data.put(key, value);
+        }
+    }
+
+    /**
+     * Selects all dependencies of the synthetic root; for each of them, the selector of a graph of its own is
+     * derived.
+     */
+    private static class SyntheticRootDependencySelector implements DependencySelector {
+
+        private final DependencySelector delegate;
+        private final boolean root;
+
+        SyntheticRootDependencySelector(DependencySelector delegate, boolean root) {
+            this.delegate = delegate;
+            this.root = root;
+        }
+
+        @Override
+        public boolean selectDependency(Dependency dependency) {
+            return true;
+        }
+
+        @Override
+        public DependencySelector deriveChildSelector(DependencyCollectionContext context) {
+            if (root) {
+                return new SyntheticRootDependencySelector(delegate, false);
+            }
+            else {
+                return delegate != null ? delegate.deriveChildSelector(context) : null;
+            }
+        }
+    }
+
+    /**
+     * Doesn't manage the dependencies of the synthetic root; for each of them, the manager of a graph of its own
+     * is derived.
+     */
+    private static class SyntheticRootDependencyManager implements DependencyManager {
+
+        private final DependencyManager delegate;
+        private final boolean root;
+
+        SyntheticRootDependencyManager(DependencyManager delegate, boolean root) {
+            this.delegate = delegate;
+            this.root = root;
+        }
+
+        @Override
+        public DependencyManagement manageDependency(Dependency dependency) {
+            return null;
+        }
+
+        @Override
+        public DependencyManager deriveChildManager(DependencyCollectionContext context) {
+            if (root) {
+                return new SyntheticRootDependencyManager(delegate, false);
+            }
+            else {
+                return delegate != null ? delegate.deriveChildManager(context) : null;
+            }
+        }
+    }
+
+    /**
+     * Traverses all dependencies of the synthetic root; for each of them, the traverser of a graph of its own is
+     * derived.
+     */
+    private static class SyntheticRootDependencyTraverser implements DependencyTraverser {
+
+        private final DependencyTraverser delegate;
+        private final boolean root;
+
+        SyntheticRootDependencyTraverser(DependencyTraverser delegate, boolean root) {
+            this.delegate = delegate;
+            this.root = root;
+        }
+
+        @Override
+        public boolean traverseDependency(Dependency dependency) {
+            return true;
+        }
+
+        @Override
+        public DependencyTraverser deriveChildTraverser(DependencyCollectionContext context) {
+            if (root) {
+                return new SyntheticRootDependencyTraverser(delegate, false);
+            }
+            else {
+                return delegate != null ? delegate.deriveChildTraverser(context) : null;
+            }
         }
     }
 }
@@ -0,0 +1,246 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.mavenplugin.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SessionData;
+
+/**
+ * The modularizations of JARs done within the current build, shared by all projects of the reactor. If several
+ * projects modularize the same JAR with the same configuration and dependencies, the work is only done once
+ * (also when building projects in parallel); the other projects link or copy the modularized JAR.
+ * <p>
+ * Modularizations are identified by keys describing all their inputs. A modularized JAR is referred to by the digest
+ * of the key it has been created with in the keys of other modularizations, so modularizations based on the
+ * modularized JARs of different projects can be shared too. JARs changed after their modularization aren't shared
+ * any longer.
+ */
+public class SharedModularizations {
+
+    private static final String SESSION_DATA_KEY = SharedModularizations.class.getName();
+
+    private final Map<String, FutureTask<Path>> modularizations = new ConcurrentHashMap<>();
+    private final Map<Path, SharedJar> sharedJars = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the instance for the build of the given session, creating it upon first access.
+     */
+    public static SharedModularizations getInstance(RepositorySystemSession repoSession) {
+        SessionData data = repoSession.getData();
+
+        Object instance = data.get(SESSION_DATA_KEY);
+        if (instance == null) {
+            data.set(SESSION_DATA_KEY, null, new SharedModularizations());
+            instance = data.get(SESSION_DATA_KEY);
+        }
+
+        // the session may be shared with another version of this plug-in
+        return instance instanceof SharedModularizations ? (SharedModularizations) instance : new SharedModularizations();
+    }
+
+    /**
+     * Returns the key of the given file for use within the key of a modularization: the digest of the key it has
+     * been modularized with if it is a shared modularized JAR, otherwise its path, size and time stamp.
+     */
+    public String getFileKey(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = readAttributes(path);
+
+        if (attributes == null) {
+            return "missing " + path;
+        }
+
+        SharedJar sharedJar = sharedJars.get(path);
+        if (sharedJar != null && sharedJar.isUnchanged(attributes)) {
+            return "modularized " + sharedJar.digest;
+        }
+
+        return path + " " + attributes.size() + " " + attributes.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Runs the modularization with the given key, unless it has been done (or is in progress) for another project
+     * already.
+     *
+     * @param outputJar the JAR written by the given modularization
+     * @return the modularized JAR, either the given output JAR or the one of another project, which is to be
+     *         linked or copied to the output JAR and {@link #register(Path, String) registered} then
+     */
+    public Path modularize(String key, Path outputJar, Modularization modularization) throws MojoExecutionException {
+        Path jar = outputJar.toAbsolutePath().normalize();
+        String digest = digest(key);
+
+        FutureTask<Path> task = new FutureTask<>(() -> {
+            modularization.run();
+            register(jar, key);
+            return jar;
+        });
+
+        FutureTask<Path> existing = modularizations.putIfAbsent(digest, task);
+        if (existing == null) {
+            task.run();
+            return await(digest, task);
+        }
+
+        Path sharedJar;
+        try {
+            sharedJar = await(digest, existing);
+        }
+        catch (MojoExecutionException | RuntimeException e) {
+            // modularizing failed for the other project; it is tried once more for this one
+            sharedJar = null;
+        }
+
+        SharedJar shared = sharedJar != null ? sharedJars.get(sharedJar) : null;
+        BasicFileAttributes attributes = sharedJar != null ? readAttributes(sharedJar) : null;
+
+        // the other project's JAR may have been re-written by another modularization since
+        if (shared == null || !shared.digest.equals(digest) || attributes == null || !shared.isUnchanged(attributes)) {
+            modularization.run();
+            register(jar, key);
+            return jar;
+        }
+
+        return sharedJar;
+    }
+
+    /**
+     * Registers the given JAR as the result of the modularization with the given key.
+     */
+    public void register(Path jar, String key) {
+        Path path = jar.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = readAttributes(path);
+
+        if (attributes != null) {
+            sharedJars.put(path, new SharedJar(digest(key), attributes));
+        }
+    }
+
+    /**
+     * Whether the given file has the same content as the given shared modularized JAR, e.g. as it has been
+     * linked or copied from the result of the same modularization by a previous build.
+     */
+    public static boolean hasSameContent(Path file, Path sharedJar) throws MojoExecutionException {
+        try {
+            if (Files.isSameFile(file, sharedJar)) {
+                return true;
+            }
+            if (Files.size(file) != Files.size(sharedJar)) {
+                return false;
+            }
+
+            try (InputStream fileContent = new BufferedInputStream(Files.newInputStream(file));
+                    InputStream sharedJarContent = new BufferedInputStream(Files.newInputStream(sharedJar))) {
+                int b;
+                do {
+                    b = fileContent.read();
+                    if (b != sharedJarContent.read()) {
+                        return false;
+                    }
+                } while (b != -1);
+
+                return true;
+            }
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Couldn't compare " + file + " with " + sharedJar, e);
+        }
+    }
+
+    private Path await(String digest, FutureTask<Path> task) throws MojoExecutionException {
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for modularization", e);
+        }
+        catch (ExecutionException e) {
+            // not shared, so projects coming later try again, reporting their own failure
+            modularizations.remove(digest, task);
+
+            if (e.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) e.getCause();
+            }
+            else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            else {
+                throw new MojoExecutionException("Couldn't modularize JAR", e.getCause());
+            }
+        }
+    }
+
+    private static String digest(String key) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8))) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    private static BasicFileAttributes readAttributes(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Modularizes a JAR.
+     */
+    @FunctionalInterface
+    public interface Modularization {
+
+        void run() throws MojoExecutionException;
+    }
+
+    private static class SharedJar {
+
+        private final String digest;
+        private final long size;
+        private final long lastModified;
+
+        SharedJar(String digest, BasicFileAttributes attributes) {
+            this.digest = digest;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+        }
+
+        boolean isUnchanged(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+}
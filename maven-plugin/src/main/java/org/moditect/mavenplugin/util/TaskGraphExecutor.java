@@ -0,0 +1,205 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.mavenplugin.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Executes a set of tasks with dependencies between them, running independent tasks in parallel. A task may
+ * only depend on tasks added before it, i.e. executing all tasks one by one in the order they were added
+ * yields the same result as the parallel execution.
+ * <p>
+ * If tasks fail, no further tasks are started, including tasks already queued for execution, and the failure of
+ * the first failed task (in the order tasks were added) is reported once all running tasks have completed.
+ */
+public class TaskGraphExecutor {
+
+    @FunctionalInterface
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final int parallelism;
+    private final List<Task> tasks = new ArrayList<>();
+    private final List<Integer> predecessorCounts = new ArrayList<>();
+    private final List<List<Integer>> successors = new ArrayList<>();
+
+    public TaskGraphExecutor(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Adds a task.
+     *
+     * @param predecessors the indexes of the previously added tasks which must have completed before the given
+     *        task may be run
+     * @return the index of the added task
+     */
+    public int addTask(Task task, Collection<Integer> predecessors) {
+        int index = tasks.size();
+        Set<Integer> uniquePredecessors = new HashSet<>(predecessors);
+
+        for (int predecessor : uniquePredecessors) {
+            if (predecessor < 0 || predecessor >= index) {
+                throw new IllegalArgumentException("Task " + index + " can only depend on previously added tasks, but got " + predecessor);
+            }
+        }
+
+        tasks.add(task);
+        predecessorCounts.add(uniquePredecessors.size());
+        successors.add(new ArrayList<>());
+
+        for (int predecessor : uniquePredecessors) {
+            successors.get(predecessor).add(index);
+        }
+
+        return index;
+    }
+
+    public void execute() throws MojoExecutionException {
+        if (parallelism == 1 || tasks.size() <= 1) {
+            for (Task task : tasks) {
+                Throwable failure = run(task);
+                if (failure != null) {
+                    rethrow(failure);
+                }
+            }
+
+            return;
+        }
+
+        int poolNumber = POOL_COUNTER.incrementAndGet();
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()), r -> {
+            Thread thread = new Thread(r, "moditect-" + poolNumber + "-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            new Execution(executor).await();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Throwable run(Task task) {
+        try {
+            task.run();
+            return null;
+        }
+        catch (Throwable t) {
+            return t;
+        }
+    }
+
+    private static void rethrow(Throwable failure) throws MojoExecutionException {
+        if (failure instanceof MojoExecutionException) {
+            throw (MojoExecutionException) failure;
+        }
+        else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        else {
+            throw new MojoExecutionException(failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * The state of one execution of all the tasks; guarded by the execution's monitor.
+     */
+    private class Execution {
+
+        private final ExecutorService executor;
+        private final int[] pendingPredecessors;
+        private final Throwable[] failures;
+        private int running;
+        private boolean failed;
+
+        Execution(ExecutorService executor) {
+            this.executor = executor;
+            this.pendingPredecessors = new int[tasks.size()];
+            this.failures = new Throwable[tasks.size()];
+
+            for (int i = 0; i < tasks.size(); i++) {
+                pendingPredecessors[i] = predecessorCounts.get(i);
+            }
+        }
+
+        synchronized void await() throws MojoExecutionException {
+            for (int i = 0; i < tasks.size(); i++) {
+                if (pendingPredecessors[i] == 0) {
+                    submit(i);
+                }
+            }
+
+            try {
+                while (running > 0) {
+                    wait();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while waiting for tasks to complete", e);
+            }
+
+            for (Throwable failure : failures) {
+                if (failure != null) {
+                    rethrow(failure);
+                }
+            }
+        }
+
+        private void submit(int index) {
+            running++;
+
+            // tasks still queued when another task fails are skipped
+            executor.execute(() -> completed(index, hasFailed() ? null : run(tasks.get(index))));
+        }
+
+        private synchronized boolean hasFailed() {
+            return failed;
+        }
+
+        private synchronized void completed(int index, Throwable failure) {
+            if (failure != null) {
+                failures[index] = failure;
+                failed = true;
+            }
+            else if (!failed) {
+                for (int successor : successors.get(index)) {
+                    if (--pendingPredecessors[successor] == 0) {
+                        submit(successor);
+                    }
+                }
+            }
+
+            running--;
+            notifyAll();
+        }
+    }
+}
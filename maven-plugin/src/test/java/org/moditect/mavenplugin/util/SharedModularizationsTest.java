@@ -0,0 +1,136 @@
+/*
+ *  SPDX-License-Identifier: Apache-2.0
+ *
+ *  Copyright The original authors
+ *
+ *  Licensed under the Apache Software License version 2.0, available at http://www.apache.org/licenses/LICENSE-2.0
+ */
+package org.moditect.mavenplugin.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class SharedModularizationsTest {
+
+    private static final Path WORKING_DIRECTORY = Paths.get("target", "shared-modularizations-test");
+    private static final String KEY = "input=example.jar\nversion=1.0\n";
+
+    private final SharedModularizations sharedModularizations = new SharedModularizations();
+
+    private Path firstJar;
+    private Path secondJar;
+
+    @Before
+    public void prepareDirectories() throws Exception {
+        if (Files.exists(WORKING_DIRECTORY)) {
+            Files.walkFileTree(WORKING_DIRECTORY, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        firstJar = Files.createDirectories(WORKING_DIRECTORY.resolve("first")).resolve("example.jar").toAbsolutePath();
+        secondJar = Files.createDirectories(WORKING_DIRECTORY.resolve("second")).resolve("example.jar").toAbsolutePath();
+    }
+
+    @Test
+    public void shouldReuseJarOfModularizationWithSameKey() throws Exception {
+        AtomicInteger modularizations = new AtomicInteger();
+
+        Path modularized = sharedModularizations.modularize(KEY, firstJar, () -> write(firstJar, "first", modularizations));
+        assertThat(modularized).isEqualTo(firstJar);
+
+        modularized = sharedModularizations.modularize(KEY, secondJar, () -> write(secondJar, "second", modularizations));
+        assertThat(modularized).isEqualTo(firstJar);
+        assertThat(modularizations).hasValue(1);
+
+        // the reused JAR is referred to by the key of the first one in the keys of other modularizations
+        Files.copy(modularized, secondJar);
+        sharedModularizations.register(secondJar, KEY);
+        assertThat(sharedModularizations.getFileKey(secondJar))
+                .startsWith("modularized ")
+                .isEqualTo(sharedModularizations.getFileKey(firstJar));
+    }
+
+    @Test
+    public void shouldModularizeAgainAfterFailureOfOtherProject() throws Exception {
+        try {
+            sharedModularizations.modularize(KEY, firstJar, () -> {
+                throw new MojoExecutionException("Couldn't modularize");
+            });
+            fail("Expected modularization to fail");
+        }
+        catch (MojoExecutionException e) {
+            assertThat(e).hasMessage("Couldn't modularize");
+        }
+
+        AtomicInteger modularizations = new AtomicInteger();
+        Path modularized = sharedModularizations.modularize(KEY, secondJar, () -> write(secondJar, "second", modularizations));
+
+        assertThat(modularized).isEqualTo(secondJar);
+        assertThat(modularizations).hasValue(1);
+    }
+
+    @Test
+    public void shouldNotReuseChangedJar() throws Exception {
+        AtomicInteger modularizations = new AtomicInteger();
+        sharedModularizations.modularize(KEY, firstJar, () -> write(firstJar, "first", modularizations));
+
+        // e.g. re-written by another modularization of the first project
+        Files.write(firstJar, "changed content".getBytes(StandardCharsets.UTF_8));
+
+        Path modularized = sharedModularizations.modularize(KEY, secondJar, () -> write(secondJar, "second", modularizations));
+
+        assertThat(modularized).isEqualTo(secondJar);
+        assertThat(modularizations).hasValue(2);
+    }
+
+    @Test
+    public void shouldDetermineWhetherExistingJarIsSameAsSharedJar() throws Exception {
+        Files.write(firstJar, "modularized".getBytes(StandardCharsets.UTF_8));
+
+        // e.g. the output of a previous build, copied from the shared JAR then
+        Files.copy(firstJar, secondJar);
+        assertThat(SharedModularizations.hasSameContent(secondJar, firstJar)).isTrue();
+
+        Files.write(secondJar, "modularizeD".getBytes(StandardCharsets.UTF_8));
+        assertThat(SharedModularizations.hasSameContent(secondJar, firstJar)).isFalse();
+
+        Files.write(secondJar, "modularized2".getBytes(StandardCharsets.UTF_8));
+        assertThat(SharedModularizations.hasSameContent(secondJar, firstJar)).isFalse();
+    }
+
+    private static void write(Path jar, String content, AtomicInteger modularizations) throws MojoExecutionException {
+        modularizations.incrementAndGet();
+
+        try {
+            Files.write(jar, content.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            throw new MojoExecutionException("Couldn't write " + jar, e);
+        }
+    }
+}